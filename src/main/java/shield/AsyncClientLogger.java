@@ -0,0 +1,87 @@
+/**
+ * Client logger that hands failures to a background thread which writes them to
+ * a PrintStream, so the calling thread never blocks on I/O.
+ *
+ * If the queue is full the entry is dropped and counted instead of slowing down
+ * the caller.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncClientLogger implements ClientLogger {
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private final BlockingQueue<Entry> queue;
+  private final PrintStream out;
+  private final AtomicLong dropped = new AtomicLong();
+
+  // Internal field to store a queued log entry
+  private static final class Entry {
+    final ErrorCode code;
+    final String message;
+    final Throwable cause;
+
+    Entry(ErrorCode code, String message, Throwable cause) {
+      this.code = code;
+      this.message = message;
+      this.cause = cause;
+    }
+  }
+
+  public AsyncClientLogger() { this(System.err, DEFAULT_CAPACITY); }
+
+  /**
+   * Creates the logger and starts its daemon writer thread.
+   *
+   * @param out stream the entries are written to
+   * @param capacity maximum number of entries waiting to be written
+   */
+  public AsyncClientLogger(PrintStream out, int capacity) {
+    // Make sure parameters are valid
+    assert(out != null && capacity > 0);
+
+    this.out = out;
+    this.queue = new ArrayBlockingQueue<Entry>(capacity);
+
+    Thread writer = new Thread(this::drain, "shield-client-logger");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @Override
+  public void log(ErrorCode code, String message, Throwable cause) {
+    if (!queue.offer(new Entry(code, message, cause))) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of entries dropped because the queue was full
+   *
+   * @return number of dropped entries
+   */
+  public long getDroppedCount() { return dropped.get(); }
+
+  private void drain() {
+    try {
+      while (true) {
+        Entry e = queue.take();
+        out.println(e.code + ": " + e.message);
+        if (e.cause != null) {
+          e.cause.printStackTrace(out);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/**
+ * Compact binary encoding of the /showFoodBox and /getCaterers responses.
+ *
+ * The clients ask for it through the Accept header when wireFormat=binary is
+ * set in client.cfg, and still read JSON when the server answers with it, so
+ * JSON remains the default and the fallback. A message is laid out as:
+ *
+ *   message := 'S' 'B' version kind length payload
+ *   payload := strings body
+ *   strings := count { length utf8-bytes }
+ *
+ * where length is the number of payload bytes. Counts, lengths and string
+ * references are unsigned varints. Other integers are zigzag varints. A string
+ * reference is 0 for null or 1 + its index in the message's string table, so
+ * every distinct item name, diet or postcode is sent once.
+ *
+ *   food boxes := count { id name diet delivered_by items }
+ *   items      := count { item-id name quantity }
+ *   caterers   := count { position name postcode }
+ *   distances  := count { postcode postcode float-bits }
+ *
+ * Distances are not sent by the server; they are only kept in snapshot files
+ * (see WarmStartSnapshot), with the float bits written as 4 bytes.
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class BinaryCodec {
+  /**
+   * Media type of binary responses
+   */
+  public static final String MEDIA_TYPE = "application/x-shield-binary";
+
+  /**
+   * Accept header preferring the binary encoding over JSON
+   */
+  public static final String ACCEPT_BINARY = MEDIA_TYPE + ", application/json;q=0.5";
+
+  /**
+   * Accept header asking for JSON only
+   */
+  public static final String ACCEPT_JSON = "application/json";
+
+  static final byte VERSION = 1;
+  static final byte FOOD_BOXES = 1;
+  static final byte CATERERS = 2;
+  static final byte DISTANCES = 3;
+
+  private static final byte MAGIC_0 = 'S';
+  private static final byte MAGIC_1 = 'B';
+
+  private BinaryCodec() {}
+
+  /**
+   * Returns true if a response with the content type is binary encoded
+   *
+   * @param contentType the Content-Type header, or null if there is none
+   * @return true if the response is binary
+   */
+  public static boolean isBinary(String contentType) {
+    return contentType != null && contentType.trim().toLowerCase().startsWith(MEDIA_TYPE);
+  }
+
+  /**
+   * Decodes a /showFoodBox response
+   *
+   * @param in the response
+   * @return the food boxes
+   * @throws IllegalArgumentException the response is not a valid food box message
+   */
+  static List<FoodBoxCatalog.MessagingFoodBox> decodeFoodBoxes(ByteBuffer in) {
+    Reader r = new Reader(in, FOOD_BOXES);
+    int count = r.count();
+    List<FoodBoxCatalog.MessagingFoodBox> boxes = new ArrayList<FoodBoxCatalog.MessagingFoodBox>(count);
+    for (int i = 0; i < count; i++) {
+      FoodBoxCatalog.MessagingFoodBox b = new FoodBoxCatalog.MessagingFoodBox();
+      b.id = r.string();
+      b.name = r.string();
+      b.diet = r.string();
+      b.delivered_by = r.string();
+
+      int items = r.count();
+      b.contents = new ArrayList<FoodBoxCatalog.boxContents>(items);
+      for (int j = 0; j < items; j++) {
+        FoodBoxCatalog.boxContents item = new FoodBoxCatalog.boxContents();
+        item.id = r.integer();
+        item.name = r.string();
+        item.quantity = r.integer();
+        b.contents.add(item);
+      }
+      boxes.add(b);
+    }
+    r.end();
+    return boxes;
+  }
+
+  /**
+   * Encodes a /showFoodBox response
+   *
+   * @param boxes the food boxes
+   * @return the message
+   */
+  static byte[] encodeFoodBoxes(List<FoodBoxCatalog.MessagingFoodBox> boxes) {
+    Writer w = new Writer();
+    w.count(boxes.size());
+    for (FoodBoxCatalog.MessagingFoodBox b : boxes) {
+      w.string(b.id);
+      w.string(b.name);
+      w.string(b.diet);
+      w.string(b.delivered_by);
+
+      int items = b.contents == null ? 0 : b.contents.size();
+      w.count(items);
+      for (int j = 0; j < items; j++) {
+        FoodBoxCatalog.boxContents item = b.contents.get(j);
+        w.integer(item.id);
+        w.string(item.name);
+        w.integer(item.quantity);
+      }
+    }
+    return w.finish(FOOD_BOXES);
+  }
+
+  /**
+   * Decodes a /getCaterers response into the server's position,name,postcode
+   * entries, so it goes through the same registry update as a JSON response
+   *
+   * @param in the response
+   * @return the catering companies
+   * @throws IllegalArgumentException the response is not a valid caterer message
+   */
+  static List<String> decodeCaterers(ByteBuffer in) {
+    Reader r = new Reader(in, CATERERS);
+    int count = r.count();
+    List<String> entries = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      int position = r.integer();
+      String name = r.string();
+      entries.add(position + "," + name + "," + r.string());
+    }
+    r.end();
+    return entries;
+  }
+
+  /**
+   * Encodes a /getCaterers response
+   *
+   * @param entries the catering companies in the format position,name,postcode
+   * @return the message
+   * @throws IllegalArgumentException an entry is not in the expected format
+   */
+  static byte[] encodeCaterers(List<String> entries) {
+    Writer w = new Writer();
+    w.count(entries.size());
+    for (String entry : entries) {
+      // Names may contain commas, so split on the first and last comma
+      int first = entry.indexOf(',');
+      int last = entry.lastIndexOf(',');
+      if (first < 0 || last == first) {
+        throw new IllegalArgumentException("Malformed catering company: " + entry);
+      }
+      w.integer(Integer.parseInt(entry.substring(0, first).trim()));
+      w.string(entry.substring(first + 1, last));
+      w.string(entry.substring(last + 1));
+    }
+    return w.finish(CATERERS);
+  }
+
+  /**
+   * Decodes distances stored by encodeDistances
+   *
+   * @param in the message
+   * @return the distances keyed as in DistanceCache.entries()
+   * @throws IllegalArgumentException the message is not a valid distance message
+   */
+  static Map<String, Float> decodeDistances(ByteBuffer in) {
+    Reader r = new Reader(in, DISTANCES);
+    int count = r.count();
+    Map<String, Float> distances = new HashMap<String, Float>(count * 2);
+    for (int i = 0; i < count; i++) {
+      String postCode1 = r.string();
+      String postCode2 = r.string();
+      distances.put(DistanceCache.key(postCode1, postCode2), Float.intBitsToFloat(r.fixed32()));
+    }
+    r.end();
+    return distances;
+  }
+
+  /**
+   * Encodes distances, the postcodes of the keys go in the string table
+   *
+   * @param distances the distances keyed as in DistanceCache.entries()
+   * @return the message
+   */
+  static byte[] encodeDistances(Map<String, Float> distances) {
+    Writer w = new Writer();
+    w.count(distances.size());
+    for (Map.Entry<String, Float> e : distances.entrySet()) {
+      int split = e.getKey().indexOf(DistanceCache.SEPARATOR);
+      w.string(e.getKey().substring(0, split));
+      w.string(e.getKey().substring(split + 1));
+      w.fixed32(Float.floatToIntBits(e.getValue()));
+    }
+    return w.finish(DISTANCES);
+  }
+
+  // Reads the header and string table of a message, then its body
+  private static final class Reader {
+    private final ByteBuffer in;
+    private final String[] strings;
+
+    Reader(ByteBuffer buffer, byte kind) {
+      this.in = buffer.duplicate();
+      if (in.remaining() < 4 || in.get() != MAGIC_0 || in.get() != MAGIC_1) {
+        throw new IllegalArgumentException("Not a binary message");
+      }
+      byte version = in.get();
+      byte actual = in.get();
+      if (version != VERSION || actual != kind) {
+        throw new IllegalArgumentException("Unexpected message version " + version + " kind " + actual);
+      }
+      int length = count();
+      if (length != in.remaining()) {
+        throw new IllegalArgumentException("Message length " + length + " but " + in.remaining() + " bytes received");
+      }
+
+      strings = new String[count()];
+      for (int i = 0; i < strings.length; i++) {
+        int n = count();
+        if (in.hasArray()) {
+          strings[i] = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+          in.position(in.position() + n);
+        } else {
+          byte[] bytes = new byte[n];
+          in.get(bytes);
+          strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+      }
+    }
+
+    int count() {
+      int value = varint();
+      // Every counted element takes at least a byte, so larger counts are corrupt
+      if (value < 0 || value > in.remaining()) {
+        throw new IllegalArgumentException("Count " + value + " but " + in.remaining() + " bytes left");
+      }
+      return value;
+    }
+
+    int integer() {
+      int zigzag = varint();
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private int varint() {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        if (!in.hasRemaining()) {
+          throw new IllegalArgumentException("Truncated message");
+        }
+        byte b = in.get();
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Varint too long");
+    }
+
+    int fixed32() {
+      if (in.remaining() < 4) {
+        throw new IllegalArgumentException("Truncated message");
+      }
+      return in.getInt();
+    }
+
+    String string() {
+      int ref = varint();
+      if (ref < 0 || ref > strings.length) {
+        throw new IllegalArgumentException("String reference " + ref + " out of range");
+      }
+      return ref == 0 ? null : strings[ref - 1];
+    }
+
+    void end() {
+      if (in.hasRemaining()) {
+        throw new IllegalArgumentException(in.remaining() + " bytes left after the message");
+      }
+    }
+  }
+
+  // Writes the body while collecting the string table, which goes in front of it
+  private static final class Writer {
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final Map<String, Integer> refs = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    void count(int value) {
+      varint(body, value);
+    }
+
+    void integer(int value) {
+      varint(body, (value << 1) ^ (value >> 31));
+    }
+
+    void fixed32(int value) {
+      body.write(value >>> 24);
+      body.write(value >>> 16);
+      body.write(value >>> 8);
+      body.write(value);
+    }
+
+    void string(String s) {
+      if (s == null) {
+        varint(body, 0);
+        return;
+      }
+      Integer ref = refs.get(s);
+      if (ref == null) {
+        strings.add(s);
+        ref = strings.size();
+        refs.put(s, ref);
+      }
+      varint(body, ref);
+    }
+
+    byte[] finish(byte kind) {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream(body.size() + 16 * strings.size());
+      varint(payload, strings.size());
+      for (String s : strings) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        varint(payload, utf8.length);
+        payload.write(utf8, 0, utf8.length);
+      }
+      byte[] bytes = body.toByteArray();
+      payload.write(bytes, 0, bytes.length);
+
+      ByteArrayOutputStream message = new ByteArrayOutputStream(payload.size() + 9);
+      message.write(MAGIC_0);
+      message.write(MAGIC_1);
+      message.write(VERSION);
+      message.write(kind);
+      varint(message, payload.size());
+      bytes = payload.toByteArray();
+      message.write(bytes, 0, bytes.length);
+      return message.toByteArray();
+    }
+
+    private static void varint(ByteArrayOutputStream out, int value) {
+      // Values are written unsigned, 7 bits per byte with the high bit set on all but the last
+      while ((value & ~0x7F) != 0) {
+        out.write((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+  }
+}
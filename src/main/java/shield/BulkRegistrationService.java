@@ -0,0 +1,276 @@
+/**
+ * Registers a cohort of shielding individuals with the server.
+ *
+ * CHI numbers are read one per line (blank lines and lines starting with # are
+ * skipped), validated locally with ChiValidator and registered concurrently with
+ * at most a fixed number of requests in flight. Unlike creating one
+ * ShieldingIndividualClientImp per individual, this does not download the food
+ * box catalog for every registration.
+ *
+ * For every CHI number one line is appended to the output file in the format
+ * CHI,STATUS[,postcode,details...] where the details are the fields returned by
+ * the server after the postcode. The output file doubles as the checkpoint: when
+ * run again with the same output file, CHI numbers that already have a final
+ * status (REGISTERED, ALREADY_REGISTERED or INVALID) are skipped, so an
+ * interrupted run can be resumed. CHI numbers that FAILED are retried.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkRegistrationService {
+  private static final RequestTemplate REGISTER = RequestTemplate.compile("/registerShieldingIndividual", "CHI");
+
+  public static final String REGISTERED = "REGISTERED";
+  public static final String ALREADY_REGISTERED = "ALREADY_REGISTERED";
+  public static final String INVALID = "INVALID";
+  public static final String FAILED = "FAILED";
+
+  private static final Type RESPONSE_TYPE = new TypeToken<List<String>>() {} .getType();
+
+  private final String endpoint;
+  private final int parallelism;
+  private final boolean checkDigitRequired;
+
+  // Internal field to store the counts of a run
+  public static final class Summary {
+    public final int registered;
+    public final int alreadyRegistered;
+    public final int invalid;
+    public final int failed;
+    public final int skipped;
+
+    Summary(int registered, int alreadyRegistered, int invalid, int failed, int skipped) {
+      this.registered = registered;
+      this.alreadyRegistered = alreadyRegistered;
+      this.invalid = invalid;
+      this.failed = failed;
+      this.skipped = skipped;
+    }
+
+    @Override
+    public String toString() {
+      return "registered=" + registered + " alreadyRegistered=" + alreadyRegistered
+          + " invalid=" + invalid + " failed=" + failed + " skipped=" + skipped;
+    }
+  }
+
+  /**
+   * @param endpoint the server endpoint
+   * @param parallelism maximum number of registration requests in flight
+   * @param checkDigitRequired whether the modulus 11 check digit of the CHI numbers is verified
+   */
+  public BulkRegistrationService(String endpoint, int parallelism, boolean checkDigitRequired) {
+    // Make sure parameters are valid
+    assert(endpoint != null && parallelism > 0);
+
+    this.endpoint = RequestTemplate.parseBase(endpoint);
+    this.parallelism = parallelism;
+    this.checkDigitRequired = checkDigitRequired;
+  }
+
+  /**
+   * Registers the CHI numbers in the input file, appending the results to the
+   * output file.
+   *
+   * @param input file holding one CHI number per line
+   * @param output file the results are appended to, also used to resume
+   * @return the counts of the run
+   * @throws IOException if the input or output file cannot be read or written
+   * @throws InterruptedException if interrupted while waiting for the registrations
+   */
+  public Summary run(Path input, Path output) throws IOException, InterruptedException {
+    try (Reader in = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+      return run(in, output);
+    }
+  }
+
+  /**
+   * Registers the CHI numbers read from the stream, appending the results to the
+   * output file.
+   *
+   * @param input stream holding one CHI number per line
+   * @param output file the results are appended to, also used to resume
+   * @return the counts of the run
+   * @throws IOException if the input or output file cannot be read or written
+   * @throws InterruptedException if interrupted while waiting for the registrations
+   */
+  public Summary run(Reader input, Path output) throws IOException, InterruptedException {
+    Set<String> done = readCheckpoint(output);
+
+    AtomicInteger registered = new AtomicInteger();
+    AtomicInteger alreadyRegistered = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    int invalid = 0;
+    int skipped = 0;
+
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+    Semaphore inFlight = new Semaphore(parallelism);
+
+    try {
+      try (BufferedReader in = new BufferedReader(input);
+           Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8,
+               StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+        try {
+          String line;
+          while ((line = in.readLine()) != null) {
+            String chi = line.trim();
+            if (chi.isEmpty() || chi.startsWith("#")) {
+              continue;
+            }
+
+            // Skip CHI numbers already handled by a previous run
+            if (!done.add(chi)) {
+              skipped++;
+              continue;
+            }
+
+            if (!ChiValidator.isValid(chi, checkDigitRequired)) {
+              invalid++;
+              writeLine(out, chi + "," + INVALID);
+              continue;
+            }
+
+            // Wait for a free slot so at most parallelism requests are in flight
+            inFlight.acquire();
+            pool.execute(() -> {
+              try {
+                String result = register(chi);
+                if (result.startsWith(REGISTERED)) {
+                  registered.incrementAndGet();
+                } else if (result.startsWith(ALREADY_REGISTERED)) {
+                  alreadyRegistered.incrementAndGet();
+                } else {
+                  failed.incrementAndGet();
+                }
+                writeLine(out, chi + "," + result);
+              } catch (IOException e) {
+                ClientLog.get().log(ErrorCode.IO_ERROR, "Could not write result for " + chi, e);
+              } finally {
+                inFlight.release();
+              }
+            });
+          }
+        } finally {
+          // Let the registrations in flight write their results before out is closed,
+          // even if reading the input failed or was interrupted
+          pool.shutdown();
+          awaitTermination(pool);
+        }
+      }
+    } finally {
+      // Only left running if the output file could not be opened
+      pool.shutdownNow();
+    }
+
+    return new Summary(registered.get(), alreadyRegistered.get(), invalid, failed.get(), skipped);
+  }
+
+  /**
+   * Registers a single CHI number and returns its result as written to the output
+   * file (without the CHI number).
+   *
+   * @param chi a validated CHI number
+   * @return STATUS[,postcode,details...]
+   */
+  private String register(String chi) {
+    try {
+      // Perform request
+      String response = ClientIO.doGETRequest(REGISTER.url(endpoint, chi));
+
+      if (response.equals("already registered")) {
+        return ALREADY_REGISTERED;
+      }
+
+      // Unmarshal response
+      List<String> responseInfo = new Gson().fromJson(response, RESPONSE_TYPE);
+      if (responseInfo == null || responseInfo.size() != 4) {
+        ClientLog.get().log(ErrorCode.SERVER_REJECTED, "Server returned incomplete details for " + chi, null);
+        return FAILED;
+      }
+
+      StringBuilder result = new StringBuilder(REGISTERED);
+      for (int i = 0; i < responseInfo.size(); i++) {
+        String field = String.valueOf(responseInfo.get(i)).replace(',', ' ');
+        // Replacing so format of postcode is compatible with getDistance
+        result.append(',').append(i == 0 ? field.replace(" ", "_") : field);
+      }
+      return result.toString();
+    } catch (Exception e) {
+      ClientLog.get().log(ErrorCode.IO_ERROR, "Registration request failed for " + chi, e);
+      return FAILED;
+    }
+  }
+
+  // Waits for the pool to finish, restoring the interrupt status afterwards
+  private static void awaitTermination(ExecutorService pool) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void writeLine(Writer out, String line) throws IOException {
+    // Results are written by several worker threads
+    synchronized (out) {
+      out.write(line);
+      out.write('\n');
+      out.flush();
+    }
+  }
+
+  /**
+   * Returns the CHI numbers that already have a final status in the output file
+   *
+   * @param output the output file of a previous run, may not exist
+   * @return CHI numbers that do not need to be registered again
+   * @throws IOException if the output file cannot be read
+   */
+  private static Set<String> readCheckpoint(Path output) throws IOException {
+    Set<String> done = new HashSet<String>();
+    if (!Files.exists(output)) {
+      return done;
+    }
+
+    for (String line : Files.readAllLines(output, StandardCharsets.UTF_8)) {
+      String[] fields = line.split(",", 3);
+      if (fields.length >= 2 && !fields[1].equals(FAILED)) {
+        done.add(fields[0]);
+      }
+    }
+    return done;
+  }
+}
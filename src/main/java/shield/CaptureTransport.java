@@ -0,0 +1,169 @@
+/**
+ * Transport recording every request it passes on, with its timing and response,
+ * to a TrafficLog, so the traffic of a client can be replayed later with
+ * TrafficReplay.
+ *
+ * Requests are recorded as the client made them: wrapped around a
+ * SingleFlightTransport, every caller of a merged request gets its own entry.
+ * Failed requests are recorded with the message of their exception.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+public class CaptureTransport implements Transport, Closeable {
+
+  private final Transport delegate;
+  private final TrafficLog.Writer log;
+  private Thread shutdownHook;
+
+  /**
+   * @param delegate the transport performing the requests
+   * @param log the log the requests are recorded to, closed with this transport
+   */
+  public CaptureTransport(Transport delegate, TrafficLog.Writer log) {
+    // Make sure parameters are not null
+    assert(delegate != null && log != null);
+
+    this.delegate = delegate;
+    this.log = log;
+  }
+
+  @Override
+  public String doGETRequest(String endpoint) throws RuntimeException, IOException {
+    long start = System.nanoTime();
+    try {
+      String response = delegate.doGETRequest(endpoint);
+      record(TrafficLog.Kind.GET, start, endpoint, null, null, TrafficLog.Outcome.OK, null, utf8(response));
+      return response;
+    } catch (IOException | RuntimeException e) {
+      recordFailure(TrafficLog.Kind.GET, start, endpoint, null, null, e);
+      throw e;
+    }
+  }
+
+  @Override
+  public ResponseBody doGETRequestBody(String endpoint) throws RuntimeException, IOException {
+    return doGETRequestBody(endpoint, null);
+  }
+
+  @Override
+  public ResponseBody doGETRequestBody(String endpoint, String accept) throws RuntimeException, IOException {
+    long start = System.nanoTime();
+    try {
+      ResponseBody response = accept == null
+          ? delegate.doGETRequestBody(endpoint) : delegate.doGETRequestBody(endpoint, accept);
+      ByteBuffer bytes = response.bytes();
+      byte[] copy = new byte[bytes.remaining()];
+      bytes.get(copy);
+      record(TrafficLog.Kind.GET_BODY, start, endpoint, accept, null, TrafficLog.Outcome.OK,
+          response.getContentType(), copy);
+      return response;
+    } catch (IOException | RuntimeException e) {
+      recordFailure(TrafficLog.Kind.GET_BODY, start, endpoint, accept, null, e);
+      throw e;
+    }
+  }
+
+  @Override
+  public String doPOSTRequest(String endpoint, String data) throws RuntimeException, IOException {
+    long start = System.nanoTime();
+    try {
+      String response = delegate.doPOSTRequest(endpoint, data);
+      record(TrafficLog.Kind.POST, start, endpoint, null, data, TrafficLog.Outcome.OK, null, utf8(response));
+      return response;
+    } catch (IOException | RuntimeException e) {
+      recordFailure(TrafficLog.Kind.POST, start, endpoint, null, data, e);
+      throw e;
+    }
+  }
+
+  @Override
+  public CompletableFuture<String> doGETRequestAsync(String endpoint) {
+    long start = System.nanoTime();
+    long session = Thread.currentThread().getId();
+    return delegate.doGETRequestAsync(endpoint).whenComplete((response, e) -> {
+      if (e == null) {
+        log.write(entry(TrafficLog.Kind.GET_ASYNC, session, start, endpoint, null, null,
+            TrafficLog.Outcome.OK, null, utf8(response)));
+      } else {
+        log.write(entry(TrafficLog.Kind.GET_ASYNC, session, start, endpoint, null, null,
+            outcome(e.getCause() == null ? e : e.getCause()), null, utf8(String.valueOf(e.getMessage()))));
+      }
+    });
+  }
+
+  /**
+   * @return the log the requests are recorded to
+   */
+  public TrafficLog.Writer getLog() { return log; }
+
+  /**
+   * Writes the requests still queued and closes the log, requests made
+   * afterwards are passed on without being recorded
+   *
+   * @throws IOException if writing the log failed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (shutdownHook != null) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // Already shutting down, the hook runs anyway
+      }
+      shutdownHook = null;
+    }
+    log.close();
+  }
+
+  /**
+   * Writes the requests still queued and closes the log when the JVM shuts down,
+   * for captures that are never closed explicitly
+   */
+  public synchronized void closeOnShutdown() {
+    if (shutdownHook == null) {
+      shutdownHook = new Thread(() -> {
+        try {
+          log.close();
+        } catch (IOException e) {
+          ClientLog.get().log(ErrorCode.IO_ERROR, "Traffic capture could not be written", e);
+        }
+      }, "traffic-capture-shutdown");
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+  }
+
+  private void record(TrafficLog.Kind kind, long start, String endpoint, String accept, String data,
+      TrafficLog.Outcome outcome, String contentType, byte[] response) {
+    log.write(entry(kind, Thread.currentThread().getId(), start, endpoint, accept, data, outcome,
+        contentType, response));
+  }
+
+  private void recordFailure(TrafficLog.Kind kind, long start, String endpoint, String accept, String data,
+      Exception e) {
+    record(kind, start, endpoint, accept, data, outcome(e), null, utf8(String.valueOf(e.getMessage())));
+  }
+
+  private TrafficLog.Entry entry(TrafficLog.Kind kind, long session, long start, String endpoint,
+      String accept, String data, TrafficLog.Outcome outcome, String contentType, byte[] response) {
+    return new TrafficLog.Entry(kind, session, start - log.getStartNanos(), System.nanoTime() - start,
+        endpoint, accept, data, outcome, contentType, response);
+  }
+
+  private static TrafficLog.Outcome outcome(Throwable e) {
+    return e instanceof IOException ? TrafficLog.Outcome.IO_ERROR : TrafficLog.Outcome.RUNTIME_ERROR;
+  }
+
+  private static byte[] utf8(String s) {
+    return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+  }
+}
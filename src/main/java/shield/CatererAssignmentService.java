@@ -0,0 +1,289 @@
+/**
+ * Finds the closest catering company for a whole cohort of shielding
+ * individuals at once, instead of every client calling
+ * getClosestCateringCompany, which downloads the caterers and asks for the
+ * distance to each of them.
+ *
+ * Individuals at the same postcode share a caterer, and so do caterers at the
+ * same postcode, so one distance is needed per pair of distinct postcodes.
+ * Distances already in the DistanceCache of the endpoint are not asked for
+ * again, and those fetched are added to it. The postcodes are split among the
+ * threads of a fork/join pool. Each task computes the assignments of a
+ * slice, or forks two tasks for its halves if the slice is large. Distance
+ * requests block, so the pool is separate from the common pool, and its
+ * parallelism caps the number of requests in flight.
+ *
+ * Ties go to the caterer that comes first in the registry, as in
+ * getClosestCateringCompany, and caterers with malformed postcodes are
+ * skipped. A postcode is left unassigned if it is malformed
+ * or any of its distances could not be fetched; its clients can still call
+ * getClosestCateringCompany. Assignments can be written to a file and read back
+ * where the clients run, and a client adopts its caterer with
+ * ShieldingIndividualClientImp.adoptCateringCompany.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CatererAssignmentService {
+  private static final RequestTemplate DISTANCE = RequestTemplate.compile("/distance", "postcode1", "postcode2");
+
+  // Largest number of individual postcodes a task handles without forking
+  static final int THRESHOLD = 8;
+
+  private final String endpoint;
+  private final int parallelism;
+  private final DistanceCache distances;
+  private final AtomicLong requests = new AtomicLong();
+
+  /**
+   * Catering company assigned to the individuals at a postcode
+   */
+  public static final class Caterer {
+    public final String name;
+    public final String postcode;
+
+    Caterer(String name, String postcode) {
+      this.name = name;
+      this.postcode = postcode;
+    }
+
+    @Override
+    public String toString() {
+      return name + "," + postcode;
+    }
+  }
+
+  /**
+   * Caterers assigned to individual postcodes
+   */
+  public static final class Assignments {
+    private final Map<String, Caterer> byPostcode;
+    private final Set<String> unassigned;
+
+    Assignments(Map<String, Caterer> byPostcode, Set<String> unassigned) {
+      this.byPostcode = byPostcode;
+      this.unassigned = unassigned;
+    }
+
+    /**
+     * @param postcode postcode of an individual, with an underscore or a space
+     * @return the caterer assigned to the postcode or null if there is none
+     */
+    public Caterer get(String postcode) {
+      return byPostcode.get(normalize(postcode));
+    }
+
+    /**
+     * @return the number of postcodes with a caterer
+     */
+    public int size() { return byPostcode.size(); }
+
+    /**
+     * @return the postcodes left without a caterer
+     */
+    public Set<String> getUnassigned() { return Collections.unmodifiableSet(unassigned); }
+
+    /**
+     * Writes one line per assigned postcode in the format
+     * postcode,caterer name,caterer postcode. The file is replaced atomically.
+     *
+     * @param file the file to write
+     * @throws IOException if the file could not be written
+     */
+    public void write(Path file) throws IOException {
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, Caterer> e : byPostcode.entrySet()) {
+          out.write(e.getKey() + "," + e.getValue());
+          out.newLine();
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads assignments written by write. Caterer names may contain commas, as
+     * postcodes never do.
+     *
+     * @param file the file to read
+     * @return the assignments
+     * @throws IOException if the file could not be read or a line is malformed
+     */
+    public static Assignments read(Path file) throws IOException {
+      Map<String, Caterer> byPostcode = new HashMap<String, Caterer>();
+      try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.trim().isEmpty()) {
+            continue;
+          }
+          int first = line.indexOf(',');
+          int last = line.lastIndexOf(',');
+          if (first <= 0 || last <= first) {
+            throw new IOException("Malformed assignment: " + line);
+          }
+          byPostcode.put(line.substring(0, first),
+              new Caterer(line.substring(first + 1, last), line.substring(last + 1)));
+        }
+      }
+      return new Assignments(byPostcode, new LinkedHashSet<String>());
+    }
+  }
+
+  /**
+   * @param endpoint the server endpoint distances are requested from
+   * @param parallelism the number of threads, i.e. of requests in flight
+   */
+  public CatererAssignmentService(String endpoint, int parallelism) {
+    // Make sure parameters are valid
+    assert(endpoint != null && parallelism > 0);
+
+    this.endpoint = RequestTemplate.parseBase(endpoint);
+    this.parallelism = parallelism;
+    this.distances = DistanceCache.forEndpoint(this.endpoint);
+  }
+
+  /**
+   * Assigns the closest catering company of the registry to every postcode
+   *
+   * @param postcodes postcodes of the individuals, duplicates are assigned once
+   * @param registry the catering companies
+   * @return the assignments
+   */
+  public Assignments assign(Collection<String> postcodes, CatererRegistry registry) {
+    // Make sure parameters are not null
+    assert(postcodes != null && registry != null);
+
+    Set<String> distinct = new LinkedHashSet<String>();
+    for (String postcode : postcodes) {
+      distinct.add(normalize(postcode));
+    }
+
+    // One caterer per postcode, the first in the registry
+    List<Caterer> caterers = new ArrayList<Caterer>();
+    for (int i = 0; i < registry.size(); i++) {
+      String postcode = registry.getPostcode(i);
+      if (isValidPostcode(postcode) && registry.indicesOfPostcode(postcode)[0] == i) {
+        caterers.add(new Caterer(registry.getName(i), postcode));
+      }
+    }
+
+    Map<String, Caterer> assigned = new ConcurrentHashMap<String, Caterer>();
+    Set<String> unassigned = ConcurrentHashMap.newKeySet();
+    if (caterers.isEmpty()) {
+      unassigned.addAll(distinct);
+    } else {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(new Slice(distinct.toArray(new String[0]), 0, distinct.size(), caterers, assigned, unassigned));
+      } finally {
+        pool.shutdown();
+      }
+    }
+    return new Assignments(assigned, unassigned);
+  }
+
+  /**
+   * @return the number of distance requests sent to the server so far
+   */
+  public long getRequestCount() { return requests.get(); }
+
+  // Assigns the postcodes from lo to hi, forking for large slices
+  private final class Slice extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final String[] postcodes;
+    private final int lo;
+    private final int hi;
+    private final List<Caterer> caterers;
+    private final Map<String, Caterer> assigned;
+    private final Set<String> unassigned;
+
+    Slice(String[] postcodes, int lo, int hi, List<Caterer> caterers,
+          Map<String, Caterer> assigned, Set<String> unassigned) {
+      this.postcodes = postcodes;
+      this.lo = lo;
+      this.hi = hi;
+      this.caterers = caterers;
+      this.assigned = assigned;
+      this.unassigned = unassigned;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo > THRESHOLD) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Slice(postcodes, lo, mid, caterers, assigned, unassigned),
+            new Slice(postcodes, mid, hi, caterers, assigned, unassigned));
+        return;
+      }
+      for (int i = lo; i < hi; i++) {
+        Caterer closest = closest(postcodes[i], caterers);
+        if (closest == null) {
+          unassigned.add(postcodes[i]);
+        } else {
+          assigned.put(postcodes[i], closest);
+        }
+      }
+    }
+  }
+
+  // Returns the closest caterer or null if a distance could not be fetched
+  private Caterer closest(String postcode, List<Caterer> caterers) {
+    if (!isValidPostcode(postcode)) {
+      return null;
+    }
+    Caterer closest = null;
+    float minDist = -1;
+    for (Caterer c : caterers) {
+      Float distance = distances.get(postcode, c.postcode);
+      if (distance == null) {
+        requests.incrementAndGet();
+        try (ResponseBody response = ClientIO.doGETRequestBody(DISTANCE.url(endpoint, postcode, c.postcode))) {
+          distance = response.parseFloat();
+          distances.put(postcode, c.postcode, distance);
+        } catch (Exception e) {
+          ClientLog.get().log(ErrorCode.IO_ERROR, "Distance request from " + postcode + " failed", e);
+          return null;
+        }
+      }
+      if (distance < minDist || minDist < 0) {
+        minDist = distance;
+        closest = c;
+      }
+    }
+    return closest;
+  }
+
+  // Postcodes are returned by the server with a space, the clients use an underscore
+  private static String normalize(String postcode) {
+    return postcode.trim().replace(' ', '_');
+  }
+
+  private static boolean isValidPostcode(String postCode) {
+    return postCode.startsWith("EH") && postCode.contains("_");
+  }
+}
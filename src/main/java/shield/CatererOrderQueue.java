@@ -0,0 +1,280 @@
+/**
+ * Local view of the orders a catering company is working on.
+ *
+ * Orders waiting to be packed are kept in a priority queue by placement time, so
+ * a packing station takes the oldest order in O(log n) with nextToPack. Status
+ * changes are checked locally against the order lifecycle (see OrderStatus) and
+ * recorded as unpublished. publish sends them to the server in one batch:
+ * the updates of different orders go out together, those of the same order one
+ * after another in the order they were made.
+ *
+ * Cancellations come from the shielding individual, so they are applied locally
+ * with markCancelled and never published.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+
+public final class CatererOrderQueue {
+  /**
+   * An order known to the catering company
+   */
+  public static final class Order {
+    private final int orderNumber;
+    private final LocalDateTime placedAt;
+    private OrderStatus status = OrderStatus.PLACED;
+
+    private Order(int orderNumber, LocalDateTime placedAt) {
+      this.orderNumber = orderNumber;
+      this.placedAt = placedAt;
+    }
+
+    public int getOrderNumber() {
+      return orderNumber;
+    }
+
+    public LocalDateTime getPlacedAt() {
+      return placedAt;
+    }
+  }
+
+  private static final RequestTemplate UPDATE_ORDER_STATUS =
+      RequestTemplate.compile("/updateOrderStatus", "order_id", "newStatus");
+
+  private static final Comparator<Order> BY_PLACEMENT =
+      Comparator.comparing((Order o) -> o.placedAt).thenComparingInt(o -> o.orderNumber);
+
+  private final String endpoint;
+  private final Map<Integer, Order> orders = new HashMap<Integer, Order>();
+  private final PriorityQueue<Order> toPack = new PriorityQueue<Order>(BY_PLACEMENT);
+  // Statuses not sent to the server yet, per order in the order they were made
+  private final Map<Integer, List<OrderStatus>> unpublished = new LinkedHashMap<Integer, List<OrderStatus>>();
+  private final Object publishLock = new Object();
+
+  CatererOrderQueue(String endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  /**
+   * Adds an order waiting to be packed
+   *
+   * @param orderNumber the order number
+   * @param placedAt the time the order was placed
+   * @return true if the order was added, false if it is already known
+   */
+  public synchronized boolean addOrder(int orderNumber, LocalDateTime placedAt) {
+    // Make sure parameters are valid
+    assert(orderNumber > 0 && placedAt != null);
+
+    if (orders.containsKey(orderNumber)) {
+      return false;
+    }
+    Order o = new Order(orderNumber, placedAt);
+    orders.put(orderNumber, o);
+    toPack.add(o);
+    return true;
+  }
+
+  /**
+   * Takes the oldest order waiting to be packed and marks it packed
+   *
+   * @return the order or null if no order is waiting
+   */
+  public synchronized Order nextToPack() {
+    Order o;
+    // Cancelled orders are left in the queue and skipped here
+    do {
+      o = toPack.poll();
+    } while (o != null && o.status != OrderStatus.PLACED);
+
+    if (o != null) {
+      changeStatus(o, OrderStatus.PACKED);
+    }
+    return o;
+  }
+
+  /**
+   * Moves an order to the next status of its lifecycle.
+   *
+   * @param orderNumber the order number
+   * @param status the new status: packed, dispatched or delivered
+   * @return result of the operation
+   * @ErrorCode ORDER_NOT_FOUND if the order is not in the queue
+   *            INVALID_STATUS_TRANSITION if the order cannot move to the status
+   */
+  public synchronized Result<Void> setStatus(int orderNumber, String status) {
+    // Make sure parameters are valid
+    assert(orderNumber > 0 && status != null);
+
+    Order o = orders.get(orderNumber);
+    if (o == null) {
+      return Result.error(ErrorCode.ORDER_NOT_FOUND, "Order " + orderNumber + " is not in the queue");
+    }
+    OrderStatus next = OrderStatus.fromName(status);
+    // Cancellations are not made by the catering company
+    if (next == null || next == OrderStatus.CANCELLED || !o.status.canMoveTo(next)) {
+      return Result.error(ErrorCode.INVALID_STATUS_TRANSITION,
+          "Order " + orderNumber + " cannot go from " + o.status.getName() + " to " + status);
+    }
+    changeStatus(o, next);
+    return Result.ok();
+  }
+
+  /**
+   * Records that the individual cancelled an order that was not dispatched
+   *
+   * @param orderNumber the order number
+   * @return result of the operation
+   * @ErrorCode ORDER_NOT_FOUND if the order is not in the queue
+   *            INVALID_STATUS_TRANSITION if the order was already dispatched
+   */
+  public synchronized Result<Void> markCancelled(int orderNumber) {
+    Order o = orders.get(orderNumber);
+    if (o == null) {
+      return Result.error(ErrorCode.ORDER_NOT_FOUND, "Order " + orderNumber + " is not in the queue");
+    }
+    if (!o.status.canMoveTo(OrderStatus.CANCELLED)) {
+      return Result.error(ErrorCode.INVALID_STATUS_TRANSITION,
+          "Order " + orderNumber + " cannot be cancelled once " + o.status.getName());
+    }
+    o.status = OrderStatus.CANCELLED;
+    unpublished.remove(orderNumber);
+    return Result.ok();
+  }
+
+  /**
+   * @param orderNumber the order number
+   * @return the local status of the order or null if it is not in the queue
+   */
+  public synchronized String getStatus(int orderNumber) {
+    Order o = orders.get(orderNumber);
+    return o == null ? null : o.status.getName();
+  }
+
+  /**
+   * @return the number of orders waiting to be packed
+   */
+  public synchronized int waitingCount() {
+    int count = 0;
+    for (Order o : toPack) {
+      if (o.status == OrderStatus.PLACED) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of status changes not sent to the server yet
+   */
+  public synchronized int unpublishedCount() {
+    int count = 0;
+    for (List<OrderStatus> statuses : unpublished.values()) {
+      count += statuses.size();
+    }
+    return count;
+  }
+
+  /**
+   * Sends the unpublished status changes to the server. Changes that could not be
+   * sent stay unpublished. A change the server rejected is dropped, together with
+   * the later changes of the same order, which are not sent.
+   *
+   * @return result holding the number of changes the server accepted
+   * @ErrorCode SERVER_REJECTED if the server rejected a change
+   *            IO_ERROR if a change could not be sent
+   */
+  public Result<Integer> publish() {
+    synchronized (publishLock) {
+      Map<Integer, List<OrderStatus>> batch = new LinkedHashMap<Integer, List<OrderStatus>>();
+      synchronized (this) {
+        for (Map.Entry<Integer, List<OrderStatus>> e : unpublished.entrySet()) {
+          batch.put(e.getKey(), new ArrayList<OrderStatus>(e.getValue()));
+        }
+      }
+
+      // Send every order's changes in sequence, all orders at once
+      Map<Integer, CompletableFuture<int[]>> sent = new LinkedHashMap<Integer, CompletableFuture<int[]>>();
+      for (Map.Entry<Integer, List<OrderStatus>> e : batch.entrySet()) {
+        sent.put(e.getKey(), send(e.getKey(), e.getValue(), 0, new int[2]));
+      }
+
+      CompletableFuture.allOf(sent.values().toArray(new CompletableFuture<?>[0])).join();
+
+      int accepted = 0;
+      int rejected = 0;
+      boolean failed = false;
+      synchronized (this) {
+        for (Map.Entry<Integer, CompletableFuture<int[]>> e : sent.entrySet()) {
+          // done[0] changes accepted in front of the list, done[1] 1 if the next one was rejected
+          int[] done = e.getValue().join();
+          accepted += done[0];
+          List<OrderStatus> statuses = unpublished.get(e.getKey());
+          if (statuses == null) {
+            continue;
+          }
+          int handled = Math.min(done[0], statuses.size());
+          if (done[1] > 0) {
+            // The later changes build on the rejected one, they are dropped with it
+            rejected += statuses.size() - handled;
+            handled = statuses.size();
+          }
+          statuses.subList(0, handled).clear();
+          if (statuses.isEmpty()) {
+            unpublished.remove(e.getKey());
+          } else if (handled < batch.get(e.getKey()).size()) {
+            failed = true;
+          }
+        }
+      }
+
+      if (failed) {
+        return Result.error(ErrorCode.IO_ERROR, "Status changes could not be sent, " + unpublishedCount() + " left");
+      }
+      if (rejected > 0) {
+        return Result.error(ErrorCode.SERVER_REJECTED,
+            "Server rejected status changes, " + rejected + " dropped");
+      }
+      return Result.ok(accepted);
+    }
+  }
+
+  // Sends the changes of one order from index i on, stopping at the first one not
+  // sent or rejected
+  private CompletableFuture<int[]> send(int orderNumber, List<OrderStatus> statuses, int i, int[] done) {
+    if (i == statuses.size()) {
+      return CompletableFuture.completedFuture(done);
+    }
+    return ClientIO.doGETRequestAsync(UPDATE_ORDER_STATUS.url(endpoint, orderNumber, statuses.get(i).getName()))
+        .handle((response, e) -> {
+          if (e != null) {
+            return false;
+          }
+          if (!response.equals("True")) {
+            done[1] = 1;
+            return false;
+          }
+          done[0]++;
+          return true;
+        })
+        .thenCompose(next -> next ? send(orderNumber, statuses, i + 1, done) : CompletableFuture.completedFuture(done));
+  }
+
+  // Applies a status change locally and records it for publishing
+  private void changeStatus(Order o, OrderStatus status) {
+    o.status = status;
+    unpublished.computeIfAbsent(o.orderNumber, n -> new ArrayList<OrderStatus>()).add(status);
+  }
+}
@@ -0,0 +1,288 @@
+/**
+ * Parsed copy of the catering companies returned by /getCaterers.
+ *
+ * The server returns one "position,name,postcode" string per catering company.
+ * These are parsed once, when the registry is built or refreshed, into columns
+ * (positions, names and postcodes) indexed by name and postcode, so callers
+ * such as getClosestCateringCompany do not split the strings again. The
+ * strings themselves are kept as the server sent them, malformed ones
+ * included, for asStrings() and for comparing the next response. A registry
+ * is never modified after it is built; refresh() returns a new registry, only
+ * parsing and indexing the catering companies added since this one was built
+ * when the previously seen entries are unchanged. The server has no delta
+ * endpoint, so the whole response is still downloaded and decoded.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public final class CatererRegistry {
+
+  private static final Type LIST_TYPE = new TypeToken<List<String>>() {} .getType();
+  private static final int[] NONE = new int[0];
+
+  /**
+   * Registry without any catering company
+   */
+  public static final CatererRegistry EMPTY = new CatererRegistry(NONE, new String[0], new String[0], 0,
+      new HashMap<String, int[]>(), new HashMap<String, int[]>(), Collections.<String>emptyList());
+
+  private static final ConcurrentMap<String, CatererRegistry> SHARED =
+      new ConcurrentHashMap<String, CatererRegistry>();
+
+  private final int[] positions;
+  private final String[] names;
+  private final String[] postcodes;
+  private final int size;
+  private final Map<String, int[]> byName;
+  private final Map<String, int[]> byPostcode;
+
+  // Server entries consumed, used for delta refreshes and asStrings()
+  private final List<String> sources;
+
+  private CatererRegistry(int[] positions, String[] names, String[] postcodes, int size,
+                          Map<String, int[]> byName, Map<String, int[]> byPostcode,
+                          List<String> sources) {
+    this.positions = positions;
+    this.names = names;
+    this.postcodes = postcodes;
+    this.size = size;
+    this.byName = byName;
+    this.byPostcode = byPostcode;
+    this.sources = sources;
+  }
+
+  /**
+   * Downloads the catering companies from the server
+   *
+   * @param endpoint the server endpoint
+   * @return the registry of all the catering companies
+   * @throws IOException if http request unsuccessful
+   * @throws RuntimeException if unmarshal unsuccessful
+   */
+  public static CatererRegistry load(String endpoint) throws IOException {
+    return EMPTY.refresh(endpoint);
+  }
+
+  /**
+   * Returns the registry last shared by a client of the endpoint, without
+   * querying the server
+   *
+   * @param endpoint the server endpoint
+   * @return the shared registry, EMPTY if none was shared yet
+   */
+  public static CatererRegistry getShared(String endpoint) {
+    CatererRegistry registry = SHARED.get(endpoint);
+    return registry == null ? EMPTY : registry;
+  }
+
+  /**
+   * Shares a registry with the clients of the endpoint created from now on
+   *
+   * @param endpoint the server endpoint
+   * @param registry the registry
+   */
+  public static void share(String endpoint, CatererRegistry registry) {
+    // Make sure parameters are not null
+    assert(endpoint != null && registry != null);
+
+    SHARED.put(endpoint, registry);
+  }
+
+  /**
+   * Drops the registry shared by the clients of the endpoint
+   *
+   * @param endpoint the server endpoint
+   */
+  static void unshare(String endpoint) {
+    SHARED.remove(endpoint);
+  }
+
+  /**
+   * Downloads the catering companies from the server and returns the updated registry
+   *
+   * @param endpoint the server endpoint
+   * @return the updated registry, this registry if nothing changed
+   * @throws IOException if http request unsuccessful
+   * @throws RuntimeException if unmarshal unsuccessful
+   */
+  public CatererRegistry refresh(String endpoint) throws IOException {
+    // Construct the endpoint request
+    String request = "/getCaterers";
+
+    // Perform request and unmarshal the response from its bytes
+    List<String> entries;
+    try (ResponseBody response = ClientIO.doGETRequestBody(endpoint + request, ClientIO.getCatalogAccept())) {
+      entries = response.isBinary()
+          ? BinaryCodec.decodeCaterers(response.bytes())
+          : new Gson().<List<String>>fromJson(response.reader(), LIST_TYPE);
+    }
+    return update(entries == null ? Collections.<String>emptyList() : entries);
+  }
+
+  /**
+   * Returns the registry updated with a /getCaterers response. Only the entries
+   * after the ones already parsed are parsed if those are unchanged, otherwise
+   * the registry is rebuilt.
+   *
+   * @param entries the catering companies in the format position,name,postcode
+   * @return the updated registry, this registry if nothing changed
+   */
+  CatererRegistry update(List<String> entries) {
+    int sourceCount = sources.size();
+    boolean unchanged = sourceCount > 0 && entries.size() >= sourceCount
+        && entries.subList(0, sourceCount).equals(sources);
+
+    if (unchanged && entries.size() == sourceCount) {
+      return this;
+    }
+    if (!unchanged) {
+      return EMPTY.append(entries, 0);
+    }
+    return append(entries, sourceCount);
+  }
+
+  private CatererRegistry append(List<String> entries, int from) {
+    int capacity = size + entries.size() - from;
+    int[] newPositions = Arrays.copyOf(positions, capacity);
+    String[] newNames = Arrays.copyOf(names, capacity);
+    String[] newPostcodes = Arrays.copyOf(postcodes, capacity);
+    Map<String, int[]> newByName = new HashMap<String, int[]>(byName);
+    Map<String, int[]> newByPostcode = new HashMap<String, int[]>(byPostcode);
+
+    int n = size;
+    for (int i = from; i < entries.size(); i++) {
+      String entry = entries.get(i);
+
+      // Names may contain commas, so split on the first and last comma
+      int first = entry.indexOf(',');
+      int last = entry.lastIndexOf(',');
+      if (first < 0 || last == first) {
+        ClientLog.get().log(ErrorCode.SERVER_REJECTED, "Malformed catering company: " + entry, null);
+        continue;
+      }
+
+      int position;
+      try {
+        position = Integer.parseInt(entry.substring(0, first).trim());
+      } catch (NumberFormatException e) {
+        position = i;
+      }
+
+      newPositions[n] = position;
+      newNames[n] = entry.substring(first + 1, last);
+      newPostcodes[n] = entry.substring(last + 1);
+      index(newByName, newNames[n], n);
+      index(newByPostcode, newPostcodes[n], n);
+      n++;
+    }
+
+    return new CatererRegistry(newPositions, newNames, newPostcodes, n, newByName, newByPostcode,
+        Collections.unmodifiableList(new ArrayList<String>(entries)));
+  }
+
+  private static void index(Map<String, int[]> index, String key, int i) {
+    int[] existing = index.get(key);
+    if (existing == null) {
+      index.put(key, new int[] {i});
+    } else {
+      int[] grown = Arrays.copyOf(existing, existing.length + 1);
+      grown[existing.length] = i;
+      index.put(key, grown);
+    }
+  }
+
+  /**
+   * Returns the number of catering companies
+   *
+   * @return number of catering companies
+   */
+  public int size() { return size; }
+
+  /**
+   * Returns the position of the catering company as given by the server
+   *
+   * @param i index of the catering company, between 0 and size()-1
+   * @return position given by the server
+   */
+  public int getPosition(int i) {
+    // Make sure parameters are valid
+    assert(i>=0 && i<size);
+
+    return positions[i];
+  }
+
+  /**
+   * Returns the business name of the catering company
+   *
+   * @param i index of the catering company, between 0 and size()-1
+   * @return business name
+   */
+  public String getName(int i) {
+    // Make sure parameters are valid
+    assert(i>=0 && i<size);
+
+    return names[i];
+  }
+
+  /**
+   * Returns the postcode of the catering company
+   *
+   * @param i index of the catering company, between 0 and size()-1
+   * @return postcode
+   */
+  public String getPostcode(int i) {
+    // Make sure parameters are valid
+    assert(i>=0 && i<size);
+
+    return postcodes[i];
+  }
+
+  /**
+   * Returns the indices of the catering companies with the business name
+   *
+   * @param name business name
+   * @return indices of the matching catering companies, empty if none
+   */
+  public int[] indicesOfName(String name) {
+    int[] indices = byName.get(name);
+    return indices == null ? NONE : indices.clone();
+  }
+
+  /**
+   * Returns the indices of the catering companies at the postcode
+   *
+   * @param postcode postcode of the catering companies
+   * @return indices of the matching catering companies, empty if none
+   */
+  public int[] indicesOfPostcode(String postcode) {
+    int[] indices = byPostcode.get(postcode);
+    return indices == null ? NONE : indices.clone();
+  }
+
+  /**
+   * Returns the catering companies as returned by the server, i.e.
+   * position,name,postcode, including the malformed ones that have no index
+   *
+   * @return unmodifiable list of catering companies
+   */
+  public List<String> asStrings() {
+    return sources;
+  }
+}
@@ -1,74 +1,82 @@
 
 package shield;
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class CateringCompanyClientImp implements CateringCompanyClient {
+  private static final RequestTemplate REGISTER =
+      RequestTemplate.compile("/registerCateringCompany", "business_name", "postcode");
+  private static final RequestTemplate UPDATE_ORDER_STATUS =
+      RequestTemplate.compile("/updateOrderStatus", "order_id", "newStatus");
 
   private String endpoint;
   private boolean registered;
   private String name;
   private String postcode;
-
-  public class CustomException extends Exception {
-
-    /**
-     * Custom exception to help identify the exact cause through the error message.
-     *
-     * @param message the message thrown that informs the user of the exact issue
-     */
-    public CustomException(String message) {
-      super(message);
-    }
+  private volatile WriteBehindQueue writeBehind;
+  // Status this client last set for each order
+  private final Map<Integer, OrderStatus> knownStatus = new ConcurrentHashMap<Integer, OrderStatus>();
+  private final CatererOrderQueue orderQueue;
+
+  public CateringCompanyClientImp(String endpoint) {
+    this.endpoint = RequestTemplate.parseBase(endpoint);
+    this.orderQueue = new CatererOrderQueue(this.endpoint);
   }
 
-  public CateringCompanyClientImp(String endpoint) { this.endpoint = endpoint; }
-
   /**
    * Returns true if the operation occurred correctly (catering company is registered
    * or already registered).
    *
-   * We decided to throw an exception if the postcode does not start with EH and is not
+   * @param name name of the business
+   * @param postCode post code of the business
+   * @return true if the operation occurred correctly
+   */
+  @Override
+  public boolean registerCateringCompany(String name, String postCode) {
+    return tryRegisterCateringCompany(name, postCode).isOk();
+  }
+
+  /**
+   * Registers the catering company and returns the outcome of the operation.
+   *
+   * We decided to fail if the postcode does not start with EH and is not
    * separated by an underscore, e.g, EH11_2DR, so that the post code is compatible with
    * the rest of the system (to be precise the method getDistance in the
    * ShieldingIndividualClientImp class).
    *
    * @param name name of the business
    * @param postCode post code of the business
-   * @return true if the operation occurred correctly
-   * @CustomException if the format of the postcode is incorrect
-   * @Exception if http request unsuccessful
+   * @return result of the operation
+   * @ErrorCode INVALID_POSTCODE if the format of the postcode is incorrect
+   *            SERVER_REJECTED if the server did not register the company
+   *            IO_ERROR if http request unsuccessful
    */
-  @Override
-  public boolean registerCateringCompany(String name, String postCode) {
+  public Result<Void> tryRegisterCateringCompany(String name, String postCode) {
     // Make sure parameters are not null
     assert(!name.equals(null) && !postCode.equals(null));
 
     // Make sure postCode format is correct
     if (!postCode.startsWith("EH") || !postCode.contains("_")) {
-      try {
-        throw new CustomException("Postcodes must start with EH and be separated by an underscore");
-      } catch (CustomException e) {
-        e.printStackTrace();
-      }
-      return false;
+      return Result.error(ErrorCode.INVALID_POSTCODE, "Postcodes must start with EH and be separated by an underscore");
     }
 
-    // Construct the endpoint request
-    String request = "/registerCateringCompany?business_name=" + name + "&postcode=" + postCode;
-
     try {
       // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
+      String response = ClientIO.doGETRequest(REGISTER.url(endpoint, name, postCode));
 
       if (response.equals("registered new") || response.equals("already registered")) {
         this.registered = true;
         this.name = name;
         this.postcode = postCode;
-        return true;
+        return Result.ok();
       }
+      return Result.error(ErrorCode.SERVER_REJECTED, "Registration rejected by server: " + response);
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Registration request failed", e);
     }
-    return false;
   }
 
   /**
@@ -77,27 +85,86 @@ public class CateringCompanyClientImp implements CateringCompanyClient {
    * @param orderNumber the order number
    * @param status status of the order for the requested number
    * @return true if the operation occurred correctly
-   * @Exception if http request unsuccessful
    */
   @Override
   public boolean updateOrderStatus(int orderNumber, String status) {
+    return tryUpdateOrderStatus(orderNumber, status).isOk();
+  }
+
+  /**
+   * Updates the status of the order and returns the outcome of the operation.
+   *
+   * The update is checked against the order lifecycle first (see OrderStatus),
+   * using the status this client last set for the order, and an illegal one is
+   * rejected without a request.
+   *
+   * @param orderNumber the order number
+   * @param status status of the order for the requested number
+   * @return result of the operation
+   * @ErrorCode INVALID_STATUS_TRANSITION if the order cannot move to the status
+   *            SERVER_REJECTED if the server did not accept the update
+   *            IO_ERROR if http request unsuccessful and the update was not queued
+   */
+  public Result<Void> tryUpdateOrderStatus(int orderNumber, String status) {
     // Make sure parameters are not null
     assert(orderNumber>=0 && !status.equals(null));
 
-    // Construct the endpoint request
-    String request = "/updateOrderStatus?order_id=" + orderNumber + "&newStatus=" + status;
+    // Check the transition locally
+    OrderStatus next = OrderStatus.fromName(status);
+    if (next == null || !next.isReachable()) {
+      return Result.error(ErrorCode.INVALID_STATUS_TRANSITION, "Order status cannot be set to " + status);
+    }
+    OrderStatus current = knownStatus.get(orderNumber);
+    if (current != null && !current.canMoveTo(next)) {
+      return Result.error(ErrorCode.INVALID_STATUS_TRANSITION,
+          "Order cannot go from " + current.getName() + " to " + status);
+    }
 
-    try {
-      // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
+    // Construct the endpoint request
+    String request = UPDATE_ORDER_STATUS.expand(orderNumber, status);
 
-      if (response.equals("True")) {
-        return true;
+    // Perform request
+    try (ResponseBody response = ClientIO.doGETRequestBody(endpoint + request)) {
+      if (response.isTrue()) {
+        knownStatus.put(orderNumber, next);
+        return Result.ok();
       }
+      return Result.error(ErrorCode.SERVER_REJECTED, "Order status update rejected by server");
+    } catch (IOException e) {
+      // Keep the update for later if the server cannot be reached
+      WriteBehindQueue queue = writeBehind;
+      if (queue != null) {
+        try {
+          queue.enqueue(WriteBehindQueue.Kind.UPDATE_ORDER_STATUS, orderNumber, UUID.randomUUID().toString(), request, null);
+          knownStatus.put(orderNumber, next);
+          return Result.ok();
+        } catch (IOException queueFailure) {
+          e.addSuppressed(queueFailure);
+        }
+      }
+      return Result.error(ErrorCode.IO_ERROR, "Order status update request failed", e);
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Order status update request failed", e);
     }
-    return false;
+  }
+
+  /**
+   * Queues status updates that cannot reach the server instead of failing them.
+   *
+   * @param queue the queue to use or null to fail such updates again
+   */
+  public void setWriteBehindQueue(WriteBehindQueue queue) {
+    this.writeBehind = queue;
+  }
+
+  /**
+   * Returns the local queue of the orders the company is working on, whose
+   * status changes are published to the server in batches.
+   *
+   * @return the order queue of this client
+   */
+  public CatererOrderQueue getOrderQueue() {
+    return orderQueue;
   }
 
   @Override
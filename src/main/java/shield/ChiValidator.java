@@ -0,0 +1,140 @@
+/**
+ * Validator for CHI numbers as described in
+ * https://datadictionary.nhs.uk/attributes/community_health_index_number.html
+ *
+ * A CHI number is ten numeric digits starting with the date of birth of the
+ * individual (ddMMyy) and ending with a modulus 11 check digit. All the checks
+ * are done in a single pass over the characters, so validating a CHI number
+ * does not allocate and never throws.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.util.BitSet;
+import java.util.List;
+
+public final class ChiValidator {
+
+  public static final int CHI_LENGTH = 10;
+
+  // Internal field to store the outcome of a validation
+  public enum Outcome {
+    VALID,
+    WRONG_LENGTH,
+    NOT_NUMERIC,
+    INVALID_DATE,
+    INVALID_CHECK_DIGIT
+  }
+
+  private ChiValidator() {}
+
+  /**
+   * Returns true if the CHI number is valid
+   *
+   * @param chi the CHI number to validate
+   * @param checkDigitRequired whether the modulus 11 check digit is verified
+   * @return true if the CHI number is valid
+   */
+  public static boolean isValid(CharSequence chi, boolean checkDigitRequired) {
+    return validate(chi, checkDigitRequired) == Outcome.VALID;
+  }
+
+  /**
+   * Returns the outcome of validating the CHI number: its length, that it only
+   * contains numeric digits, that it starts with a valid ddMMyy date and,
+   * optionally, that its last digit is the modulus 11 check digit.
+   *
+   * @param chi the CHI number to validate
+   * @param checkDigitRequired whether the modulus 11 check digit is verified
+   * @return the outcome of the validation
+   */
+  public static Outcome validate(CharSequence chi, boolean checkDigitRequired) {
+    if (chi == null || chi.length() != CHI_LENGTH) {
+      return Outcome.WRONG_LENGTH;
+    }
+
+    int day = 0;
+    int month = 0;
+    int year = 0;
+    int weightedSum = 0;
+
+    for (int i = 0; i < CHI_LENGTH; i++) {
+      int digit = chi.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return Outcome.NOT_NUMERIC;
+      }
+
+      if (i < 2) {
+        day = day * 10 + digit;
+      } else if (i < 4) {
+        month = month * 10 + digit;
+      } else if (i < 6) {
+        year = year * 10 + digit;
+      }
+
+      // The first nine digits are weighted 10 down to 2
+      if (i < CHI_LENGTH - 1) {
+        weightedSum += digit * (CHI_LENGTH - i);
+      }
+    }
+
+    // Two digit years are read as 20yy, the same as the ddMMyy pattern
+    if (month < 1 || month > 12 || day < 1 || day > daysInMonth(month, 2000 + year)) {
+      return Outcome.INVALID_DATE;
+    }
+
+    if (checkDigitRequired) {
+      int checkDigit = 11 - (weightedSum % 11);
+      if (checkDigit == 11) {
+        checkDigit = 0;
+      }
+      // A check digit of 10 is never issued, so such numbers are invalid
+      if (checkDigit == 10 || checkDigit != chi.charAt(CHI_LENGTH - 1) - '0') {
+        return Outcome.INVALID_CHECK_DIGIT;
+      }
+    }
+
+    return Outcome.VALID;
+  }
+
+  /**
+   * Validates a list of CHI numbers, e.g. before registering a cohort of
+   * shielding individuals.
+   *
+   * @param chis the CHI numbers to validate
+   * @param checkDigitRequired whether the modulus 11 check digit is verified
+   * @return set holding the indices of the valid CHI numbers in the list
+   */
+  public static BitSet validateAll(List<? extends CharSequence> chis, boolean checkDigitRequired) {
+    // Make sure parameters are not null
+    assert(chis != null);
+
+    BitSet valid = new BitSet(chis.size());
+    int i = 0;
+    for (CharSequence chi : chis) {
+      if (validate(chi, checkDigitRequired) == Outcome.VALID) {
+        valid.set(i);
+      }
+      i++;
+    }
+    return valid;
+  }
+
+  private static int daysInMonth(int month, int year) {
+    switch (month) {
+      case 2:
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return leap ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Holder for the clock all the clients in this JVM read the time from, e.g.
+ * when placeOrder checks that no order was placed in the last week.
+ *
+ * By default this is the system clock. Use set() with a SimulatedClock to run
+ * weeks of ordering in a load test or a unit test without waiting for them.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.time.Clock;
+
+public final class ClientClock {
+
+  private static volatile Clock clock = Clock.systemDefaultZone();
+
+  private ClientClock() {}
+
+  /**
+   * Returns the clock currently in use
+   *
+   * @return the clock currently in use
+   */
+  public static Clock get() {
+    return clock;
+  }
+
+  /**
+   * Replaces the clock used by all the clients
+   *
+   * @param newClock the clock to use from now on
+   */
+  public static void set(Clock newClock) {
+    // Make sure parameters are not null
+    assert(newClock != null);
+
+    clock = newClock;
+  }
+
+  /**
+   * Goes back to the system clock
+   */
+  public static void reset() {
+    clock = Clock.systemDefaultZone();
+  }
+}
@@ -4,14 +4,141 @@
 
 package shield;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 public class ClientIO {
+  /**
+   * Name of the configuration file the transport is selected from
+   */
+  public static final String CONFIG_FILENAME = "client.cfg";
+
+  private static volatile Transport transport;
+  private static volatile String catalogAccept;
+
+  /**
+   * Returns the transport used for all the requests, creating it from the
+   * transport property of client.cfg on first use:
+   *  - urlconnection (default): a HttpURLConnection per request
+   *  - httpclient: a shared java.net.http.HttpClient, using HTTP/2 multiplexing
+   *    and falling back to HTTP/1.1 keep-alive (set httpVersion=HTTP_1_1 to
+   *    always use HTTP/1.1)
+   * With singleFlight=true, identical read-only GET requests in flight at the
+   * same time are merged into one network call (see SingleFlightTransport).
+   * Responses are always requested gzip or deflate compressed; POST bodies of at
+   * least compressRequestsAbove bytes are sent gzipped (off unless set).
+   * With captureFile set, every request and response is recorded to that file
+   * for TrafficReplay (see CaptureTransport).
+   *
+   * @return the transport used for all the requests
+   */
+  public static Transport getTransport() {
+    Transport t = transport;
+    if (t == null) {
+      synchronized (ClientIO.class) {
+        if (transport == null) {
+          transport = createTransport(loadConfig());
+        }
+        t = transport;
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Replaces the transport used for all the requests
+   *
+   * @param newTransport the transport to use from now on
+   */
+  public static void setTransport(Transport newTransport) {
+    // Make sure parameters are not null
+    assert(newTransport != null);
+
+    transport = newTransport;
+  }
+
+  /**
+   * Creates the transport described by the given configuration
+   *
+   * @param config the client configuration
+   * @return the configured transport
+   */
+  static Transport createTransport(Properties config) {
+    String name = config.getProperty("transport", "urlconnection").trim();
+
+    int compressThreshold = Compression.parseThreshold(config.getProperty("compressRequestsAbove"));
+
+    Transport t;
+    if (name.equalsIgnoreCase("httpclient")) {
+      String version = config.getProperty("httpVersion", "HTTP_2").trim();
+      t = new HttpClientTransport(HttpClient.Version.valueOf(version.toUpperCase()), compressThreshold);
+    } else {
+      t = new UrlConnectionTransport(compressThreshold);
+    }
+
+    if (Boolean.parseBoolean(config.getProperty("singleFlight", "false").trim())) {
+      t = new SingleFlightTransport(t);
+    }
+
+    String captureFile = config.getProperty("captureFile", "").trim();
+    if (!captureFile.isEmpty()) {
+      try {
+        CaptureTransport capture = new CaptureTransport(t, new TrafficLog.Writer(Paths.get(captureFile)));
+        // Nothing closes the transport of ClientIO, so the last requests are written on exit
+        capture.closeOnShutdown();
+        t = capture;
+      } catch (IOException e) {
+        ClientLog.get().log(ErrorCode.IO_ERROR, "Traffic capture to " + captureFile + " could not be started", e);
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Returns the Accept header of the /showFoodBox and /getCaterers requests,
+   * preferring the binary encoding of BinaryCodec if wireFormat=binary is set in
+   * client.cfg and asking for JSON otherwise
+   *
+   * @return the Accept header of catalog requests
+   */
+  public static String getCatalogAccept() {
+    String accept = catalogAccept;
+    if (accept == null) {
+      String format = loadConfig().getProperty("wireFormat", "json").trim();
+      accept = format.equalsIgnoreCase("binary") ? BinaryCodec.ACCEPT_BINARY : BinaryCodec.ACCEPT_JSON;
+      catalogAccept = accept;
+    }
+    return accept;
+  }
+
+  /**
+   * Selects the encoding asked for by catalog requests from now on
+   *
+   * @param binary true to prefer the binary encoding, false for JSON
+   */
+  public static void setBinaryFormat(boolean binary) {
+    catalogAccept = binary ? BinaryCodec.ACCEPT_BINARY : BinaryCodec.ACCEPT_JSON;
+  }
+
+  private static Properties loadConfig() {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    Properties props = new Properties();
+
+    try (InputStream propsStream = loader.getResourceAsStream(CONFIG_FILENAME)) {
+      if (propsStream != null) {
+        props.load(propsStream);
+      }
+    } catch (Exception e) {
+      ClientLog.get().log(ErrorCode.IO_ERROR, "Could not read " + CONFIG_FILENAME, e);
+    }
+
+    return props;
+  }
+
   /**
    * Performs a GET HTTP request and returns a String with the remote endpoint's reply
    *
@@ -21,31 +148,45 @@ public class ClientIO {
    * @throws RuntimeException a protocol processing error occurred
    * */
   public static String doGETRequest(String endpoint) throws RuntimeException, IOException {
-    URL requestUrl = new URL(endpoint);
-    HttpURLConnection conn = (HttpURLConnection) requestUrl.openConnection();
-    conn.setRequestMethod("GET");
-    conn.setRequestProperty("Accept", "application/json");
-
-    int responseCode = conn.getResponseCode();
-
-    if (responseCode != HttpURLConnection.HTTP_OK) {
-      throw new RuntimeException("Failed with HTTP code : "
-                                 + conn.getResponseCode());
-    }
-
-    BufferedReader in = new BufferedReader(
-      new InputStreamReader(conn.getInputStream()));
-    StringBuffer response = new StringBuffer();
-    String output = null;
+    return getTransport().doGETRequest(endpoint);
+  }
 
-    while ((output = in.readLine()) != null) {
-      response.append(output);
-    }
+  /**
+   * Performs a GET HTTP request and returns the remote endpoint's reply as bytes
+   * in a pooled buffer, to be closed by the caller (see ResponseBody)
+   *
+   * @param  endpoint  a HTTP URL giving location of an endpoint
+   * @return      the endpoint's response
+   * @throws IOException an input/output error occurred
+   * @throws RuntimeException a protocol processing error occurred
+   * */
+  public static ResponseBody doGETRequestBody(String endpoint) throws RuntimeException, IOException {
+    return getTransport().doGETRequestBody(endpoint);
+  }
 
-    in.close();
-    conn.disconnect();
+  /**
+   * Performs a GET HTTP request accepting the given media types and returns the
+   * remote endpoint's reply as bytes, to be closed by the caller
+   *
+   * @param  endpoint  a HTTP URL giving location of an endpoint
+   * @param  accept  value of the Accept header
+   * @return      the endpoint's response
+   * @throws IOException an input/output error occurred
+   * @throws RuntimeException a protocol processing error occurred
+   * */
+  public static ResponseBody doGETRequestBody(String endpoint, String accept) throws RuntimeException, IOException {
+    return getTransport().doGETRequestBody(endpoint, accept);
+  }
 
-    return response.toString();
+  /**
+   * Performs a GET HTTP request without blocking the caller, so a burst of
+   * requests can share a connection when the transport supports it
+   *
+   * @param  endpoint  a HTTP URL giving location of an endpoint
+   * @return      future completed with the endpoint's response
+   * */
+  public static CompletableFuture<String> doGETRequestAsync(String endpoint) {
+    return getTransport().doGETRequestAsync(endpoint);
   }
 
   /**
@@ -58,33 +199,6 @@ public class ClientIO {
    * @throws RuntimeException a protocol processing error occurred
    * */
   public static String doPOSTRequest(String endpoint, String data) throws RuntimeException, IOException {
-    URL url = new URL(endpoint);
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setDoOutput(true);
-    conn.setRequestMethod("POST");
-    conn.setRequestProperty("Content-Type", "application/json");
-
-    OutputStream os = conn.getOutputStream();
-    os.write(data.getBytes());
-    os.flush();
-
-    if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
-      throw new RuntimeException("Failed with HTTP code : "
-                                 + conn.getResponseCode());
-    }
-
-    BufferedReader in = new BufferedReader(new InputStreamReader(
-        (conn.getInputStream())));
-    StringBuffer response = new StringBuffer();
-    String output = null;
-
-    while ((output = in.readLine()) != null) {
-      response.append(output);
-    }
-
-    in.close();
-    conn.disconnect();
-
-    return response.toString();
+    return getTransport().doPOSTRequest(endpoint, data);
   }
 }
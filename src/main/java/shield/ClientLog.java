@@ -0,0 +1,49 @@
+/**
+ * Holder for the logger used by all the clients in this JVM.
+ *
+ * By default failures are written to stderr by an AsyncClientLogger. Use
+ * setLogger() to plug in a different implementation, e.g. one that forwards to
+ * the logging framework of the application embedding the clients.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+public final class ClientLog {
+
+  private static volatile ClientLogger logger;
+
+  private ClientLog() {}
+
+  /**
+   * Returns the logger currently in use, creating the default one on first use
+   *
+   * @return the logger currently in use
+   */
+  public static ClientLogger get() {
+    ClientLogger l = logger;
+    if (l == null) {
+      synchronized (ClientLog.class) {
+        if (logger == null) {
+          logger = new AsyncClientLogger();
+        }
+        l = logger;
+      }
+    }
+    return l;
+  }
+
+  /**
+   * Replaces the logger used by all the clients
+   *
+   * @param newLogger the logger to use from now on
+   */
+  public static void setLogger(ClientLogger newLogger) {
+    // Make sure parameters are not null
+    assert(newLogger != null);
+
+    logger = newLogger;
+  }
+}
@@ -0,0 +1,22 @@
+/**
+ * Interface for the logger that client failures are reported to.
+ *
+ * Implementations are called from the thread performing the failed operation,
+ * so they should return quickly and leave any I/O to a background thread.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+public interface ClientLogger {
+  /**
+   * Records a failed client operation
+   *
+   * @param code the error code identifying the cause of the failure
+   * @param message the message that informs the user of the exact issue
+   * @param cause the exception that caused the failure, or null for validation failures
+   */
+  public void log(ErrorCode code, String message, Throwable cause);
+}
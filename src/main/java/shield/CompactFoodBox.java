@@ -0,0 +1,123 @@
+/**
+ * Food box of the catalog stored as parallel arrays of item ids, item name codes
+ * (into the shared StringTable) and quantities, instead of one object per item.
+ *
+ * Instances are never modified after they are built, so they are shared by the
+ * catalog and every order or picked box based on them. Quantity changes are made
+ * on a WorkingFoodBox.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.util.List;
+
+public final class CompactFoodBox {
+
+  private final String id;
+  private final String name;
+  private final String diet;
+  private final String deliveredBy;
+  private final int[] itemIds;
+  private final int[] nameCodes;
+  private final int[] quantities;
+  private final StringTable names;
+
+  CompactFoodBox(String id, String name, String diet, String deliveredBy,
+                 int[] itemIds, int[] nameCodes, int[] quantities, StringTable names) {
+    // Make sure parameters are valid
+    assert(itemIds.length == nameCodes.length && itemIds.length == quantities.length);
+
+    this.id = id;
+    this.name = name;
+    this.diet = diet;
+    this.deliveredBy = deliveredBy;
+    this.itemIds = itemIds;
+    this.nameCodes = nameCodes;
+    this.quantities = quantities;
+    this.names = names;
+  }
+
+  /**
+   * Builds a compact food box from the contents received from the server
+   *
+   * @param id the food box id
+   * @param name the food box name
+   * @param diet dietary preference the food box satisfies
+   * @param deliveredBy who delivers the food box
+   * @param contents the items of the food box
+   * @param names table the item names are interned into
+   * @return the compact food box
+   */
+  static CompactFoodBox of(String id, String name, String diet, String deliveredBy,
+                           List<FoodBoxCatalog.boxContents> contents, StringTable names) {
+    int n = contents == null ? 0 : contents.size();
+    int[] itemIds = new int[n];
+    int[] nameCodes = new int[n];
+    int[] quantities = new int[n];
+
+    for (int i = 0; i < n; i++) {
+      FoodBoxCatalog.boxContents c = contents.get(i);
+      itemIds[i] = c.id;
+      nameCodes[i] = names.intern(c.name);
+      quantities[i] = c.quantity;
+    }
+    return new CompactFoodBox(id, name, diet, deliveredBy, itemIds, nameCodes, quantities, names);
+  }
+
+  public String getId() { return id; }
+
+  public String getName() { return name; }
+
+  public String getDiet() { return diet; }
+
+  public String getDeliveredBy() { return deliveredBy; }
+
+  /**
+   * Returns the number of items in the food box (not the quantity of each item)
+   *
+   * @return number of items
+   */
+  public int getItemCount() { return itemIds.length; }
+
+  /**
+   * Returns the id of the item at the index
+   *
+   * @param i index of the item, between 0 and getItemCount()-1
+   * @return item id
+   */
+  public int getItemId(int i) { return itemIds[i]; }
+
+  /**
+   * Returns the name of the item at the index
+   *
+   * @param i index of the item, between 0 and getItemCount()-1
+   * @return item name
+   */
+  public String getItemName(int i) { return names.get(nameCodes[i]); }
+
+  /**
+   * Returns the quantity of the item at the index
+   *
+   * @param i index of the item, between 0 and getItemCount()-1
+   * @return item quantity
+   */
+  public int getQuantity(int i) { return quantities[i]; }
+
+  /**
+   * Returns the index of the item in the food box
+   *
+   * @param itemId the item id
+   * @return index of the item or -1 if item not in food box
+   */
+  public int indexOf(int itemId) {
+    for (int i = 0; i < itemIds.length; i++) {
+      if (itemIds[i] == itemId) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * HTTP content coding shared by the transports.
+ *
+ * Every request offers gzip and deflate through Accept-Encoding, and a
+ * compressed response is inflated as it is read, so the catalog and caterer
+ * lists reach the JSON reader without an uncompressed copy in between. POST
+ * bodies are gzipped only when the client is configured to and the body is
+ * larger than the threshold, as small bodies grow when compressed.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public final class Compression {
+  /**
+   * Value of the Accept-Encoding header sent with every request
+   */
+  public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+  /**
+   * Content coding of compressed request bodies
+   */
+  public static final String GZIP = "gzip";
+
+  /**
+   * Threshold meaning request bodies are never compressed
+   */
+  public static final int NEVER = -1;
+
+  private Compression() {}
+
+  /**
+   * Returns the response stream decoded according to its Content-Encoding
+   *
+   * @param in the response stream as received
+   * @param contentEncoding the Content-Encoding header, or null if there is none
+   * @return stream of the decoded response
+   * @throws IOException the coding is not supported or the stream is corrupt
+   */
+  public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+    // Make sure parameters are not null
+    assert(in != null);
+
+    String coding = contentEncoding == null ? "" : contentEncoding.trim().toLowerCase();
+    switch (coding) {
+      case "":
+      case "identity":
+        return in;
+      case "gzip":
+      case "x-gzip":
+        return new GZIPInputStream(in);
+      case "deflate":
+        return inflate(in);
+      default:
+        in.close();
+        throw new IOException("Unsupported content encoding " + contentEncoding);
+    }
+  }
+
+  /**
+   * Returns true if a request body of the given size is compressed
+   *
+   * @param length the body length in bytes
+   * @param threshold the smallest body compressed, or NEVER
+   * @return true if the body should be gzipped
+   */
+  public static boolean shouldCompress(int length, int threshold) {
+    return threshold != NEVER && length >= threshold;
+  }
+
+  /**
+   * Gzips a request body
+   *
+   * @param data the body
+   * @return the compressed body
+   */
+  public static byte[] gzip(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(data);
+    } catch (IOException e) {
+      // Writing to memory does not fail
+      throw new IllegalStateException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Reads the request compression threshold of the client configuration
+   *
+   * @param value the compressRequestsAbove property, or null if it is not set
+   * @return the threshold in bytes, or NEVER
+   */
+  static int parseThreshold(String value) {
+    if (value == null || value.trim().isEmpty()) {
+      return NEVER;
+    }
+    try {
+      return Math.max(0, Integer.parseInt(value.trim()));
+    } catch (NumberFormatException e) {
+      ClientLog.get().log(ErrorCode.IO_ERROR, "Invalid compressRequestsAbove " + value, e);
+      return NEVER;
+    }
+  }
+
+  // HTTP deflate is meant to be zlib wrapped, but some servers send raw deflate
+  private static InputStream inflate(InputStream in) throws IOException {
+    PushbackInputStream pushback = new PushbackInputStream(in, 2);
+    int cmf = pushback.read();
+    int flg = cmf < 0 ? -1 : pushback.read();
+    if (flg >= 0) {
+      pushback.unread(flg);
+    }
+    if (cmf >= 0) {
+      pushback.unread(cmf);
+    }
+    boolean zlib = flg >= 0 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    return new InflaterInputStream(pushback, new Inflater(!zlib)) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          // The stream only ends inflaters it created itself
+          inf.end();
+        }
+      }
+    };
+  }
+}
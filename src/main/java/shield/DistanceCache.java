@@ -0,0 +1,115 @@
+/**
+ * Distances between postcodes already returned by /distance, shared by all the
+ * clients of an endpoint.
+ *
+ * The distance between two postcodes never changes, so once a client has asked
+ * for it no client needs to ask again; this matters for
+ * getClosestCateringCompany, which needs the distance to every catering
+ * company. Distances are symmetric, so each pair is stored once. The cache
+ * stops growing at MAX_ENTRIES pairs.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public final class DistanceCache {
+  /**
+   * Largest number of postcode pairs kept per endpoint
+   */
+  public static final int MAX_ENTRIES = 100000;
+
+  // Separates the postcodes of a key, postcodes have no spaces (e.g. EH1_1AB)
+  static final char SEPARATOR = ' ';
+
+  private static final ConcurrentMap<String, DistanceCache> SHARED =
+      new ConcurrentHashMap<String, DistanceCache>();
+
+  private final ConcurrentMap<String, Float> distances = new ConcurrentHashMap<String, Float>();
+
+  private DistanceCache() {}
+
+  /**
+   * Returns the cache shared by all the clients of the endpoint
+   *
+   * @param endpoint the server endpoint
+   * @return the shared cache
+   */
+  public static DistanceCache forEndpoint(String endpoint) {
+    return SHARED.computeIfAbsent(endpoint, e -> new DistanceCache());
+  }
+
+  /**
+   * Drops the cache shared by the clients of the endpoint
+   *
+   * @param endpoint the server endpoint
+   */
+  static void unshare(String endpoint) {
+    SHARED.remove(endpoint);
+  }
+
+  /**
+   * @param postCode1 post code of one location
+   * @param postCode2 post code of another location
+   * @return the distance between the locations or null if it is not known
+   */
+  public Float get(String postCode1, String postCode2) {
+    return distances.get(key(postCode1, postCode2));
+  }
+
+  /**
+   * Stores the distance between two locations, unless the cache is full
+   *
+   * @param postCode1 post code of one location
+   * @param postCode2 post code of another location
+   * @param distance the distance returned by the server
+   */
+  public void put(String postCode1, String postCode2, float distance) {
+    if (distances.size() < MAX_ENTRIES) {
+      distances.put(key(postCode1, postCode2), distance);
+    }
+  }
+
+  /**
+   * @return the number of postcode pairs stored
+   */
+  public int size() {
+    return distances.size();
+  }
+
+  /**
+   * Returns a copy of the stored distances, keyed by the two postcodes in
+   * alphabetical order separated by SEPARATOR
+   *
+   * @return the distances
+   */
+  Map<String, Float> entries() {
+    return new HashMap<String, Float>(distances);
+  }
+
+  /**
+   * Stores distances read back from entries(), e.g. from a snapshot
+   *
+   * @param entries the distances
+   */
+  void putAll(Map<String, Float> entries) {
+    for (Map.Entry<String, Float> e : entries.entrySet()) {
+      if (distances.size() >= MAX_ENTRIES) {
+        return;
+      }
+      distances.putIfAbsent(e.getKey(), e.getValue());
+    }
+  }
+
+  static String key(String postCode1, String postCode2) {
+    return postCode1.compareTo(postCode2) <= 0
+        ? postCode1 + SEPARATOR + postCode2
+        : postCode2 + SEPARATOR + postCode1;
+  }
+}
@@ -0,0 +1,27 @@
+/**
+ * Error codes carried by a Result to identify the exact cause of a failed
+ * client operation without having to throw (and fill the stack trace of) an
+ * exception.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+public enum ErrorCode {
+  OK,
+  INVALID_CHI,
+  INVALID_POSTCODE,
+  NOT_REGISTERED,
+  NO_BOX_PICKED,
+  ORDER_ALREADY_PLACED_THIS_WEEK,
+  ORDER_NOT_FOUND,
+  ORDER_NOT_AMENDABLE,
+  ORDER_NOT_CANCELLABLE,
+  ITEM_NOT_IN_BOX,
+  QUANTITY_NOT_DECREASED,
+  INVALID_STATUS_TRANSITION,
+  SERVER_REJECTED,
+  IO_ERROR
+}
@@ -0,0 +1,342 @@
+/**
+ * In-memory copy of the food box catalog, built once from a full /showFoodBox
+ * download.
+ *
+ * The ids of the food boxes are partitioned by dietary preference when the
+ * catalog is built, so the food boxes for a dietary preference are looked up
+ * without a server round trip. A catalog is never modified after it is built;
+ * refreshing means building a new one.
+ *
+ * The food boxes are stored as CompactFoodBox, with the item names interned in
+ * the shared StringTable. Since nothing in a catalog can be modified, one
+ * catalog per endpoint is shared by all the clients in this JVM (see getShared()),
+ * and clients asking for it while it is being downloaded wait for the same
+ * download instead of starting their own (see getSharedAsync()).
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class FoodBoxCatalog {
+  private static final RequestTemplate SHOW_FOOD_BOX =
+      RequestTemplate.compile("/showFoodBox", "orderOption", "dietaryPreference");
+
+  private static final Type LIST_TYPE = new TypeToken<List<MessagingFoodBox>>() {} .getType();
+
+  private static final ConcurrentMap<String, FoodBoxCatalog> SHARED =
+      new ConcurrentHashMap<String, FoodBoxCatalog>();
+  // Downloads in progress, every client of the endpoint waits for the same one
+  private static final ConcurrentMap<String, CompletableFuture<FoodBoxCatalog>> LOADING =
+      new ConcurrentHashMap<String, CompletableFuture<FoodBoxCatalog>>();
+
+  private static final ExecutorService loader = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "food-box-catalog-loader");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final List<CompactFoodBox> boxes;
+  private final Map<String, List<String>> idsByDiet;
+
+  // Internal field only used for transmission purposes
+  static final class MessagingFoodBox {
+    List<boxContents> contents;
+    String delivered_by;
+    String diet;
+    String id;
+    String name;
+  }
+
+  // Internal field only used for transmission purposes
+  static final class boxContents {
+    int id;
+    String name;
+    int quantity;
+  }
+
+  private FoodBoxCatalog(List<MessagingFoodBox> messages, StringTable names) {
+    List<CompactFoodBox> compact = new ArrayList<CompactFoodBox>(messages.size());
+    Map<String, List<String>> partitions = new HashMap<String, List<String>>();
+    List<String> all = new ArrayList<String>(messages.size());
+
+    for (MessagingFoodBox b : messages) {
+      compact.add(CompactFoodBox.of(b.id, b.name, b.diet, b.delivered_by, b.contents, names));
+      all.add(b.id);
+
+      // Partition the ids by dietary preference
+      partitions.computeIfAbsent(b.diet, k -> new ArrayList<String>()).add(b.id);
+    }
+    for (Map.Entry<String, List<String>> e : partitions.entrySet()) {
+      e.setValue(Collections.unmodifiableList(e.getValue()));
+    }
+    // As for the server, an empty preference matches every box
+    partitions.put("", Collections.unmodifiableList(all));
+
+    this.boxes = Collections.unmodifiableList(compact);
+    this.idsByDiet = partitions;
+  }
+
+  /**
+   * Downloads the full catalog from the server
+   *
+   * @param endpoint the server endpoint
+   * @return the downloaded catalog
+   * @throws IOException if http request unsuccessful
+   * @throws RuntimeException if unmarshal unsuccessful
+   */
+  public static FoodBoxCatalog load(String endpoint) throws IOException {
+    // Perform request, an empty preference returns every box
+    String url = SHOW_FOOD_BOX.url(endpoint, "catering", "");
+    try (ResponseBody response = ClientIO.doGETRequestBody(url, ClientIO.getCatalogAccept())) {
+      if (response.isBinary()) {
+        return fromMessages(BinaryCodec.decodeFoodBoxes(response.bytes()));
+      }
+      return fromJson(response.reader());
+    }
+  }
+
+  /**
+   * Returns the catalog shared by all the clients of the endpoint, downloading it
+   * if no client has done so yet
+   *
+   * @param endpoint the server endpoint
+   * @return the shared catalog
+   * @throws IOException if http request unsuccessful
+   * @throws RuntimeException if unmarshal unsuccessful
+   */
+  public static FoodBoxCatalog getShared(String endpoint) throws IOException {
+    FoodBoxCatalog catalog = SHARED.get(endpoint);
+    if (catalog != null) {
+      return catalog;
+    }
+
+    try {
+      return getSharedAsync(endpoint).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading the food box catalog", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Returns the catalog shared by all the clients of the endpoint without
+   * blocking. If no client has downloaded it yet the download is started, or
+   * joined if another client already started it. A failed download is not
+   * kept, so the next call tries again.
+   *
+   * @param endpoint the server endpoint
+   * @return future completed with the shared catalog
+   */
+  public static CompletableFuture<FoodBoxCatalog> getSharedAsync(String endpoint) {
+    FoodBoxCatalog catalog = SHARED.get(endpoint);
+    if (catalog != null) {
+      return CompletableFuture.completedFuture(catalog);
+    }
+
+    CompletableFuture<FoodBoxCatalog> load = new CompletableFuture<FoodBoxCatalog>();
+    CompletableFuture<FoodBoxCatalog> existing = LOADING.putIfAbsent(endpoint, load);
+    if (existing != null) {
+      return existing;
+    }
+
+    loader.execute(() -> {
+      try {
+        FoodBoxCatalog loaded = SHARED.get(endpoint);
+        if (loaded == null) {
+          loaded = load(endpoint);
+          FoodBoxCatalog shared = SHARED.putIfAbsent(endpoint, loaded);
+          if (shared != null) {
+            loaded = shared;
+          }
+        }
+        load.complete(loaded);
+      } catch (Exception e) {
+        load.completeExceptionally(e);
+      } finally {
+        LOADING.remove(endpoint, load);
+      }
+    });
+    return load;
+  }
+
+  /**
+   * Downloads the catalog again and shares it with the clients of the endpoint
+   * that get the shared catalog from now on
+   *
+   * @param endpoint the server endpoint
+   * @return the downloaded catalog
+   * @throws IOException if http request unsuccessful
+   * @throws RuntimeException if unmarshal unsuccessful
+   */
+  public static FoodBoxCatalog reloadShared(String endpoint) throws IOException {
+    FoodBoxCatalog catalog = load(endpoint);
+    SHARED.put(endpoint, catalog);
+    return catalog;
+  }
+
+  /**
+   * Shares a catalog with the clients of the endpoint, e.g. one read from a
+   * snapshot, unless a catalog was downloaded already
+   *
+   * @param endpoint the server endpoint
+   * @param catalog the catalog
+   * @return true if the catalog is now shared
+   */
+  static boolean shareIfAbsent(String endpoint, FoodBoxCatalog catalog) {
+    return SHARED.putIfAbsent(endpoint, catalog) == null;
+  }
+
+  /**
+   * Drops the catalog shared by the clients of the endpoint
+   *
+   * @param endpoint the server endpoint
+   */
+  static void unshare(String endpoint) {
+    SHARED.remove(endpoint);
+  }
+
+  /**
+   * Returns the catalog shared by the clients of the endpoint without loading it
+   *
+   * @param endpoint the server endpoint
+   * @return the shared catalog or null if it was not loaded yet
+   */
+  static FoodBoxCatalog peekShared(String endpoint) {
+    return SHARED.get(endpoint);
+  }
+
+  /**
+   * Builds a catalog from food boxes decoded by BinaryCodec
+   *
+   * @param boxes the food boxes in the order of the server's response
+   * @return the catalog
+   */
+  static FoodBoxCatalog fromMessages(List<MessagingFoodBox> boxes) {
+    return new FoodBoxCatalog(boxes, StringTable.shared());
+  }
+
+  /**
+   * Returns the food boxes in the form they are received in, e.g. to encode them
+   * with BinaryCodec
+   *
+   * @return the food boxes in the order of the server's response
+   */
+  List<MessagingFoodBox> toMessages() {
+    List<MessagingFoodBox> messages = new ArrayList<MessagingFoodBox>(boxes.size());
+    for (CompactFoodBox box : boxes) {
+      MessagingFoodBox m = new MessagingFoodBox();
+      m.id = box.getId();
+      m.name = box.getName();
+      m.diet = box.getDiet();
+      m.delivered_by = box.getDeliveredBy();
+      m.contents = new ArrayList<boxContents>(box.getItemCount());
+      for (int i = 0; i < box.getItemCount(); i++) {
+        boxContents item = new boxContents();
+        item.id = box.getItemId(i);
+        item.name = box.getItemName(i);
+        item.quantity = box.getQuantity(i);
+        m.contents.add(item);
+      }
+      messages.add(m);
+    }
+    return messages;
+  }
+
+  /**
+   * Builds a catalog from a /showFoodBox response
+   *
+   * @param json the response listing every food box
+   * @return the catalog
+   */
+  static FoodBoxCatalog fromJson(String json) {
+    return fromJson(new StringReader(json));
+  }
+
+  /**
+   * Builds a catalog from a /showFoodBox response read straight from its bytes
+   *
+   * @param json reader over the response listing every food box
+   * @return the catalog
+   */
+  static FoodBoxCatalog fromJson(Reader json) {
+    List<MessagingFoodBox> boxes = new Gson().fromJson(json, LIST_TYPE);
+    if (boxes == null) {
+      throw new IllegalStateException("Empty food box catalog");
+    }
+    return new FoodBoxCatalog(boxes, StringTable.shared());
+  }
+
+  /**
+   * Returns the ids of the food boxes with the dietary preference
+   *
+   * @param dietaryPreference the dietary preference, empty for every box
+   * @return unmodifiable list of food box ids, empty if no box has the preference
+   */
+  public List<String> getFoodBoxIds(String dietaryPreference) {
+    List<String> ids = idsByDiet.get(dietaryPreference);
+    return ids == null ? Collections.<String>emptyList() : ids;
+  }
+
+  /**
+   * Returns the number of food boxes in the catalog
+   *
+   * @return number of food boxes
+   */
+  public int size() { return boxes.size(); }
+
+  /**
+   * Returns the dietary preference that this specific food box satisfies
+   *
+   * @param  foodBoxId the food box id as last returned from the server
+   * @return dietary preference
+   */
+  public String getDiet(int foodBoxId) { return get(foodBoxId).getDiet(); }
+
+  /**
+   * Returns the food box, ids are the positions of the boxes in the server's
+   * response starting from 1
+   *
+   * @param  foodBoxId the food box id as last returned from the server
+   * @return the food box
+   */
+  public CompactFoodBox get(int foodBoxId) {
+    // Make sure parameters are valid
+    assert(foodBoxId>0 && foodBoxId<=size());
+
+    return boxes.get(foodBoxId-1);
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Transport based on java.net.http.HttpClient.
+ *
+ * A single HttpClient is shared by all the requests, so concurrent requests to
+ * the same server are multiplexed over one HTTP/2 connection when the server
+ * supports it, and otherwise fall back to a pool of HTTP/1.1 keep-alive
+ * connections. Responses are requested compressed, see Compression.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+public class HttpClientTransport implements Transport {
+
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+  private final HttpClient client;
+  private final int compressThreshold;
+
+  public HttpClientTransport() { this(HttpClient.Version.HTTP_2); }
+
+  /**
+   * @param version preferred HTTP version, HTTP_2 falls back to HTTP/1.1 if the
+   *                server does not support it
+   */
+  public HttpClientTransport(HttpClient.Version version) { this(version, Compression.NEVER); }
+
+  /**
+   * @param version preferred HTTP version, HTTP_2 falls back to HTTP/1.1 if the
+   *                server does not support it
+   * @param compressThreshold size in bytes from which POST bodies are gzipped,
+   *                          or Compression.NEVER
+   */
+  public HttpClientTransport(HttpClient.Version version, int compressThreshold) {
+    // Make sure parameters are not null
+    assert(version != null);
+
+    this.client = HttpClient.newBuilder()
+        .version(version)
+        .connectTimeout(CONNECT_TIMEOUT)
+        .build();
+    this.compressThreshold = compressThreshold;
+  }
+
+  @Override
+  public String doGETRequest(String endpoint) throws RuntimeException, IOException {
+    try (ResponseBody body = doGETRequestBody(endpoint)) {
+      return body.toString();
+    }
+  }
+
+  @Override
+  public ResponseBody doGETRequestBody(String endpoint) throws RuntimeException, IOException {
+    return doGETRequestBody(endpoint, BinaryCodec.ACCEPT_JSON);
+  }
+
+  @Override
+  public ResponseBody doGETRequestBody(String endpoint, String accept) throws RuntimeException, IOException {
+    try {
+      return handle(client.send(get(endpoint, accept), HttpResponse.BodyHandlers.ofInputStream()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for " + endpoint, e);
+    }
+  }
+
+  @Override
+  public String doPOSTRequest(String endpoint, String data) throws RuntimeException, IOException {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(endpoint))
+        .header("Content-Type", "application/json")
+        .header("Accept-Encoding", Compression.ACCEPT_ENCODING);
+
+    byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+    if (Compression.shouldCompress(bytes.length, compressThreshold)) {
+      bytes = Compression.gzip(bytes);
+      builder.header("Content-Encoding", Compression.GZIP);
+    }
+    HttpRequest request = builder.POST(HttpRequest.BodyPublishers.ofByteArray(bytes)).build();
+
+    try (ResponseBody body = handle(client.send(request, HttpResponse.BodyHandlers.ofInputStream()))) {
+      return body.toString();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for " + endpoint, e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<String> doGETRequestAsync(String endpoint) {
+    // The body is read in full first, so no client thread blocks on the stream
+    return client.sendAsync(get(endpoint, BinaryCodec.ACCEPT_JSON), HttpResponse.BodyHandlers.ofByteArray())
+        .thenApply(response -> {
+          try (ResponseBody body = handle(response.statusCode(), response.headers(),
+                                          new ByteArrayInputStream(response.body()))) {
+            return body.toString();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  private static HttpRequest get(String endpoint, String accept) {
+    return HttpRequest.newBuilder(URI.create(endpoint))
+        .header("Accept", accept)
+        .header("Accept-Encoding", Compression.ACCEPT_ENCODING)
+        .GET()
+        .build();
+  }
+
+  private static ResponseBody handle(HttpResponse<InputStream> response) throws IOException {
+    return handle(response.statusCode(), response.headers(), response.body());
+  }
+
+  private static ResponseBody handle(int statusCode, HttpHeaders headers, InputStream in) throws IOException {
+    if (statusCode != 200) {
+      in.close();
+      throw new RuntimeException("Failed with HTTP code : "
+                                 + statusCode);
+    }
+
+    // Line breaks are dropped by ResponseBody.toString, the same as UrlConnectionTransport does
+    return ResponseBody.read(Compression.decode(in, headers.firstValue("Content-Encoding").orElse(null)),
+        headers.firstValue("Content-Type").orElse(null));
+  }
+}
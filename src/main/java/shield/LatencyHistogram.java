@@ -0,0 +1,111 @@
+/**
+ * Histogram of operation latencies that can be recorded from many threads at
+ * once, used by LoadGenerator to report percentiles.
+ *
+ * Latencies are counted in microseconds in logarithmic buckets: values below
+ * 64 have a bucket each and every power of two above is split into 32 buckets,
+ * so a percentile is off by at most 1/32 (about 3%) of its value. Recording is
+ * a single atomic increment and the memory used does not grow with the number
+ * of samples, unlike keeping every latency and sorting them.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class LatencyHistogram {
+  private static final int LINEAR = 64;
+  private static final int SUB_BUCKETS = 32;
+  private static final int SUB_BITS = 5;
+  // Values below 2^6 are linear, each power of two from 2^6 to 2^63 gets SUB_BUCKETS
+  private static final int BUCKETS = LINEAR + (64 - 6) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records one latency
+   *
+   * @param nanos the latency in nanoseconds, negative values count as 0
+   */
+  public void record(long nanos) {
+    long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    counts.incrementAndGet(bucket(micros));
+    total.incrementAndGet();
+    sum.addAndGet(micros);
+    max.accumulateAndGet(micros, Math::max);
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    return total.get();
+  }
+
+  /**
+   * @return the mean latency in microseconds, 0 if none was recorded
+   */
+  public double getMeanMicros() {
+    long n = total.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * @return the largest latency recorded in microseconds
+   */
+  public long getMaxMicros() {
+    return max.get();
+  }
+
+  /**
+   * Returns the latency below which the given share of the recorded latencies
+   * fall, rounded up to the end of its bucket
+   *
+   * @param percentile the share in percent, e.g. 99.9
+   * @return the latency in microseconds, 0 if none was recorded
+   */
+  public long getPercentileMicros(double percentile) {
+    // Make sure parameters are valid
+    assert(percentile >= 0 && percentile <= 100);
+
+    long n = total.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestIn(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  static int bucket(long micros) {
+    if (micros < LINEAR) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int top = (int) (micros >>> (exponent - SUB_BITS));
+    return LINEAR + (exponent - 6) * SUB_BUCKETS + (top - SUB_BUCKETS);
+  }
+
+  static long highestIn(int bucket) {
+    if (bucket < LINEAR) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR) / SUB_BUCKETS + 6;
+    long top = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((top + 1) << (exponent - SUB_BITS)) - 1;
+  }
+}
@@ -0,0 +1,633 @@
+/**
+ * Generates load on a server by simulating shielding individuals, catering
+ * companies and supermarkets through the client implementations.
+ *
+ * Every simulated actor first registers with the server. Shielding individuals
+ * then look up their closest catering company. After that each actor repeatedly
+ * picks an operation of its role from the operation mix and waits a think time
+ * before the next one. Think times are drawn from an exponential distribution
+ * around thinkTimeMillis, so actors do not move in lock step. Individuals place
+ * orders that the catering companies move through packed, dispatched and
+ * delivered. Supermarkets record orders for the registered individuals and
+ * update them the same way.
+ *
+ * Actors do not own a thread: they are scheduled on a pool of threads, so
+ * thousands of actors can be simulated. The pool size caps the number of
+ * requests in flight. Actors start spread over rampUpSeconds and stop after
+ * durationSeconds. The Report holds the throughput, error rate and latency
+ * percentiles of every operation.
+ *
+ * The settings, all optional:
+ *   individuals, caterers, supermarkets   number of actors of each role
+ *   durationSeconds, rampUpSeconds        length of the run and of its start
+ *   thinkTimeMillis                       mean wait between two operations
+ *   threads                               number of threads running the actors
+ *   mix                                   weights of the operations, e.g.
+ *                                         showFoodBoxes:30,placeOrder:10
+ *   simulatedWeekMillis                   if set, the clients run on a
+ *                                         SimulatedClock moved one week on
+ *                                         every that many milliseconds
+ * An operation left out of the mix has weight 0. Weights are relative to the
+ * other operations of the same role, and an actor whose role has no weight
+ * only registers.
+ *
+ * With simulatedWeekMillis individuals can order again every simulated week,
+ * so months of weekly ordering fit in a run of a few minutes. The previous
+ * ClientClock is restored when the run ends.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class LoadGenerator {
+  public static final String DEFAULT_MIX = "showFoodBoxes:30,pickFoodBox:20,placeOrder:10,orderStatus:30,"
+      + "catererUpdate:10,supermarketOrder:5,supermarketUpdate:5";
+
+  private static final Duration WEEK = Duration.ofDays(7);
+
+  private static final String[] DIETS = {"none", "pollotarian", "vegan"};
+  // Statuses an order is moved through after it was placed
+  private static final String[] LIFECYCLE = {
+    OrderStatus.PACKED.getName(), OrderStatus.DISPATCHED.getName(), OrderStatus.DELIVERED.getName()
+  };
+
+  // Internal field to store who performs an operation
+  public enum Role {
+    INDIVIDUAL,
+    CATERER,
+    SUPERMARKET
+  }
+
+  // Internal field to store the operations that are measured
+  public enum Operation {
+    REGISTER("register", null),
+    CLOSEST_CATERER("closestCaterer", null),
+    SHOW_FOOD_BOXES("showFoodBoxes", Role.INDIVIDUAL),
+    PICK_FOOD_BOX("pickFoodBox", Role.INDIVIDUAL),
+    PLACE_ORDER("placeOrder", Role.INDIVIDUAL),
+    ORDER_STATUS("orderStatus", Role.INDIVIDUAL),
+    CATERER_UPDATE("catererUpdate", Role.CATERER),
+    SUPERMARKET_ORDER("supermarketOrder", Role.SUPERMARKET),
+    SUPERMARKET_UPDATE("supermarketUpdate", Role.SUPERMARKET);
+
+    private final String name;
+    private final Role role;
+
+    Operation(String name, Role role) {
+      this.name = name;
+      this.role = role;
+    }
+
+    public String getName() { return name; }
+
+    /**
+     * @return the role that picks this operation from the mix, null for the
+     *         operations done once when an actor starts
+     */
+    public Role getRole() { return role; }
+
+    /**
+     * @param name the name of an operation, as used in the mix
+     * @return the operation or null if there is none with the name
+     */
+    public static Operation fromName(String name) {
+      for (Operation op : values()) {
+        if (op.name.equals(name)) {
+          return op;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Counts and latencies of one operation
+   */
+  public static final class OperationStats {
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLongArray errors = new AtomicLongArray(ErrorCode.values().length);
+    private final AtomicLong exceptions = new AtomicLong();
+
+    void record(long nanos, ErrorCode code) {
+      latencies.record(nanos);
+      if (code == null) {
+        exceptions.incrementAndGet();
+      } else if (code != ErrorCode.OK) {
+        errors.incrementAndGet(code.ordinal());
+      }
+    }
+
+    public LatencyHistogram getLatencies() { return latencies; }
+
+    public long getCount() { return latencies.getCount(); }
+
+    /**
+     * @param code the error code
+     * @return the number of calls that failed with the code
+     */
+    public long getErrors(ErrorCode code) { return errors.get(code.ordinal()); }
+
+    /**
+     * @return the number of calls that threw instead of returning a result
+     */
+    public long getExceptions() { return exceptions.get(); }
+
+    /**
+     * @return the number of calls that failed, with an error code or exception
+     */
+    public long getErrors() {
+      long n = exceptions.get();
+      for (int i = 0; i < errors.length(); i++) {
+        n += errors.get(i);
+      }
+      return n;
+    }
+  }
+
+  /**
+   * Outcome of a run
+   */
+  public static final class Report {
+    private final Map<Operation, OperationStats> stats;
+    private final long elapsedNanos;
+    private final long simulatedDays;
+
+    Report(Map<Operation, OperationStats> stats, long elapsedNanos, long simulatedDays) {
+      this.stats = stats;
+      this.elapsedNanos = elapsedNanos;
+      this.simulatedDays = simulatedDays;
+    }
+
+    public OperationStats getStats(Operation op) { return stats.get(op); }
+
+    public double getElapsedSeconds() { return elapsedNanos / 1e9; }
+
+    /**
+     * @return the days the simulated clock moved during the run, 0 without one
+     */
+    public long getSimulatedDays() { return simulatedDays; }
+
+    /**
+     * @param op the operation
+     * @return the calls of the operation per second over the whole run
+     */
+    public double getThroughput(Operation op) {
+      return elapsedNanos == 0 ? 0 : stats.get(op).getCount() / getElapsedSeconds();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder out = new StringBuilder();
+      out.append(String.format("%.1f s", getElapsedSeconds()));
+      if (simulatedDays > 0) {
+        out.append(String.format(", %d simulated days", simulatedDays));
+      }
+      out.append(System.lineSeparator());
+      out.append(String.format("%-18s %8s %9s %7s %7s %8s %8s %8s %8s %8s %8s%n", "operation", "count", "ops/s",
+          "errors", "error%", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+      for (Operation op : Operation.values()) {
+        OperationStats s = stats.get(op);
+        LatencyHistogram h = s.getLatencies();
+        if (s.getCount() == 0) {
+          continue;
+        }
+        out.append(String.format("%-18s %8d %9.1f %7d %7.2f %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+            op.getName(), s.getCount(), getThroughput(op), s.getErrors(), 100.0 * s.getErrors() / s.getCount(),
+            h.getMeanMicros() / 1000, h.getPercentileMicros(50) / 1000.0, h.getPercentileMicros(90) / 1000.0,
+            h.getPercentileMicros(99) / 1000.0, h.getPercentileMicros(99.9) / 1000.0, h.getMaxMicros() / 1000.0));
+      }
+      for (Operation op : Operation.values()) {
+        OperationStats s = stats.get(op);
+        if (s.getErrors() == 0) {
+          continue;
+        }
+        out.append(op.getName()).append(" errors:");
+        for (ErrorCode code : ErrorCode.values()) {
+          if (s.getErrors(code) > 0) {
+            out.append(' ').append(code).append('=').append(s.getErrors(code));
+          }
+        }
+        if (s.getExceptions() > 0) {
+          out.append(" exception=").append(s.getExceptions());
+        }
+        out.append(System.lineSeparator());
+      }
+      return out.toString();
+    }
+  }
+
+  // Call measured as one operation
+  private interface Call {
+    ErrorCode run();
+  }
+
+  private final String endpoint;
+  private final int individuals;
+  private final int caterers;
+  private final int supermarkets;
+  private final long durationMillis;
+  private final long rampUpMillis;
+  private final long thinkTimeMillis;
+  private final int threads;
+  private final Map<Operation, Integer> mix;
+  private final long simulatedWeekMillis;
+
+  private final Map<Operation, OperationStats> stats = new EnumMap<Operation, OperationStats>(Operation.class);
+  // Orders placed by individuals, with the next status for the catering companies to set
+  private final Queue<int[]> placedOrders = new ConcurrentLinkedQueue<int[]>();
+  private final List<String> registeredCHIs = new ArrayList<String>();
+  private final AtomicInteger nextSupermarketOrder = new AtomicInteger();
+  private final String runId = Long.toString(System.currentTimeMillis() % 1000000, 36);
+
+  private ScheduledThreadPoolExecutor pool;
+  private CountDownLatch finished;
+  private long deadline;
+
+  /**
+   * @param endpoint the server endpoint
+   * @param settings the settings of the run, see the class comment
+   * @throws IllegalArgumentException if a setting is invalid
+   */
+  public LoadGenerator(String endpoint, Properties settings) {
+    // Make sure parameters are not null
+    assert(endpoint != null && settings != null);
+
+    this.endpoint = endpoint;
+    this.individuals = setting(settings, "individuals", 20);
+    this.caterers = setting(settings, "caterers", 3);
+    this.supermarkets = setting(settings, "supermarkets", 2);
+    this.durationMillis = TimeUnit.SECONDS.toMillis(setting(settings, "durationSeconds", 30));
+    this.rampUpMillis = TimeUnit.SECONDS.toMillis(setting(settings, "rampUpSeconds", 5));
+    this.thinkTimeMillis = setting(settings, "thinkTimeMillis", 200);
+    this.threads = Math.max(1, setting(settings, "threads", 32));
+    this.mix = parseMix(settings.getProperty("mix", DEFAULT_MIX));
+    this.simulatedWeekMillis = setting(settings, "simulatedWeekMillis", 0);
+
+    for (Operation op : Operation.values()) {
+      stats.put(op, new OperationStats());
+    }
+  }
+
+  private static int setting(Properties settings, String key, int defaultValue) {
+    String value = settings.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      int n = Integer.parseInt(value.trim());
+      if (n < 0) {
+        throw new IllegalArgumentException(key + " must not be negative: " + value);
+      }
+      return n;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(key + " is not a number: " + value, e);
+    }
+  }
+
+  /**
+   * Parses an operation mix of comma separated name:weight pairs
+   *
+   * @param mix the operation mix
+   * @return the weight of every operation, 0 for those left out
+   * @throws IllegalArgumentException if an operation or weight is invalid
+   */
+  static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<Operation, Integer>(Operation.class);
+    for (Operation op : Operation.values()) {
+      weights.put(op, 0);
+    }
+    for (String entry : mix.split(",")) {
+      if (entry.trim().isEmpty()) {
+        continue;
+      }
+      String[] pair = entry.split(":");
+      Operation op = Operation.fromName(pair[0].trim());
+      if (op == null || op.getRole() == null || pair.length != 2) {
+        throw new IllegalArgumentException("Not an operation of the mix: " + entry);
+      }
+      try {
+        int weight = Integer.parseInt(pair[1].trim());
+        if (weight < 0) {
+          throw new IllegalArgumentException("Weight must not be negative: " + entry);
+        }
+        weights.put(op, weight);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Weight is not a number: " + entry, e);
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * Runs the simulation and waits for it to finish
+   *
+   * @return the report of the run
+   * @throws InterruptedException if interrupted while waiting, the run is stopped
+   */
+  public Report run() throws InterruptedException {
+    List<Actor> actors = new ArrayList<Actor>();
+    for (int i = 0; i < individuals; i++) {
+      actors.add(new Individual());
+    }
+    for (int i = 0; i < caterers; i++) {
+      actors.add(new Caterer(i));
+    }
+    for (int i = 0; i < supermarkets; i++) {
+      actors.add(new Supermarket(i));
+    }
+
+    pool = new ScheduledThreadPoolExecutor(threads, r -> {
+      Thread t = new Thread(r, "load-generator");
+      t.setDaemon(true);
+      return t;
+    });
+    finished = new CountDownLatch(actors.size());
+    nextSupermarketOrder.set(1000000 + ThreadLocalRandom.current().nextInt(1000000000));
+
+    Clock previousClock = ClientClock.get();
+    SimulatedClock clock = null;
+    if (simulatedWeekMillis > 0) {
+      clock = new SimulatedClock();
+      ClientClock.set(clock);
+      SimulatedClock c = clock;
+      pool.scheduleAtFixedRate(() -> c.advance(WEEK), simulatedWeekMillis, simulatedWeekMillis,
+          TimeUnit.MILLISECONDS);
+    }
+
+    long start = System.nanoTime();
+    deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    Instant simulatedStart = ClientClock.get().instant();
+    try {
+      for (Actor actor : actors) {
+        long delay = rampUpMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(rampUpMillis);
+        pool.schedule(actor, delay, TimeUnit.MILLISECONDS);
+      }
+      // Actors stop at the deadline once their operation in flight has finished
+      finished.await();
+    } finally {
+      pool.shutdownNow();
+      ClientClock.set(previousClock);
+    }
+    long simulatedDays = clock == null ? 0 : Duration.between(simulatedStart, clock.instant()).toDays();
+    return new Report(stats, System.nanoTime() - start, simulatedDays);
+  }
+
+  // Measures one call and records its outcome
+  private ErrorCode measure(Operation op, Call call) {
+    long start = System.nanoTime();
+    ErrorCode code = null;
+    try {
+      code = call.run();
+    } catch (RuntimeException e) {
+      ClientLog.get().log(ErrorCode.IO_ERROR, op.getName() + " threw", e);
+    } finally {
+      stats.get(op).record(System.nanoTime() - start, code);
+    }
+    return code;
+  }
+
+  private Operation pick(Role role) {
+    int total = 0;
+    for (Map.Entry<Operation, Integer> e : mix.entrySet()) {
+      if (e.getKey().getRole() == role) {
+        total += e.getValue();
+      }
+    }
+    if (total == 0) {
+      return null;
+    }
+    int n = ThreadLocalRandom.current().nextInt(total);
+    for (Map.Entry<Operation, Integer> e : mix.entrySet()) {
+      if (e.getKey().getRole() == role) {
+        n -= e.getValue();
+        if (n < 0) {
+          return e.getKey();
+        }
+      }
+    }
+    return null;
+  }
+
+  private long thinkTime() {
+    if (thinkTimeMillis == 0) {
+      return 0;
+    }
+    return (long) (-thinkTimeMillis * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+  }
+
+  private static String randomCHI() {
+    ThreadLocalRandom rand = ThreadLocalRandom.current();
+    while (true) {
+      // Days up to 28 are valid in every month
+      String chi = String.format("%02d%02d%02d%03d", 1 + rand.nextInt(28), 1 + rand.nextInt(12),
+          rand.nextInt(100), rand.nextInt(1000));
+      int weightedSum = 0;
+      for (int i = 0; i < 9; i++) {
+        weightedSum += (chi.charAt(i) - '0') * (10 - i);
+      }
+      int checkDigit = (11 - weightedSum % 11) % 11;
+      if (checkDigit < 10) {
+        return chi + checkDigit;
+      }
+    }
+  }
+
+  private static String randomPostcode() {
+    ThreadLocalRandom rand = ThreadLocalRandom.current();
+    return "EH" + (1 + rand.nextInt(17)) + "_" + (1 + rand.nextInt(9)) + (char) ('A' + rand.nextInt(26))
+        + (char) ('A' + rand.nextInt(26));
+  }
+
+  // Simulated user, runs one step at a time on the pool
+  private abstract class Actor implements Runnable {
+    private boolean started;
+
+    @Override
+    public void run() {
+      if (System.nanoTime() - deadline >= 0 || pool.isShutdown()) {
+        finished.countDown();
+        return;
+      }
+      if (!started) {
+        started = start();
+      } else {
+        step();
+      }
+      try {
+        pool.schedule(this, thinkTime(), TimeUnit.MILLISECONDS);
+      } catch (RuntimeException e) {
+        // The pool was shut down
+        finished.countDown();
+      }
+    }
+
+    // Registers, returns true once the actor can do the operations of its role
+    abstract boolean start();
+
+    abstract void step();
+  }
+
+  private final class Individual extends Actor {
+    private final ShieldingIndividualClientImp client = new ShieldingIndividualClientImp(endpoint);
+    private final String chi = randomCHI();
+    private boolean registered;
+
+    @Override
+    boolean start() {
+      if (!registered) {
+        registered = measure(Operation.REGISTER, () -> client.tryRegisterShieldingIndividual(chi).getCode())
+            == ErrorCode.OK;
+        if (registered) {
+          synchronized (registeredCHIs) {
+            registeredCHIs.add(chi);
+          }
+        }
+        return false;
+      }
+      return measure(Operation.CLOSEST_CATERER, () ->
+          client.getClosestCateringCompany() == null ? ErrorCode.SERVER_REJECTED : ErrorCode.OK) == ErrorCode.OK;
+    }
+
+    @Override
+    void step() {
+      Operation op = pick(Role.INDIVIDUAL);
+      if (op == Operation.SHOW_FOOD_BOXES) {
+        String diet = DIETS[ThreadLocalRandom.current().nextInt(DIETS.length)];
+        measure(op, () -> client.tryShowFoodBoxes(diet).getCode());
+      } else if (op == Operation.PICK_FOOD_BOX) {
+        measure(op, this::pickAndModify);
+      } else if (op == Operation.PLACE_ORDER) {
+        measure(op, () -> {
+          Result<Integer> placed = client.tryPlaceOrder();
+          if (placed.isOk() && placed.getValue() != null) {
+            placedOrders.add(new int[] {placed.getValue(), 0});
+          }
+          return placed.getCode();
+        });
+      } else if (op == Operation.ORDER_STATUS) {
+        List<Integer> orders = new ArrayList<Integer>(client.getOrderNumbers());
+        if (!orders.isEmpty()) {
+          int order = orders.get(ThreadLocalRandom.current().nextInt(orders.size()));
+          measure(op, () -> client.tryRequestOrderStatus(order).getCode());
+        }
+      }
+    }
+
+    // Picks a box and takes one off an item, as a user editing a box would
+    private ErrorCode pickAndModify() {
+      int boxes = client.getFoodBoxNumber();
+      if (boxes == 0) {
+        return ErrorCode.IO_ERROR;
+      }
+      int box = 1 + ThreadLocalRandom.current().nextInt(boxes);
+      if (!client.pickFoodBox(box)) {
+        return ErrorCode.IO_ERROR;
+      }
+      List<Integer> items = new ArrayList<Integer>(client.getItemIdsForFoodBox(box));
+      if (items.isEmpty()) {
+        return ErrorCode.OK;
+      }
+      int item = items.get(ThreadLocalRandom.current().nextInt(items.size()));
+      int quantity = client.getItemQuantityForFoodBox(item, box);
+      return quantity == 0 ? ErrorCode.OK
+          : client.tryChangeItemQuantityForPickedFoodBox(item, quantity - 1).getCode();
+    }
+  }
+
+  private final class Caterer extends Actor {
+    private final CateringCompanyClientImp client = new CateringCompanyClientImp(endpoint);
+    private final String name;
+    // Orders this company moves on, the client checks transitions against what it set
+    private final Queue<int[]> orders = new ConcurrentLinkedQueue<int[]>();
+
+    Caterer(int i) {
+      this.name = "load-caterer-" + runId + "-" + i;
+    }
+
+    @Override
+    boolean start() {
+      return measure(Operation.REGISTER,
+          () -> client.tryRegisterCateringCompany(name, randomPostcode()).getCode()) == ErrorCode.OK;
+    }
+
+    @Override
+    void step() {
+      if (pick(Role.CATERER) == Operation.CATERER_UPDATE) {
+        int[] order = orders.poll();
+        if (order == null) {
+          order = placedOrders.poll();
+        }
+        if (order != null) {
+          int[] o = order;
+          ErrorCode code = measure(Operation.CATERER_UPDATE,
+              () -> client.tryUpdateOrderStatus(o[0], LIFECYCLE[o[1]]).getCode());
+          if (code == ErrorCode.OK && ++o[1] < LIFECYCLE.length) {
+            orders.add(o);
+          }
+        }
+      }
+    }
+  }
+
+  private final class Supermarket extends Actor {
+    private final SupermarketClientImp client = new SupermarketClientImp(endpoint);
+    private final String name;
+    private final Queue<int[]> orders = new ConcurrentLinkedQueue<int[]>();
+
+    Supermarket(int i) {
+      this.name = "load-supermarket-" + runId + "-" + i;
+    }
+
+    @Override
+    boolean start() {
+      return measure(Operation.REGISTER,
+          () -> client.tryRegisterSupermarket(name, randomPostcode()).getCode()) == ErrorCode.OK;
+    }
+
+    @Override
+    void step() {
+      Operation op = pick(Role.SUPERMARKET);
+      if (op == Operation.SUPERMARKET_ORDER) {
+        String chi;
+        synchronized (registeredCHIs) {
+          if (registeredCHIs.isEmpty()) {
+            return;
+          }
+          chi = registeredCHIs.get(ThreadLocalRandom.current().nextInt(registeredCHIs.size()));
+        }
+        int order = nextSupermarketOrder.getAndIncrement();
+        if (measure(op, () -> client.tryRecordSupermarketOrder(chi, order).getCode()) == ErrorCode.OK) {
+          orders.add(new int[] {order, 0});
+        }
+      } else if (op == Operation.SUPERMARKET_UPDATE) {
+        int[] order = orders.poll();
+        if (order != null) {
+          ErrorCode code = measure(op, () -> client.tryUpdateOrderStatus(order[0], LIFECYCLE[order[1]]).getCode());
+          if (code == ErrorCode.OK && ++order[1] < LIFECYCLE.length) {
+            orders.add(order);
+          }
+        }
+      }
+    }
+  }
+}
@@ -1,13 +1,67 @@
 /*
  * main program
  *
+ * Generates load on the server configured in client.cfg and prints the
+ * throughput, error rates and latency percentiles of every operation:
+ *
+ *   java shield.Main [settings file] [key=value ...]
+ *
+ * Settings are read from client.cfg, then from the settings file, then from
+ * the key=value arguments, e.g. individuals=500 durationSeconds=60. See
+ * LoadGenerator for the settings; endpoint selects the server and verbose=true
+ * logs every failed operation instead of only counting it.
+ *
  */
 
 package shield;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
 public class Main {
-  public static void main(String[] args) {
-    System.out.println("running!");
-    return;
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Properties settings = new Properties();
+    try (InputStream in = Main.class.getClassLoader().getResourceAsStream(ClientIO.CONFIG_FILENAME)) {
+      if (in != null) {
+        settings.load(in);
+      }
+    }
+
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq > 0) {
+        settings.setProperty(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+      } else {
+        try (Reader in = Files.newBufferedReader(Paths.get(arg), StandardCharsets.UTF_8)) {
+          settings.load(in);
+        }
+      }
+    }
+
+    String endpoint = settings.getProperty("endpoint");
+    if (endpoint == null) {
+      System.err.println("usage: java shield.Main [settings file] [key=value ...], endpoint is not set");
+      System.exit(2);
+    }
+    if (!Boolean.parseBoolean(settings.getProperty("verbose"))) {
+      // Failures are counted in the report
+      ClientLog.setLogger((code, message, cause) -> {});
+    }
+
+    LoadGenerator generator;
+    try {
+      generator = new LoadGenerator(endpoint, settings);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(2);
+      return;
+    }
+    System.out.println("Generating load on " + endpoint);
+    System.out.print(generator.run());
   }
 }
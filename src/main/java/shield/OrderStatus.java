@@ -0,0 +1,128 @@
+/**
+ * Lifecycle of an order.
+ *
+ * The ordinal of each status is the code /requestStatus returns for it, so a code
+ * read from the server maps straight to a status and a status is stored as a
+ * small integer. The transition table lists the status changes the server
+ * accepts, letting the clients reject an illegal change without a request:
+ *
+ *   placed -> packed -> dispatched -> delivered
+ *   placed, packed -> cancelled
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+public enum OrderStatus {
+  PLACED("placed"),
+  PACKED("packed"),
+  DISPATCHED("dispatched"),
+  DELIVERED("delivered"),
+  CANCELLED("cancelled");
+
+  /**
+   * Code /requestStatus returns for an order the server does not know
+   */
+  public static final int NOT_FOUND_CODE = -1;
+
+  private static final OrderStatus[] VALUES = values();
+
+  // TRANSITIONS[from][to] is true if an order may go from one status to the other
+  private static final boolean[][] TRANSITIONS = new boolean[VALUES.length][VALUES.length];
+
+  static {
+    allow(PLACED, PACKED);
+    allow(PACKED, DISPATCHED);
+    allow(DISPATCHED, DELIVERED);
+    allow(PLACED, CANCELLED);
+    allow(PACKED, CANCELLED);
+  }
+
+  private final String name;
+
+  OrderStatus(String name) {
+    this.name = name;
+  }
+
+  private static void allow(OrderStatus from, OrderStatus to) {
+    TRANSITIONS[from.ordinal()][to.ordinal()] = true;
+  }
+
+  /**
+   * @return the name the server uses for the status
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the code the server uses for the status
+   */
+  public int getCode() {
+    return ordinal();
+  }
+
+  /**
+   * Returns true if an order with this status may move to the next one
+   *
+   * @param next the status to move to
+   * @return true if the transition is legal
+   */
+  public boolean canMoveTo(OrderStatus next) {
+    return TRANSITIONS[ordinal()][next.ordinal()];
+  }
+
+  /**
+   * @return true if an order with this status never changes again
+   */
+  public boolean isFinal() {
+    for (boolean allowed : TRANSITIONS[ordinal()]) {
+      if (allowed) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if some status may move to this one, i.e. a status update to it
+   * can be legal
+   *
+   * @return true if the status can be the target of an update
+   */
+  public boolean isReachable() {
+    for (boolean[] from : TRANSITIONS) {
+      if (from[ordinal()]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the status for a code returned by /requestStatus
+   *
+   * @param code the status code
+   * @return the status or null if the code is not a status, e.g. NOT_FOUND_CODE
+   */
+  public static OrderStatus fromCode(int code) {
+    return code >= 0 && code < VALUES.length ? VALUES[code] : null;
+  }
+
+  /**
+   * Returns the status with the name the server uses for it
+   *
+   * @param name the status name
+   * @return the status or null if the name is not a status
+   */
+  public static OrderStatus fromName(String name) {
+    for (OrderStatus s : VALUES) {
+      if (s.name.equals(name)) {
+        return s;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Watches the status of orders and tells subscribers when it changes.
+ *
+ * Where the server offers a long-poll endpoint, /awaitStatus, a subscription
+ * keeps one request open that the server answers as soon as the status differs
+ * from the last known one, or with the unchanged status once its timeout
+ * expires. A server without the endpoint answers the first long-poll with
+ * HTTP 404 or 405, after which every subscription to that server falls back to
+ * polling /requestStatus: the delay between polls starts at MIN_POLL_DELAY_MS,
+ * doubles every time the status is unchanged up to MAX_POLL_DELAY_MS, and goes
+ * back to the minimum after a change. Other failures of the first long-poll,
+ * e.g. a timeout or a 500, are retried after a delay.
+ *
+ * A subscription ends by itself once the order is delivered, cancelled or not
+ * found. All subscriptions share one scheduler and a pool of daemon threads.
+ * Long-poll requests are sent with ClientIO.doGETRequestAsync, so with a
+ * transport that sends them without blocking no thread of the pool waits for
+ * the server to answer.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public final class OrderStatusWatcher {
+  /**
+   * Receives the status of a watched order
+   */
+  public interface Listener {
+    /**
+     * Called with the status first seen and then with every change
+     *
+     * @param orderNumber the order number
+     * @param status the new status: placed, packed, dispatched, delivered,
+     *               cancelled or not found
+     */
+    void statusChanged(int orderNumber, String status);
+  }
+
+  /**
+   * Handle of a subscription
+   */
+  public static final class Subscription {
+    private final String endpoint;
+    private final int orderNumber;
+    private final Listener listener;
+    private volatile boolean cancelled = false;
+    private int lastStatus = UNKNOWN;
+    private long delay = MIN_POLL_DELAY_MS;
+
+    private Subscription(String endpoint, int orderNumber, Listener listener) {
+      this.endpoint = endpoint;
+      this.orderNumber = orderNumber;
+      this.listener = listener;
+    }
+
+    public int getOrderNumber() {
+      return orderNumber;
+    }
+
+    /**
+     * Stops the subscription, the listener is not called afterwards
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    /**
+     * @return true if the subscription was cancelled or the order reached a final status
+     */
+    public boolean isDone() {
+      return cancelled;
+    }
+  }
+
+  /**
+   * Delay before the first poll and after a change
+   */
+  public static final long MIN_POLL_DELAY_MS = 1000;
+
+  /**
+   * Longest delay between two polls of an unchanged order
+   */
+  public static final long MAX_POLL_DELAY_MS = 60000;
+
+  /**
+   * Time the server may hold a long-poll request before answering
+   */
+  public static final int LONG_POLL_TIMEOUT_S = 30;
+
+  private static final RequestTemplate AWAIT_STATUS =
+      RequestTemplate.compile("/awaitStatus", "order_id", "status", "timeout");
+  private static final RequestTemplate REQUEST_STATUS = RequestTemplate.compile("/requestStatus", "order_id");
+
+  // Status code of a subscription that has not heard from the server yet
+  private static final int UNKNOWN = -2;
+
+  // Whether each endpoint offers /awaitStatus, absent until first tried
+  private static final ConcurrentMap<String, Boolean> longPollSupport = new ConcurrentHashMap<String, Boolean>();
+
+  private static final ThreadFactory DAEMON = r -> {
+    Thread t = new Thread(r, "order-status-watcher");
+    t.setDaemon(true);
+    return t;
+  };
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(DAEMON);
+  private static final ExecutorService requests = Executors.newCachedThreadPool(DAEMON);
+
+  private OrderStatusWatcher() {}
+
+  /**
+   * Starts watching an order
+   *
+   * @param endpoint the server endpoint
+   * @param orderNumber the order number
+   * @param listener the listener told about the status
+   * @return the subscription
+   */
+  public static Subscription subscribe(String endpoint, int orderNumber, Listener listener) {
+    // Make sure parameters are valid
+    assert(endpoint != null && orderNumber > 0 && listener != null);
+
+    Subscription s = new Subscription(endpoint, orderNumber, listener);
+    requests.execute(() -> check(s));
+    return s;
+  }
+
+  /**
+   * Returns whether the endpoint is known to offer the long-poll endpoint
+   *
+   * @param endpoint the server endpoint
+   * @return true or false once tried, null before
+   */
+  public static Boolean supportsLongPoll(String endpoint) {
+    return longPollSupport.get(endpoint);
+  }
+
+  // Asks the server for the status once, then schedules the next check
+  private static void check(Subscription s) {
+    if (s.cancelled) {
+      return;
+    }
+
+    if (s.lastStatus != UNKNOWN && !Boolean.FALSE.equals(longPollSupport.get(s.endpoint))) {
+      // The server holds the request, so no thread waits for the answer. The
+      // answer is handled on the pool, also when the transport answers at once.
+      ClientIO.doGETRequestAsync(AWAIT_STATUS.url(s.endpoint, s.orderNumber, s.lastStatus, LONG_POLL_TIMEOUT_S))
+          .whenComplete((response, failure) -> requests.execute(() -> longPolled(s, response, failure)));
+      return;
+    }
+
+    try (ResponseBody response = ClientIO.doGETRequestBody(REQUEST_STATUS.url(s.endpoint, s.orderNumber))) {
+      update(s, response.parseInt());
+    } catch (Exception e) {
+      backOff(s);
+    }
+    next(s, false);
+  }
+
+  // Handles the answer to a long-poll request
+  private static void longPolled(Subscription s, String response, Throwable failure) {
+    if (failure instanceof CompletionException && failure.getCause() != null) {
+      failure = failure.getCause();
+    }
+    if (failure == null) {
+      longPollSupport.putIfAbsent(s.endpoint, Boolean.TRUE);
+      try {
+        update(s, ResponseBody.of(response).parseInt());
+      } catch (RuntimeException e) {
+        backOff(s);
+      }
+    } else if (isMissingEndpoint(failure) && !Boolean.TRUE.equals(longPollSupport.get(s.endpoint))) {
+      // The server does not offer long-poll, any other failure is retried later
+      longPollSupport.put(s.endpoint, Boolean.FALSE);
+      requests.execute(() -> check(s));
+      return;
+    } else {
+      backOff(s);
+    }
+    next(s, true);
+  }
+
+  // Whether the failure is the server answering that it has no such endpoint
+  private static boolean isMissingEndpoint(Throwable failure) {
+    String message = failure instanceof RuntimeException ? failure.getMessage() : null;
+    return message != null && (message.endsWith("HTTP code : 404") || message.endsWith("HTTP code : 405"));
+  }
+
+  // Schedules the next check of a subscription
+  private static void next(Subscription s, boolean longPoll) {
+    if (s.cancelled) {
+      return;
+    }
+    if (longPoll && Boolean.TRUE.equals(longPollSupport.get(s.endpoint)) && s.delay == MIN_POLL_DELAY_MS) {
+      // The server already waited for a change, ask again straight away
+      requests.execute(() -> check(s));
+    } else {
+      scheduler.schedule(() -> requests.execute(() -> check(s)), s.delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  // Tells the listener about a change and adapts the polling delay
+  private static void update(Subscription s, int status) {
+    if (status == s.lastStatus) {
+      s.delay = Math.min(s.delay * 2, MAX_POLL_DELAY_MS);
+      if (longPollSupport.getOrDefault(s.endpoint, Boolean.FALSE)) {
+        // A long-poll timing out is not a reason to wait
+        s.delay = MIN_POLL_DELAY_MS;
+      }
+      return;
+    }
+
+    s.lastStatus = status;
+    s.delay = MIN_POLL_DELAY_MS;
+    OrderStatus known = OrderStatus.fromCode(status);
+    if (known == null && status != OrderStatus.NOT_FOUND_CODE) {
+      return;
+    }
+
+    // Delivered, cancelled and unknown orders do not change any more
+    if (known == null || known.isFinal()) {
+      s.cancelled = true;
+    }
+    s.listener.statusChanged(s.orderNumber, known == null ? "not found" : known.getName());
+  }
+
+  // Waits longer before retrying a server that did not answer
+  private static void backOff(Subscription s) {
+    s.delay = Math.min(s.delay * 2, MAX_POLL_DELAY_MS);
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Table of the mutating requests of a client whose outcome is not known yet.
+ *
+ * Every logical operation (placing this week's order, recording a supermarket
+ * order, ...) gets a client generated idempotency key, sent as the
+ * idempotency_key parameter of every attempt. A server honouring the key answers
+ * a repeated request with the response of the first one instead of performing it
+ * again, so a request that timed out can be retried without creating a
+ * duplicate.
+ *
+ * Attempts are spaced by a backoff that doubles up to MAX_BACKOFF_MILLIS, with
+ * a random jitter so clients that lost the network together do not retry in
+ * lockstep.
+ *
+ * An entry stays in the table until its request gets a definite answer. When no
+ * attempt gets one, the outcome is unknown and the caller reconciles it where it
+ * can, e.g. against /requestStatus for an order number it already knows.
+ * Retrying the same operation later reuses the entry, so the original request
+ * is sent again with the original key.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class OutstandingRequests {
+  /**
+   * Name of the request parameter carrying the idempotency key
+   */
+  public static final String KEY_PARAM = "idempotency_key";
+
+  /**
+   * Number of times a request is sent before giving up on a call to send
+   */
+  public static final int MAX_ATTEMPTS = 3;
+
+  /**
+   * Delay before the second attempt, doubled for every further attempt
+   */
+  public static final long BACKOFF_MILLIS = 50;
+
+  /**
+   * Largest delay between two attempts
+   */
+  public static final long MAX_BACKOFF_MILLIS = 1000;
+
+  /**
+   * A mutating request waiting for a definite answer
+   */
+  public static final class Entry {
+    private final String operation;
+    private final String key;
+    private final String request;
+    private final String data;
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private Entry(String operation, String key, String request, String data) {
+      this.operation = operation;
+      this.key = key;
+      this.request = request;
+      this.data = data;
+    }
+
+    public String getOperation() {
+      return operation;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public String getRequest() {
+      return request;
+    }
+
+    /**
+     * @return the data posted with the request or null for a GET request
+     */
+    public String getData() {
+      return data;
+    }
+
+    /**
+     * @return the number of times the request has been sent so far
+     */
+    public int getAttempts() {
+      return attempts.get();
+    }
+  }
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  /**
+   * Returns the entry of an operation, creating it with a new idempotency key if
+   * the operation is not outstanding. An outstanding operation keeps its original
+   * request and data, so retrying it never sends something the server may have
+   * already performed under a different body.
+   *
+   * @param operation name identifying the logical operation
+   * @param request the request path and parameters, without the endpoint
+   * @param data the data to post or null for a GET request
+   * @return the entry of the operation
+   */
+  public Entry begin(String operation, String request, String data) {
+    // Make sure parameters are not null
+    assert(operation != null && request != null);
+
+    return entries.computeIfAbsent(operation,
+        op -> new Entry(op, UUID.randomUUID().toString(), request, data));
+  }
+
+  /**
+   * Returns the entry of an outstanding operation
+   *
+   * @param operation name identifying the logical operation
+   * @return the entry or null if the operation is not outstanding
+   */
+  public Entry get(String operation) {
+    return entries.get(operation);
+  }
+
+  /**
+   * Sends the request of an entry, retrying up to MAX_ATTEMPTS times with the same
+   * idempotency key and a backoff when no answer is received. The entry stays
+   * outstanding until complete is called.
+   *
+   * @param endpoint the server endpoint
+   * @param entry the entry to send
+   * @return the server's response
+   * @throws IOException if no attempt got an answer, the outcome is then unknown
+   */
+  public String send(String endpoint, Entry entry) throws IOException {
+    String url = endpoint + withKey(entry.request, entry.key);
+    IOException last = null;
+
+    for (int i = 0; i < MAX_ATTEMPTS; i++) {
+      if (i > 0) {
+        backoff(i);
+      }
+      entry.attempts.incrementAndGet();
+      try {
+        if (entry.data == null) {
+          return ClientIO.doGETRequest(url);
+        }
+        return ClientIO.doPOSTRequest(url, entry.data);
+      } catch (IOException e) {
+        last = e;
+      }
+    }
+    throw last;
+  }
+
+  // Waits between half and all of the delay before the given retry
+  private static void backoff(int retry) throws InterruptedIOException {
+    long delay = Math.min(MAX_BACKOFF_MILLIS, BACKOFF_MILLIS << Math.min(retry - 1, 20));
+    try {
+      Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry");
+    }
+  }
+
+  /**
+   * Removes an entry once its request got a definite answer
+   *
+   * @param entry the entry to remove
+   */
+  public void complete(Entry entry) {
+    entries.remove(entry.operation, entry);
+  }
+
+  /**
+   * @return the entries still waiting for a definite answer
+   */
+  public Collection<Entry> pending() {
+    return new ArrayList<Entry>(entries.values());
+  }
+
+  /**
+   * @return the number of entries still waiting for a definite answer
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Appends the idempotency key to a request
+   *
+   * @param request the request path and parameters
+   * @param key the idempotency key
+   * @return the request carrying the key
+   */
+  static String withKey(String request, String key) {
+    return request + (request.indexOf('?') < 0 ? '?' : '&') + KEY_PARAM + "=" + key;
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Precompiled request to a server endpoint.
+ *
+ * A template is compiled once from the endpoint path and its parameter names,
+ * keeping the literal parts ("/placeOrder?individual_id=", "&catering_postcode=",
+ * ...) ready to copy. Expanding it writes the base URL, the literal parts and the
+ * parameter values into a builder reused by the calling thread, percent-encoding
+ * the values in the same pass, so a business name with spaces or an ampersand
+ * reaches the server intact. Values made of unreserved characters only (digits,
+ * CHI numbers, EH1_1AB postcodes) are copied as they are.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+public final class RequestTemplate {
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  // Builder reused by each thread, trimmed back if a request made it grow large
+  private static final int BUILDER_CAPACITY = 256;
+  private static final ThreadLocal<StringBuilder> BUILDER =
+      ThreadLocal.withInitial(() -> new StringBuilder(BUILDER_CAPACITY));
+
+  private final String path;
+  // parts[i] is the literal text in front of value i
+  private final String[] parts;
+
+  private RequestTemplate(String path, String[] parts) {
+    this.path = path;
+    this.parts = parts;
+  }
+
+  /**
+   * Compiles the template of an endpoint
+   *
+   * @param path the endpoint path, e.g. /placeOrder
+   * @param params the names of the query parameters in the order their values are given
+   * @return the template
+   */
+  public static RequestTemplate compile(String path, String... params) {
+    // Make sure parameters are valid
+    assert(path != null && path.startsWith("/"));
+
+    String[] parts = new String[params.length];
+    for (int i = 0; i < params.length; i++) {
+      StringBuilder part = new StringBuilder();
+      part.append(i == 0 ? '?' : '&');
+      encode(params[i], part);
+      part.append('=');
+      parts[i] = part.toString();
+    }
+    return new RequestTemplate(path, parts);
+  }
+
+  /**
+   * Parses the server endpoint of a client once, so requests only append to it.
+   * A trailing slash is dropped, as every template path starts with one.
+   *
+   * @param endpoint the server endpoint, e.g. http://localhost:5000/
+   * @return the normalised endpoint, or the endpoint as given if it is not a URI
+   */
+  public static String parseBase(String endpoint) {
+    try {
+      String base = URI.create(endpoint).normalize().toString();
+      return base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+    } catch (IllegalArgumentException | NullPointerException e) {
+      // Leave it to the request to report the bad endpoint
+      return endpoint;
+    }
+  }
+
+  /**
+   * @return the endpoint path of the template
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Returns the request path and query, without the server endpoint
+   *
+   * @param values the parameter values, in the order of the compiled names
+   * @return the encoded request
+   */
+  public String expand(Object... values) {
+    return url("", values);
+  }
+
+  /**
+   * Returns the full URL of the request
+   *
+   * @param base the server endpoint, e.g. http://localhost:5000
+   * @param values the parameter values, in the order of the compiled names
+   * @return the encoded URL
+   */
+  public String url(String base, Object... values) {
+    // Make sure parameters are valid
+    assert(values.length == parts.length);
+
+    StringBuilder sb = BUILDER.get();
+    sb.setLength(0);
+    sb.append(base).append(path);
+    for (int i = 0; i < parts.length; i++) {
+      sb.append(parts[i]);
+      Object value = values[i];
+      if (value instanceof Integer) {
+        sb.append((int) (Integer) value);
+      } else {
+        encode(String.valueOf(value), sb);
+      }
+    }
+
+    String url = sb.toString();
+    if (sb.capacity() > 4 * BUILDER_CAPACITY) {
+      BUILDER.remove();
+    }
+    return url;
+  }
+
+  /**
+   * Percent-encodes a query value, keeping the unreserved characters of RFC 3986
+   *
+   * @param value the value to encode
+   * @param out the builder the encoded value is appended to
+   */
+  static void encode(String value, StringBuilder out) {
+    int n = value.length();
+    for (int i = 0; i < n; i++) {
+      char c = value.charAt(i);
+      if (isUnreserved(c)) {
+        out.append(c);
+      } else if (c < 0x80) {
+        appendEscaped(c, out);
+      } else {
+        // Encode the rest as UTF-8, this is the uncommon case
+        for (byte b : value.substring(i).getBytes(StandardCharsets.UTF_8)) {
+          int u = b & 0xFF;
+          if (u < 0x80 && isUnreserved((char) u)) {
+            out.append((char) u);
+          } else {
+            appendEscaped(u, out);
+          }
+        }
+        return;
+      }
+    }
+  }
+
+  private static boolean isUnreserved(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+        || c == '-' || c == '_' || c == '.' || c == '~';
+  }
+
+  private static void appendEscaped(int b, StringBuilder out) {
+    out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+  }
+}
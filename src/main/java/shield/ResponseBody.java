@@ -0,0 +1,364 @@
+/**
+ * Body of a server response held as bytes in a pooled buffer.
+ *
+ * Most responses are tiny ("True", an order number, a distance), so they are read
+ * into buffers taken from a shared pool rather than decoded into a String first.
+ * Scalars are parsed straight from the bytes, and JSON bodies are handed to the
+ * decoder through reader(), which reads the same buffer. A body must be closed
+ * once it is no longer needed so its buffer goes back to the pool; bodies are
+ * meant to be used with try-with-resources.
+ *
+ * Bodies are UTF-8, the encoding of the JSON the server sends.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public final class ResponseBody implements AutoCloseable {
+  // Buffers start small enough for any scalar and most catalogs, bigger ones are not kept
+  static final int BUFFER_SIZE = 4096;
+  static final int MAX_POOLED_SIZE = 64 * 1024;
+  static final int POOL_SIZE = 32;
+
+  private static final BlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<ByteBuffer>(POOL_SIZE);
+
+  private static final byte[] TRUE = "True".getBytes(StandardCharsets.US_ASCII);
+
+  // Numbers with more digits than a double holds exactly are left to Float.parseFloat
+  private static final int MAX_FAST_DIGITS = 15;
+  private static final double[] POWERS_OF_TEN = new double[MAX_FAST_DIGITS + 1];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i <= MAX_FAST_DIGITS; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private ByteBuffer buffer;
+  private final boolean pooled;
+  private final String contentType;
+
+  private ResponseBody(ByteBuffer buffer, boolean pooled, String contentType) {
+    this.buffer = buffer;
+    this.pooled = pooled;
+    this.contentType = contentType;
+  }
+
+  /**
+   * Reads a response into a pooled buffer and closes the stream
+   *
+   * @param in the response stream
+   * @return the response body
+   * @throws IOException the stream could not be read
+   */
+  public static ResponseBody read(InputStream in) throws IOException {
+    return read(in, null);
+  }
+
+  /**
+   * Reads a response into a pooled buffer and closes the stream
+   *
+   * @param in the response stream
+   * @param contentType the Content-Type header of the response, or null if there is none
+   * @return the response body
+   * @throws IOException the stream could not be read
+   */
+  public static ResponseBody read(InputStream in, String contentType) throws IOException {
+    // Make sure parameters are not null
+    assert(in != null);
+
+    ByteBuffer buffer = acquire();
+    try (InputStream stream = in) {
+      int n;
+      while ((n = stream.read(buffer.array(), buffer.position(), buffer.remaining())) >= 0) {
+        buffer.position(buffer.position() + n);
+        if (!buffer.hasRemaining()) {
+          buffer = grow(buffer);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      release(buffer);
+      throw e;
+    }
+    buffer.flip();
+    return new ResponseBody(buffer, true, contentType);
+  }
+
+  /**
+   * Wraps a response that was already read as a String, e.g. by a transport
+   * that does not read bytes itself
+   *
+   * @param response the response
+   * @return the response body
+   */
+  public static ResponseBody of(String response) {
+    // Make sure parameters are not null
+    assert(response != null);
+
+    return new ResponseBody(ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8)), false, null);
+  }
+
+  /**
+   * Copies a response into a pooled buffer, e.g. to hand a response read once
+   * to several callers
+   *
+   * @param bytes the response
+   * @param contentType the Content-Type header of the response, or null if there is none
+   * @return the response body
+   */
+  public static ResponseBody copyOf(byte[] bytes, String contentType) {
+    // Make sure parameters are not null
+    assert(bytes != null);
+
+    ByteBuffer buffer = acquire();
+    if (buffer.capacity() < bytes.length) {
+      release(buffer);
+      buffer = ByteBuffer.allocate(bytes.length);
+    }
+    buffer.put(bytes);
+    buffer.flip();
+    return new ResponseBody(buffer, true, contentType);
+  }
+
+  /**
+   * @return the Content-Type header of the response, or null if it is not known
+   */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * @return true if the response uses the binary encoding of BinaryCodec
+   */
+  public boolean isBinary() {
+    return BinaryCodec.isBinary(contentType);
+  }
+
+  /**
+   * Returns the bytes of the body for decoders that read them directly. The
+   * view shares the pooled buffer, so it must not be written to and is only
+   * valid until the body is closed.
+   *
+   * @return view of the body
+   */
+  public ByteBuffer bytes() {
+    return buffer().duplicate();
+  }
+
+  /**
+   * @return the number of bytes in the body
+   */
+  public int length() {
+    return buffer().remaining();
+  }
+
+  /**
+   * Returns true if the body is the server's True reply
+   *
+   * @return true if the body is True, ignoring surrounding whitespace
+   */
+  public boolean isTrue() {
+    ByteBuffer b = buffer();
+    int start = skipSpace(b);
+    int end = trimSpace(b, start);
+    if (end - start != TRUE.length) {
+      return false;
+    }
+    for (int i = 0; i < TRUE.length; i++) {
+      if (b.get(start + i) != TRUE[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the body as a decimal integer, e.g. an order number or status code
+   *
+   * @return the integer
+   * @throws NumberFormatException the body is not an integer
+   */
+  public int parseInt() {
+    ByteBuffer b = buffer();
+    int start = skipSpace(b);
+    int end = trimSpace(b, start);
+    int i = start;
+    boolean negative = false;
+    if (i < end && (b.get(i) == '-' || b.get(i) == '+')) {
+      negative = b.get(i) == '-';
+      i++;
+    }
+    if (i == end) {
+      throw new NumberFormatException("Not an integer: \"" + this + "\"");
+    }
+
+    // Accumulated negatively so Integer.MIN_VALUE parses too
+    int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+    int value = 0;
+    for (; i < end; i++) {
+      int digit = b.get(i) - '0';
+      if (digit < 0 || digit > 9 || value < limit / 10 || value * 10 < limit + digit) {
+        throw new NumberFormatException("Not an integer: \"" + this + "\"");
+      }
+      value = value * 10 - digit;
+    }
+    return negative ? value : -value;
+  }
+
+  /**
+   * Parses the body as a decimal number, e.g. a distance. Plain numbers such as
+   * 1.2345 are parsed from the bytes, others fall back to Float.parseFloat.
+   *
+   * @return the number
+   * @throws NumberFormatException the body is not a number
+   */
+  public float parseFloat() {
+    ByteBuffer b = buffer();
+    int start = skipSpace(b);
+    int end = trimSpace(b, start);
+    int i = start;
+    boolean negative = false;
+    if (i < end && (b.get(i) == '-' || b.get(i) == '+')) {
+      negative = b.get(i) == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = -1;
+    for (; i < end; i++) {
+      byte c = b.get(i);
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        digits++;
+        if (fractionDigits >= 0) {
+          fractionDigits++;
+        }
+      } else if (c == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
+      } else {
+        break;
+      }
+    }
+
+    if (i < end || digits == 0 || digits > MAX_FAST_DIGITS) {
+      // Exponents, very long numbers and anything invalid
+      return Float.parseFloat(toString());
+    }
+    double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+    return (float) (negative ? -value : value);
+  }
+
+  /**
+   * Returns a reader over the body, to pass to a JSON decoder without building
+   * a String from the body first. The reader is valid until the body is closed.
+   *
+   * @return reader decoding the body as UTF-8
+   */
+  public Reader reader() {
+    ByteBuffer b = buffer();
+    return new InputStreamReader(
+        new ByteArrayInputStream(b.array(), b.arrayOffset() + b.position(), b.remaining()),
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decodes the body as a String. Line breaks are dropped, as the transports
+   * always did when reading a response line by line.
+   *
+   * @return the body
+   */
+  @Override
+  public String toString() {
+    ByteBuffer b = buffer();
+    String body = new String(b.array(), b.arrayOffset() + b.position(), b.remaining(), StandardCharsets.UTF_8);
+    if (body.indexOf('\n') >= 0 || body.indexOf('\r') >= 0) {
+      body = body.replace("\r", "").replace("\n", "");
+    }
+    return body;
+  }
+
+  /**
+   * Returns the buffer to the pool, the body cannot be used afterwards
+   */
+  @Override
+  public void close() {
+    ByteBuffer b = buffer;
+    buffer = null;
+    if (b != null && pooled) {
+      release(b);
+    }
+  }
+
+  /**
+   * @return the number of buffers waiting in the pool
+   */
+  static int pooledCount() {
+    return POOL.size();
+  }
+
+  private ByteBuffer buffer() {
+    ByteBuffer b = buffer;
+    if (b == null) {
+      throw new IllegalStateException("Response body already closed");
+    }
+    return b;
+  }
+
+  private static ByteBuffer acquire() {
+    ByteBuffer b = POOL.poll();
+    if (b == null) {
+      b = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+    b.clear();
+    return b;
+  }
+
+  private static void release(ByteBuffer b) {
+    if (b.capacity() <= MAX_POOLED_SIZE) {
+      // Dropped when the pool is full
+      POOL.offer(b);
+    }
+  }
+
+  private static ByteBuffer grow(ByteBuffer b) {
+    ByteBuffer bigger = ByteBuffer.allocate(b.capacity() * 2);
+    b.flip();
+    bigger.put(b);
+    release(b);
+    return bigger;
+  }
+
+  private static int skipSpace(ByteBuffer b) {
+    int i = b.position();
+    while (i < b.limit() && isSpace(b.get(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int trimSpace(ByteBuffer b, int start) {
+    int end = b.limit();
+    while (end > start && isSpace(b.get(end - 1))) {
+      end--;
+    }
+    return end;
+  }
+
+  private static boolean isSpace(byte c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+}
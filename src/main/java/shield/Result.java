@@ -0,0 +1,85 @@
+/**
+ * Outcome of a client operation: either a value or an error code with a message.
+ *
+ * The boolean methods of the client interfaces are thin wrappers around the
+ * operations returning a Result, so callers that need to know why an operation
+ * failed can call those instead of parsing the log.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+public final class Result<T> {
+
+  private static final Result<Void> OK = new Result<Void>(ErrorCode.OK, null, null);
+
+  private final ErrorCode code;
+  private final String message;
+  private final T value;
+
+  private Result(ErrorCode code, String message, T value) {
+    this.code = code;
+    this.message = message;
+    this.value = value;
+  }
+
+  /**
+   * Returns a successful result without a value.
+   *
+   * @return the shared successful result
+   */
+  public static Result<Void> ok() {
+    return OK;
+  }
+
+  /**
+   * Returns a successful result holding the given value.
+   *
+   * @param value the value produced by the operation
+   * @return successful result
+   */
+  public static <T> Result<T> ok(T value) {
+    return new Result<T>(ErrorCode.OK, null, value);
+  }
+
+  /**
+   * Returns a failed result and hands it to the client logger.
+   *
+   * @param code the error code identifying the cause of the failure
+   * @param message the message that informs the user of the exact issue
+   * @return failed result
+   */
+  public static <T> Result<T> error(ErrorCode code, String message) {
+    return error(code, message, null);
+  }
+
+  /**
+   * Returns a failed result caused by an exception and hands it to the client logger.
+   *
+   * @param code the error code identifying the cause of the failure
+   * @param message the message that informs the user of the exact issue
+   * @param cause the exception that caused the failure, may be null
+   * @return failed result
+   */
+  public static <T> Result<T> error(ErrorCode code, String message, Throwable cause) {
+    assert(code != ErrorCode.OK);
+
+    ClientLog.get().log(code, message, cause);
+    return new Result<T>(code, message, null);
+  }
+
+  public boolean isOk() { return code == ErrorCode.OK; }
+
+  public ErrorCode getCode() { return code; }
+
+  public String getMessage() { return message; }
+
+  public T getValue() { return value; }
+
+  @Override
+  public String toString() {
+    return isOk() ? "OK(" + value + ")" : code + ": " + message;
+  }
+}
@@ -4,88 +4,191 @@ package shield;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Client for a shielding individual.
+ *
+ * The client can be used by several threads at once, e.g. the web and mobile
+ * sessions of the same individual. Instead of one lock for the whole client:
+ *  - the registration details and the chosen catering company are immutable
+ *    objects swapped atomically,
+ *  - the orders are kept in a copy-on-write list and each order is locked on its
+ *    own while its status or contents are checked and changed, so operations on
+ *    different orders do not wait for each other,
+ *  - the picked box is swapped atomically and locked on its own while changed,
+ *  - placing an order is serialised per client, so two sessions cannot both pass
+ *    the one order per week check.
+ */
 public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
-
-  private String endpoint;
-  private String CHI;
-  private Boolean registered = false;
-  private String postcode;
-  private String cater_name;
-  private String cater_postcode;
-  private List<MessagingFoodBox> food_Boxes;
-  private List<prevOrders> orders = new ArrayList<prevOrders>();
-  private MessagingFoodBox picked_Box;
-
-  // Internal field to store information about a food box
-  final class MessagingFoodBox {
-    List<boxContents> contents;
-    String delivered_by;
-    String diet;
-    String id;
-    String name;
-  }
-
-  // Internal field to store information about the contents of a food box
-  final class boxContents{
-    int id;
-    String name;
-    int quantity;
-  }
-
-  // Internal field to store information about a placed order
+  // Name of the outstanding operation placing this week's order
+  private static final String PLACE_ORDER = "placeOrder";
+
+  private static final RequestTemplate REGISTER = RequestTemplate.compile("/registerShieldingIndividual", "CHI");
+  private static final RequestTemplate PLACE = RequestTemplate.compile("/placeOrder",
+      "individual_id", "catering_business_name", "catering_postcode");
+  private static final RequestTemplate EDIT = RequestTemplate.compile("/editOrder", "order_id");
+  private static final RequestTemplate CANCEL = RequestTemplate.compile("/cancelOrder", "order_id");
+  private static final RequestTemplate REQUEST_STATUS = RequestTemplate.compile("/requestStatus", "order_id");
+  private static final RequestTemplate DISTANCE = RequestTemplate.compile("/distance", "postcode1", "postcode2");
+
+  private final String endpoint;
+  private volatile registration registered;
+  private volatile chosenCaterer cater;
+  private volatile FoodBoxCatalog catalog;
+  private volatile CatererRegistry caterers;
+  private final DistanceCache distances;
+  private final List<prevOrders> orders = new CopyOnWriteArrayList<prevOrders>();
+  private final AtomicReference<WorkingFoodBox> picked_Box = new AtomicReference<WorkingFoodBox>();
+  private final Object placeOrderLock = new Object();
+  private final OutstandingRequests outstanding = new OutstandingRequests();
+  // Copy of the box sent by the outstanding placeOrder request and the picked
+  // box it was copied from, guarded by placeOrderLock
+  private WorkingFoodBox pendingBox;
+  private WorkingFoodBox pendingPicked;
+  private volatile WriteBehindQueue writeBehind;
+  // Boxes of the orders waiting in the write-behind queue, by queue position
+  private final Map<Long, WorkingFoodBox> queuedBoxes = new ConcurrentHashMap<Long, WorkingFoodBox>();
+  private volatile boolean checkDigitRequired = false;
+
+  // Internal field to store information about a placed order, locked while
+  // its status or contents are checked and changed
   final class prevOrders{
-    Integer orderId;
-    String status;
-    MessagingFoodBox foodBox;
-    LocalDateTime datePlaced;
+    final int orderId;
+    final WorkingFoodBox foodBox;
+    final LocalDateTime datePlaced;
+    // Null once the server no longer knows the order
+    volatile OrderStatus status;
+
+    prevOrders(int orderId, WorkingFoodBox foodBox, LocalDateTime datePlaced) {
+      this.orderId = orderId;
+      this.foodBox = foodBox;
+      this.datePlaced = datePlaced;
+      this.status = OrderStatus.PLACED;
+    }
+  }
+
+  // Internal field to store the details of the registered individual
+  static final class registration{
+    final String CHI;
+    final String postcode;
+
+    registration(String CHI, String postcode) {
+      this.CHI = CHI;
+      this.postcode = postcode;
+    }
   }
 
-  public class CustomException extends Exception {
+  // Internal field to store the catering company orders are placed with
+  static final class chosenCaterer{
+    final String name;
+    final String postcode;
 
-    /**
-     * Custom exception to help identify the exact cause through the error message.
-     *
-     * @param message the message thrown that informs the user of the exact issue
-     */
-    public CustomException(String message) {
-      super(message);
+    chosenCaterer(String name, String postcode) {
+      this.name = name;
+      this.postcode = postcode;
     }
   }
 
   /**
-   * Sets endpoint for all the following Http requests and initialises food_Boxes so
-   * it can be used in subsequent functions such as getDietaryPreferenceForFoodBox.
+   * Sets endpoint for all the following Http requests. No request is made: the
+   * food box catalog is loaded on first use, e.g. by getFoodBoxNumber, or ahead of
+   * time with preload().
    *
    * @param endpoint
-   * @Exception if http request unsuccessful or
-   *            if unmarshal unsuccessful
    */
   public ShieldingIndividualClientImp(String endpoint) {
     // Make sure parameters are not null
     assert(!endpoint.equals(null));
 
-    this.endpoint = endpoint;
+    this.endpoint = RequestTemplate.parseBase(endpoint);
+    this.caterers = CatererRegistry.getShared(this.endpoint);
+    this.distances = DistanceCache.forEndpoint(this.endpoint);
+  }
 
-    // Construct the endpoint request
-    String request_foodBox = "/showFoodBox?orderOption=catering&dietaryPreference=";
+  /**
+   * Starts loading the food box catalog in the background, so the first call
+   * needing it does not wait. Clients of the same endpoint share one catalog and
+   * one download.
+   *
+   * @return future resolving to true once the catalog is loaded, or to false if
+   *         it could not be loaded
+   */
+  public CompletableFuture<Boolean> preload() {
+    FoodBoxCatalog c = catalog;
+    if (c != null) {
+      return CompletableFuture.completedFuture(true);
+    }
+    return FoodBoxCatalog.getSharedAsync(endpoint)
+        .thenApply(loaded -> {
+          useCatalog(loaded);
+          return true;
+        })
+        .exceptionally(e -> {
+          ClientLog.get().log(ErrorCode.IO_ERROR, "Could not load food boxes", e);
+          return false;
+        });
+  }
 
+  /**
+   * Returns the food box catalog, waiting for it to be loaded if needed
+   *
+   * @return result holding the catalog
+   * @ErrorCode IO_ERROR if the catalog could not be downloaded
+   */
+  private Result<FoodBoxCatalog> loadCatalog() {
+    FoodBoxCatalog c = catalog;
+    if (c != null) {
+      return Result.ok(c);
+    }
     try {
-      // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request_foodBox);
+      return Result.ok(useCatalog(FoodBoxCatalog.getShared(endpoint)));
+    } catch (Exception e) {
+      return Result.error(ErrorCode.IO_ERROR, "Could not load food boxes", e);
+    }
+  }
+
+  // Returns the catalog or null if it could not be loaded, the error is logged
+  private FoodBoxCatalog catalogOrNull() {
+    Result<FoodBoxCatalog> c = loadCatalog();
+    return c.isOk() ? c.getValue() : null;
+  }
 
-      // Unmarshal response
-      Type listType = new TypeToken<List<MessagingFoodBox>>() {} .getType();
-      this.food_Boxes = new Gson().fromJson(response, listType);
+  // Keeps a loaded shared catalog unless a refresh replaced it meanwhile
+  private FoodBoxCatalog useCatalog(FoodBoxCatalog loaded) {
+    FoodBoxCatalog c = catalog;
+    if (c == null) {
+      catalog = loaded;
+      return loaded;
+    }
+    return c;
+  }
+
+  /**
+   * Downloads the food box catalog again, replacing the one in use if successful.
+   * The downloaded catalog is also shared with the clients created from now on.
+   *
+   * @return result of the operation
+   * @ErrorCode IO_ERROR if http request unsuccessful or
+   *                     if unmarshal unsuccessful
+   */
+  public Result<Void> refreshCatalog() {
+    try {
+      this.catalog = FoodBoxCatalog.reloadShared(endpoint);
+      return Result.ok();
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Could not load food boxes", e);
     }
   }
 
@@ -99,67 +202,59 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    *
    * @param CHI CHI number of the shielding individual
    * @return true if the operation occurred correctly
-   * @CustomException if the CHI number if not 10 digits long
-   * @Exception if CHI does not consist of all numeric digits or
-   *            if CHI does not start with valid birth date or
-   *            if http request unsuccessful or
-   *            if unmarshal unsuccessful
    */
   @Override
   public boolean registerShieldingIndividual(String CHI) {
+    return tryRegisterShieldingIndividual(CHI).isOk();
+  }
+
+  /**
+   * Registers the shielding individual and returns the outcome of the operation.
+   *
+   * @param CHI CHI number of the shielding individual
+   * @return result of the operation
+   * @ErrorCode INVALID_CHI if the CHI number if not 10 digits long or
+   *                        if CHI does not consist of all numeric digits or
+   *                        if CHI does not start with valid birth date or
+   *                        if the check digit is wrong (when required)
+   *            SERVER_REJECTED if the server returned incomplete details
+   *            IO_ERROR if http request unsuccessful or
+   *                     if unmarshal unsuccessful
+   */
+  public Result<Void> tryRegisterShieldingIndividual(String CHI) {
     // Make sure parameters are not null
     assert(!CHI.equals(null));
 
     // Make sure CHI format is correct
-    // CHI has ten digits
-    if (CHI.length()!=10) {
-      try {
-        throw new CustomException("CHI must be ten numeric digits long and start with your date of birth");
-      } catch (CustomException e) {
-        e.printStackTrace();
-      }
-      return false;
-    }
-    // CHI has only numeric digits and starts with a date
-    try {
-      Long.parseLong(CHI);
-      DateTimeFormatter dtf = DateTimeFormatter.ofPattern("ddMMyy");
-      LocalDateTime individual = LocalDate.parse(CHI.substring(0,6), dtf).atStartOfDay();
-    } catch (Exception e) {
-      e.printStackTrace();
-      return false;
+    if (!ChiValidator.isValid(CHI, checkDigitRequired)) {
+      return Result.error(ErrorCode.INVALID_CHI, "CHI must be ten numeric digits long and start with your date of birth");
     }
 
-    // Construct the endpoint request
-    String request = "/registerShieldingIndividual?CHI=" + CHI;
-
     // Setup the response recipient
     List<String> responseInfo = new ArrayList<String>();
 
     try {
       // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
+      String response = ClientIO.doGETRequest(REGISTER.url(endpoint, CHI));
 
       if (response.equals("already registered")){
-        return true;
+        return Result.ok();
       } else {
         // Unmarshal response
         Type listType = new TypeToken<List<String>>() {} .getType();
         responseInfo = new Gson().fromJson(response, listType);
 
         if (responseInfo.size()==4){
-          this.registered = true;
-          this.CHI = CHI;
           // Replacing so format of postcode is compatible with getDistance
-          this.postcode = responseInfo.get(0).replace(" ", "_");
-          return true;
+          this.registered = new registration(CHI, responseInfo.get(0).replace(" ", "_"));
+          return Result.ok();
         }
       }
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Registration request failed", e);
     }
 
-    return false;
+    return Result.error(ErrorCode.SERVER_REJECTED, "Server returned incomplete details for the shielding individual");
   }
 
   /**
@@ -167,116 +262,227 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    *
    * @param  dietaryPreference (of individual)
    * @return collection of food box ids with corresponding dietary preference
-   * @Exception if http request unsuccessful or
-   *            if unmarshal unsuccessful
    */
   @Override
   public Collection<String> showFoodBoxes(String dietaryPreference) {
+    Result<Collection<String>> result = tryShowFoodBoxes(dietaryPreference);
+    return result.isOk() ? result.getValue() : new ArrayList<String>();
+  }
+
+  /**
+   * Returns collection of food box ids with the corresponding dietary preference.
+   *
+   * The ids are looked up in the catalog shared by the clients (or last
+   * refreshed), so no request is made once the catalog is loaded.
+   *
+   * @param  dietaryPreference (of individual)
+   * @return result holding the unmodifiable collection of food box ids
+   * @ErrorCode IO_ERROR if the catalog could not be downloaded
+   */
+  public Result<Collection<String>> tryShowFoodBoxes(String dietaryPreference) {
     // Make sure parameters are not null
     assert(!dietaryPreference.equals(null));
 
-    // Construct the endpoint request
-    String request = "/showFoodBox?orderOption=catering&dietaryPreference=" + dietaryPreference;
-
-    // Setup the response recipient
-    List<MessagingFoodBox> responseBoxes = new ArrayList<MessagingFoodBox>();
-
-    List<String> boxIds = new ArrayList<String>();
-
-    try {
-      // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
-
-      // Unmarshal response
-      Type listType = new TypeToken<List<MessagingFoodBox>>() {} .getType();
-      responseBoxes = new Gson().fromJson(response, listType);
-
-      // Gather required fields
-      for (MessagingFoodBox b : responseBoxes) {
-        boxIds.add(b.id);
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
+    Result<FoodBoxCatalog> c = loadCatalog();
+    if (!c.isOk()) {
+      return Result.error(c.getCode(), c.getMessage());
     }
-    return boxIds;
+    return Result.ok(c.getValue().getFoodBoxIds(dietaryPreference));
   }
 
   /**
    * Returns true if the operation occurred correctly
    *
    * @return true if the operation occurred correctly
-   * @CustomException if individual is not registered or
-   *                  no box has been picked or
-   *                  order has already been placed that week
-   * @Exception if http request unsuccessful
    */
   @Override
   public boolean placeOrder() {
+    return tryPlaceOrder().isOk();
+  }
+
+  /**
+   * Places an order for the picked box and returns the outcome of the operation.
+   *
+   * The request carries an idempotency key and is retried when no answer is
+   * received. If no attempt gets an answer the order stays outstanding, and the
+   * next call sends the same order again with the same key instead of placing a
+   * new one; the server answers it with the number of the order the first
+   * attempt placed, if any. The number is not known before that answer, so
+   * /requestStatus cannot tell whether the lost attempt placed an order.
+   *
+   * With a write-behind queue an order that cannot reach the server is queued
+   * instead, and stored locally once the queue sent it.
+   *
+   * @return result holding the number of the placed order or null if it was queued
+   * @ErrorCode NOT_REGISTERED if individual is not registered
+   *            NO_BOX_PICKED if no box has been picked
+   *            ORDER_ALREADY_PLACED_THIS_WEEK if order has already been placed in the
+   *                                           week before the time of ClientClock
+   *            SERVER_REJECTED if the server did not place the order
+   *            IO_ERROR if http request unsuccessful
+   */
+  public Result<Integer> tryPlaceOrder() {
     // Check is individual is registered
-    if (registered==false){
+    registration individual = registered;
+    if (individual==null){
+      return Result.error(ErrorCode.NOT_REGISTERED, "You must first register as a Shielding Individual");
+    }
+
+    // Only one session at a time may check the weekly limit and place an order
+    synchronized (placeOrderLock) {
+      // Resend an order whose outcome is unknown rather than placing another one
+      OutstandingRequests.Entry pending = outstanding.get(PLACE_ORDER);
+      WorkingFoodBox picked = pendingPicked;
+      WorkingFoodBox box = pendingBox;
+
+      if (pending == null) {
+        // Check if box has been picked
+        picked = picked_Box.get();
+        if (picked==null){
+          return Result.error(ErrorCode.NO_BOX_PICKED, "You must first pick a box");
+        }
+
+        // Check order already placed this week
+        WriteBehindQueue queue = writeBehind;
+        if (queue != null && queue.contains(WriteBehindQueue.Kind.PLACE_ORDER)){
+          return Result.error(ErrorCode.ORDER_ALREADY_PLACED_THIS_WEEK, "Order has already been placed this week");
+        }
+        LocalDateTime lastWeek = LocalDateTime.now(ClientClock.get()).minusWeeks(1);
+        for (prevOrders o : orders){
+          if (o.datePlaced.compareTo(lastWeek)>=0 && o.status != OrderStatus.CANCELLED){
+            return Result.error(ErrorCode.ORDER_ALREADY_PLACED_THIS_WEEK, "Order has already been placed this week");
+          }
+        }
+
+        // Construct the endpoint request
+        chosenCaterer c = cater;
+        String request = PLACE.expand(individual.CHI, c == null ? null : c.name, c == null ? null : c.postcode);
+
+        // Construct data to be passed to post request, the order keeps a copy
+        // of the box as sent while other sessions may still change the picked box
+        String data;
+        synchronized (picked) {
+          data = picked.toJson();
+          box = picked.copy();
+        }
+
+        pending = outstanding.begin(PLACE_ORDER, request, data);
+        pendingBox = box;
+        pendingPicked = picked;
+      }
+
+      String response;
       try {
-        throw new CustomException("You must first register as a Shielding Individual");
-      } catch (CustomException e) {
-        e.printStackTrace();
+        // Perform request
+        response = outstanding.send(endpoint, pending);
+      } catch (Exception e) {
+        // Keep the order for later if the server cannot be reached
+        WriteBehindQueue queue = writeBehind;
+        if (queue != null) {
+          try {
+            WriteBehindQueue.Mutation m = queue.enqueue(WriteBehindQueue.Kind.PLACE_ORDER, 0,
+                pending.getKey(), pending.getRequest(), pending.getData());
+            queuedBoxes.put(m.getSeq(), box);
+            outstanding.complete(pending);
+            pendingBox = null;
+            pendingPicked = null;
+            picked_Box.compareAndSet(picked, null);
+            return Result.ok(null);
+          } catch (IOException queueFailure) {
+            e.addSuppressed(queueFailure);
+          }
+        }
+        return Result.error(ErrorCode.IO_ERROR, "Place order request failed, calling placeOrder again resends the same order", e);
       }
-      return false;
-    }
 
-    // Check if box has been picked
-    if (picked_Box==null){
+      int orderNumber;
       try {
-        throw new CustomException("You must first pick a box");
-      } catch (CustomException e) {
-        e.printStackTrace();
+        orderNumber = Integer.parseInt(response);
+      } catch (NumberFormatException e) {
+        outstanding.complete(pending);
+        pendingBox = null;
+        pendingPicked = null;
+        return Result.error(ErrorCode.SERVER_REJECTED, "Order rejected by server: " + response);
       }
-      return false;
+
+      outstanding.complete(pending);
+      pendingBox = null;
+      pendingPicked = null;
+      orders.add(new prevOrders(orderNumber, box, LocalDateTime.now(ClientClock.get())));
+      // Clear the picked box unless another one was picked meanwhile
+      picked_Box.compareAndSet(picked, null);
+      return Result.ok(orderNumber);
     }
+  }
 
-    // Get today's date
-    DateTimeFormatter dtf = DateTimeFormatter.ofPattern("ddMMyy");
-    LocalDateTime now = LocalDateTime.now();
+  /**
+   * Queues order mutations that cannot reach the server instead of failing them.
+   * The queue should only be shared by the sessions of the same individual, as
+   * a queued order counts towards the one order per week.
+   *
+   * @param queue the queue to use or null to fail such mutations again
+   */
+  public void setWriteBehindQueue(WriteBehindQueue queue) {
+    WriteBehindQueue previous = writeBehind;
+    if (previous != null) {
+      previous.removeListener(queueListener);
+    }
+    if (queue != null) {
+      queue.addListener(queueListener);
+    }
+    this.writeBehind = queue;
+  }
 
-    // Check order already placed this week
-    LocalDateTime lastWeek = now.minusWeeks(1);
-    for (prevOrders o : orders){
-      if (o.datePlaced.compareTo(lastWeek)>=0 && !o.status.equals("cancelled")){
-        try {
-          throw new CustomException("Order has already been placed this week");
-        } catch (CustomException e) {
-          e.printStackTrace();
+  // Stores the queued orders once sent and restores the server status of conflicts
+  private final WriteBehindQueue.Listener queueListener = new WriteBehindQueue.Listener() {
+    @Override
+    public void flushed(WriteBehindQueue.Mutation m, String response) {
+      if (m.getKind() == WriteBehindQueue.Kind.PLACE_ORDER) {
+        WorkingFoodBox box = queuedBoxes.remove(m.getSeq());
+        if (box != null) {
+          // Placed when the order was queued, which is what the weekly limit counts
+          orders.add(new prevOrders(Integer.parseInt(response), box, m.getAcceptedAt()));
         }
-        return false;
       }
     }
 
-    // Construct the endpoint request
-    String request = "/placeOrder?individual_id=" + CHI + "&catering_business_name=" + cater_name + "&catering_postcode=" + cater_postcode;
-
-    // Construct data to be passed to post request
-    String data = "{\"contents\": [";
-    for (boxContents c : picked_Box.contents){
-      data += "{\"id\":" + c.id + ",\"name\":\"" + c.name + "\",\"quantity\":" + c.quantity + "},";
+    @Override
+    public void conflicted(WriteBehindQueue.Mutation m, String status) {
+      if (m.getKind() == WriteBehindQueue.Kind.PLACE_ORDER) {
+        queuedBoxes.remove(m.getSeq());
+        return;
+      }
+      prevOrders o = findOrder(m.getOrderId());
+      if (o != null && status != null) {
+        o.status = OrderStatus.fromName(status);
+      }
     }
-    data = data.substring(0, data.length()-1) + "]}";
-
-    prevOrders newOrder = new prevOrders();
+  };
 
+  /**
+   * Queues a mutation that could not reach the server
+   *
+   * @return true if the mutation was queued
+   */
+  private boolean queue(WriteBehindQueue.Kind kind, int orderNumber, String request, String data, IOException cause) {
+    WriteBehindQueue queue = writeBehind;
+    if (queue == null) {
+      return false;
+    }
     try {
-      // Perform request
-      String response = ClientIO.doPOSTRequest(endpoint + request, data);
-
-      newOrder.orderId = Integer.parseInt(response);
-      newOrder.status = "placed";
-      newOrder.foodBox = picked_Box;
-      newOrder.datePlaced = now;
-      picked_Box = null;
-      orders.add(newOrder);
+      queue.enqueue(kind, orderNumber, UUID.randomUUID().toString(), request, data);
       return true;
-    } catch (Exception e) {
-      e.printStackTrace();
+    } catch (IOException e) {
+      cause.addSuppressed(e);
+      return false;
     }
+  }
 
-    return false;
+  /**
+   * @return the orders whose placement got no definite answer yet
+   */
+  public OutstandingRequests getOutstandingRequests() {
+    return outstanding;
   }
 
   /**
@@ -289,52 +495,62 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    *
    * @param orderNumber the order number
    * @return true if the operation occurred correctly
-   * @CustomException if order has already been packed
-   * @Exception if http request unsuccessful
    */
   @Override
   public boolean editOrder(int orderNumber) {
+    return tryEditOrder(orderNumber).isOk();
+  }
+
+  /**
+   * Sends the locally edited contents of the order to the server and returns the
+   * outcome of the operation.
+   *
+   * @param orderNumber the order number
+   * @return result of the operation
+   * @ErrorCode ORDER_NOT_FOUND if the order was not placed by this client
+   *            ORDER_NOT_AMENDABLE if order has already been packed
+   *            SERVER_REJECTED if the server did not accept the edit
+   *            IO_ERROR if http request unsuccessful
+   */
+  public Result<Void> tryEditOrder(int orderNumber) {
     // Make sure parameters are valid
     assert(orderNumber>0);
 
-    requestOrderStatus(orderNumber);
+    prevOrders o = findOrder(orderNumber);
+    if (o == null) {
+      return Result.error(ErrorCode.ORDER_NOT_FOUND, "Order number was not found");
+    }
 
-    for (prevOrders o : orders) {
-      if (o.orderId == orderNumber) {
-        // Check if order has already been packed
-        if (!o.status.equals("placed")) {
-          try {
-            throw new CustomException("Order can no longer be amended");
-          } catch (CustomException e) {
-            e.printStackTrace();
-          }
-          return false;
+    synchronized (o) {
+      requestOrderStatus(orderNumber);
 
-        } else{
+      // Check if order has already been packed
+      if (o.status != OrderStatus.PLACED) {
+        return Result.error(ErrorCode.ORDER_NOT_AMENDABLE, "Order can no longer be amended");
+      }
 
-          // Construct the endpoint request
-          String request = "/editOrder?order_id=" + orderNumber;
+      // Construct the endpoint request
+      String request = EDIT.expand(orderNumber);
 
-          // Construct data to be passed to post request
-          String data = "{\"contents\": [";
-          for (boxContents c : o.foodBox.contents) {
-            data += "{\"id\":" + c.id + ",\"name\":\"" + c.name + "\",\"quantity\":" + c.quantity + "},";
-          }
-          data = data.substring(0, data.length()-1) + "]}";
+      // Construct data to be passed to post request
+      String data = o.foodBox.toJson();
 
-          try {
-            // perform request
-            String response = ClientIO.doPOSTRequest(endpoint + request, data);
-            if (response.equals("True")){
-              return true;
-            }
-          } catch (Exception e) {
-            e.printStackTrace();
-          }
+      try {
+        // perform request
+        String response = ClientIO.doPOSTRequest(endpoint + request, data);
+        if (response.equals("True")){
+          return Result.ok();
+        }
+        return Result.error(ErrorCode.SERVER_REJECTED, "Order edit rejected by server");
+      } catch (IOException e) {
+        if (queue(WriteBehindQueue.Kind.EDIT_ORDER, orderNumber, request, data, e)) {
+          return Result.ok();
         }
+        return Result.error(ErrorCode.IO_ERROR, "Edit order request failed", e);
+      } catch (Exception e) {
+        return Result.error(ErrorCode.IO_ERROR, "Edit order request failed", e);
       }
     }
-    return false;
   }
 
   /**
@@ -342,48 +558,61 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    *
    * @param orderNumber the order number
    * @return true if the operation occurred correctly
-   * @CustomException if order has already been dispatched/can no longer be cancelled
-   * @Exception if http request unsuccessful
    */
   @Override
   public boolean cancelOrder(int orderNumber) {
+    return tryCancelOrder(orderNumber).isOk();
+  }
+
+  /**
+   * Cancels the order and returns the outcome of the operation.
+   *
+   * @param orderNumber the order number
+   * @return result of the operation
+   * @ErrorCode ORDER_NOT_FOUND if the order was not placed by this client
+   *            ORDER_NOT_CANCELLABLE if order has already been dispatched
+   *            SERVER_REJECTED if the server did not cancel the order
+   *            IO_ERROR if http request unsuccessful
+   */
+  public Result<Void> tryCancelOrder(int orderNumber) {
     // Make sure parameters are valid
     assert(orderNumber>0);
 
-    requestOrderStatus(orderNumber);
-
-    for (prevOrders o : orders) {
-      if (o.orderId == orderNumber) {
-        // Check if order is not dispatched
-        if (o.status.equals("placed") || o.status.equals("packed")) {
+    prevOrders o = findOrder(orderNumber);
+    if (o == null) {
+      return Result.error(ErrorCode.ORDER_NOT_FOUND, "Order number was not found");
+    }
 
-          // Construct the endpoint request
-          String request = "/cancelOrder?order_id=" + orderNumber;
+    synchronized (o) {
+      requestOrderStatus(orderNumber);
 
-          try {
-            // Perform request
-            String response = ClientIO.doGETRequest(endpoint + request);
-
-            if (response.equals("True")){
-              o.status = "cancelled";
-              return true;
-            }
-          } catch (Exception e) {
-            e.printStackTrace();
-          }
+      // Check if order is not dispatched
+      OrderStatus current = o.status;
+      if (current == null || !current.canMoveTo(OrderStatus.CANCELLED)) {
+        return Result.error(ErrorCode.ORDER_NOT_CANCELLABLE, "Order can no longer be cancelled");
+      }
 
-        } else{
+      // Construct the endpoint request
+      String request = CANCEL.expand(orderNumber);
 
-          try {
-            throw new CustomException("Order can no longer be cancelled");
-          } catch (CustomException e) {
-            e.printStackTrace();
-          }
-          return false;
+      // Perform request
+      try (ResponseBody response = ClientIO.doGETRequestBody(endpoint + request)) {
+        if (response.isTrue()){
+          o.status = OrderStatus.CANCELLED;
+          return Result.ok();
+        }
+        return Result.error(ErrorCode.SERVER_REJECTED, "Order cancellation rejected by server");
+      } catch (IOException e) {
+        if (queue(WriteBehindQueue.Kind.CANCEL_ORDER, orderNumber, request, null, e)) {
+          // Shown as cancelled until the queue reports a conflict
+          o.status = OrderStatus.CANCELLED;
+          return Result.ok();
         }
+        return Result.error(ErrorCode.IO_ERROR, "Cancel order request failed", e);
+      } catch (Exception e) {
+        return Result.error(ErrorCode.IO_ERROR, "Cancel order request failed", e);
       }
     }
-    return false;
   }
 
   /**
@@ -391,61 +620,92 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    *
    * @param orderNumber the order number
    * @return true if the operation occurred correctly
-   * @CustomException if order number not found
-   * @Exception if http request unsuccessful
    */
   @Override
   public boolean requestOrderStatus(int orderNumber) {
+    return tryRequestOrderStatus(orderNumber).isOk();
+  }
+
+  /**
+   * Refreshes the locally stored status of the order from the server and returns
+   * the outcome of the operation.
+   *
+   * @param orderNumber the order number
+   * @return result holding the refreshed status of the order
+   * @ErrorCode ORDER_NOT_FOUND if order number not found
+   *            IO_ERROR if http request unsuccessful
+   */
+  public Result<String> tryRequestOrderStatus(int orderNumber) {
     // Make sure parameters are valid
     assert(orderNumber>0);
 
-    // Construct the endpoint request
-    String request = "/requestStatus?order_id=" + orderNumber;
+    prevOrders o = findOrder(orderNumber);
+    if (o == null) {
+      return Result.error(ErrorCode.ORDER_NOT_FOUND, "Order number was not found");
+    }
 
-    try {
+    synchronized (o) {
       // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
-
-      for (prevOrders o : orders){
-        if (o.orderId == orderNumber){
-          switch(Integer.parseInt(response)) {
-            case 0:
-              o.status = "placed";
-              break;
-            case 1:
-              o.status = "packed";
-              break;
-            case 2:
-              o.status = "dispatched";
-              break;
-            case 3:
-              o.status = "delivered";
-              break;
-            case 4:
-              o.status = "cancelled";
-              break;
-            case -1:
-              o.status = "not found";
-              try {
-                throw new CustomException("Order number was not found");
-              } catch (CustomException e) {
-                e.printStackTrace();
-              }
-              return false;
-          }
-          return true;
+      try (ResponseBody response = ClientIO.doGETRequestBody(REQUEST_STATUS.url(endpoint, orderNumber))) {
+        int code = response.parseInt();
+        if (code == OrderStatus.NOT_FOUND_CODE) {
+          o.status = null;
+          return Result.error(ErrorCode.ORDER_NOT_FOUND, "Order number was not found");
+        }
+        OrderStatus status = OrderStatus.fromCode(code);
+        if (status != null) {
+          o.status = status;
         }
+        return Result.ok(getStatusName(o));
+      } catch (Exception e) {
+        return Result.error(ErrorCode.IO_ERROR, "Order status request failed", e);
       }
-    } catch (Exception e) {
-      e.printStackTrace();
     }
+  }
 
-    try {
-      throw new CustomException("Order number was not found");
-    } catch (CustomException e) {
-      e.printStackTrace();
+  /**
+   * Subscribes to the status of an order instead of polling requestOrderStatus.
+   * The listener is called from a background thread with the status first seen
+   * and with every change, and the status stored locally is kept up to date. The
+   * server is long-polled when it offers it and polled at a growing interval
+   * otherwise, see OrderStatusWatcher.
+   *
+   * @param orderNumber the order number
+   * @param listener the listener told about the status
+   * @return the subscription, cancel it once the status is no longer needed
+   */
+  public OrderStatusWatcher.Subscription subscribeOrderStatus(int orderNumber, OrderStatusWatcher.Listener listener) {
+    // Make sure parameters are valid
+    assert(orderNumber>0 && listener != null);
+
+    return OrderStatusWatcher.subscribe(endpoint, orderNumber, (number, status) -> {
+      prevOrders o = findOrder(number);
+      if (o != null) {
+        o.status = OrderStatus.fromName(status);
+      }
+      listener.statusChanged(number, status);
+    });
+  }
+
+  // Name of the status stored locally for an order
+  private static String getStatusName(prevOrders o) {
+    OrderStatus status = o.status;
+    return status == null ? "not found" : status.getName();
+  }
+
+  /**
+   * Returns the order placed by this client with the order number
+   *
+   * @param orderNumber the order number
+   * @return the order or null if not placed by this client
+   */
+  private prevOrders findOrder(int orderNumber) {
+    for (prevOrders o : orders){
+      if (o.orderId == orderNumber){
+        return o;
+      }
     }
-    return false;
+    return null;
   }
 
   /**
@@ -454,30 +714,54 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    *  positionOfCaterer2,nameOfCaterer2,postcodeOfCaterer2]
    *
    * @return collection of catering companies and their locations
-   * @Exception if http request unsuccessful or
-   *            if unmarshal unsuccessful
    */
   @Override
   public Collection<String> getCateringCompanies() {
-    // Construct the endpoint request
-    String request = "/getCaterers";
+    Result<Collection<String>> result = tryGetCateringCompanies();
+    return result.isOk() ? result.getValue() : new ArrayList<String>();
+  }
 
-    // Setup the response recipient
-    List<String> responseCaterers = new ArrayList<String>();
+  /**
+   * Returns collection of catering companies and their locations.
+   *
+   * @return result holding the collection of catering companies and their locations
+   * @ErrorCode IO_ERROR if http request unsuccessful or
+   *                     if unmarshal unsuccessful
+   */
+  public Result<Collection<String>> tryGetCateringCompanies() {
+    Result<CatererRegistry> result = refreshCaterers();
+    if (!result.isOk()) {
+      return Result.error(result.getCode(), result.getMessage());
+    }
+    return Result.ok(result.getValue().asStrings());
+  }
 
+  /**
+   * Downloads the catering companies and updates the registry, only parsing the
+   * catering companies registered since the last refresh.
+   *
+   * @return result holding the updated registry
+   * @ErrorCode IO_ERROR if http request unsuccessful or
+   *                     if unmarshal unsuccessful
+   */
+  public Result<CatererRegistry> refreshCaterers() {
     try {
-      // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
-
-      // Unmarshal response
-      Type listType = new TypeToken<List<String>>() {} .getType();
-      responseCaterers = new Gson().fromJson(response, listType);
-
+      CatererRegistry updated = caterers.refresh(endpoint);
+      this.caterers = updated;
+      CatererRegistry.share(endpoint, updated);
+      return Result.ok(updated);
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Could not load catering companies", e);
     }
+  }
 
-    return responseCaterers;
+  /**
+   * Returns the catering companies as of the last refresh, without querying the server
+   *
+   * @return registry of the catering companies
+   */
+  public CatererRegistry getCatererRegistry() {
+    return caterers;
   }
 
   /**
@@ -488,61 +772,131 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    * @param postCode1 post code of one location
    * @param postCode2 post code of another location
    * @return the distance as a float between the two locations
-   * @CustomException if the postcode format is incorrect
-   * @Exception if http request unsuccessful
    */
   @Override
   public float getDistance(String postCode1, String postCode2) {
+    Result<Float> result = tryGetDistance(postCode1, postCode2);
+    return result.isOk() ? result.getValue() : 0;
+  }
+
+  /**
+   * Returns the distance between two locations based on their post codes.
+   *
+   * @param postCode1 post code of one location
+   * @param postCode2 post code of another location
+   * @return result holding the distance between the two locations
+   * @ErrorCode INVALID_POSTCODE if the postcode format is incorrect
+   *            IO_ERROR if http request unsuccessful
+   */
+  public Result<Float> tryGetDistance(String postCode1, String postCode2) {
     // Make sure parameters are not null
     assert(!postCode1.equals(null) && !postCode2.equals(null));
 
     // Make sure postCode format is correct
-    if (!postCode1.startsWith("EH") || !postCode1.contains("_") || !postCode2.startsWith("EH") || !postCode2.contains("_")) {
-      try {
-        throw new CustomException("Postcodes must start with EH and be separated by an underscore");
-      } catch (CustomException e) {
-        e.printStackTrace();
-      }
-      return 0;
+    if (!isValidPostcode(postCode1) || !isValidPostcode(postCode2)) {
+      return Result.error(ErrorCode.INVALID_POSTCODE, "Postcodes must start with EH and be separated by an underscore");
     }
 
-    // Construct the endpoint request
-    String request = "/distance?postcode1=" + postCode1 + "&postcode2=" + postCode2;
+    Float known = distances.get(postCode1, postCode2);
+    if (known != null) {
+      return Result.ok(known);
+    }
 
-    try {
-      // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
-      return Float.parseFloat(response);
+    // Perform request
+    try (ResponseBody response = ClientIO.doGETRequestBody(DISTANCE.url(endpoint, postCode1, postCode2))) {
+      float distance = response.parseFloat();
+      distances.put(postCode1, postCode2, distance);
+      return Result.ok(distance);
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Distance request failed", e);
     }
-    return 0;
+  }
+
+  /**
+   * Returns the distance between two locations without blocking the caller, so
+   * the distances to several locations can be requested at once. The future
+   * resolves to 0 in the same cases getDistance returns 0.
+   *
+   * @param postCode1 post code of one location
+   * @param postCode2 post code of another location
+   * @return future resolving to the distance between the two locations
+   */
+  public CompletableFuture<Float> getDistanceAsync(String postCode1, String postCode2) {
+    // Make sure parameters are not null
+    assert(!postCode1.equals(null) && !postCode2.equals(null));
+
+    return fetchDistanceAsync(postCode1, postCode2).thenApply(distance -> distance == null ? 0f : distance);
+  }
+
+  // Requests the distance, the future resolves to null if the distance could not be had
+  private CompletableFuture<Float> fetchDistanceAsync(String postCode1, String postCode2) {
+    // Make sure postCode format is correct
+    if (!isValidPostcode(postCode1) || !isValidPostcode(postCode2)) {
+      ClientLog.get().log(ErrorCode.INVALID_POSTCODE, "Postcodes must start with EH and be separated by an underscore", null);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    Float known = distances.get(postCode1, postCode2);
+    if (known != null) {
+      return CompletableFuture.completedFuture(known);
+    }
+
+    // Perform request
+    return ClientIO.doGETRequestAsync(DISTANCE.url(endpoint, postCode1, postCode2))
+        .thenApply(response -> {
+          float distance = Float.parseFloat(response);
+          distances.put(postCode1, postCode2, distance);
+          return distance;
+        })
+        .exceptionally(e -> {
+          ClientLog.get().log(ErrorCode.IO_ERROR, "Distance request failed", e);
+          return null;
+        });
+  }
+
+  private static boolean isValidPostcode(String postCode) {
+    return postCode.startsWith("EH") && postCode.contains("_");
+  }
+
+  /**
+   * Sets whether registerShieldingIndividual() verifies the modulus 11 check digit
+   * of the CHI number. Disabled by default as the server also accepts CHI numbers
+   * without a valid check digit.
+   *
+   * @param checkDigitRequired whether the check digit is verified
+   */
+  public void setCheckDigitRequired(boolean checkDigitRequired) {
+    this.checkDigitRequired = checkDigitRequired;
   }
 
   @Override
   public boolean isRegistered() {
-    return registered;
+    return registered != null;
   }
 
   @Override
   public String getCHI() {
-    return CHI;
+    registration individual = registered;
+    return individual == null ? null : individual.CHI;
   }
 
   // Helper function added in ShieldingIndividualClient
   @Override
   public String getPostcode() {
-    return postcode;
+    registration individual = registered;
+    return individual == null ? null : individual.postcode;
   }
 
   /**
    * Returns the number of available food boxes after quering the server
    *
-   * @return number of available food boxes after quering the server
+   * @return number of available food boxes after quering the server, 0 if the
+   *         catalog could not be loaded
    */
   @Override
   public int getFoodBoxNumber() {
-    return food_Boxes.size();
+    FoodBoxCatalog c = catalogOrNull();
+    return c == null ? 0 : c.size();
   }
 
   /**
@@ -556,8 +910,8 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(foodBoxId>0 && foodBoxId<=getFoodBoxNumber());
 
-    MessagingFoodBox box = food_Boxes.get(foodBoxId-1);
-    return box.diet;
+    FoodBoxCatalog c = catalogOrNull();
+    return c == null ? null : c.getDiet(foodBoxId);
   }
 
   /**
@@ -575,8 +929,8 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(foodBoxId>0 && foodBoxId<=getFoodBoxNumber());
 
-    MessagingFoodBox box = food_Boxes.get(foodBoxId-1);
-    return box.contents.size();
+    FoodBoxCatalog c = catalogOrNull();
+    return c == null ? 0 : c.get(foodBoxId).getItemCount();
   }
 
   /**
@@ -590,12 +944,16 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(foodBoxId>0 && foodBoxId<=getFoodBoxNumber());
 
-    MessagingFoodBox box = food_Boxes.get(foodBoxId-1);
+    FoodBoxCatalog c = catalogOrNull();
+    if (c == null) {
+      return new ArrayList<Integer>();
+    }
+    CompactFoodBox box = c.get(foodBoxId);
 
-    List<Integer> itemIDs = new ArrayList<Integer>();
+    List<Integer> itemIDs = new ArrayList<Integer>(box.getItemCount());
 
-    for (boxContents c: box.contents){
-      itemIDs.add(c.id);
+    for (int i = 0; i < box.getItemCount(); i++){
+      itemIDs.add(box.getItemId(i));
     }
     return itemIDs;
   }
@@ -612,13 +970,13 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(itemId>0 && foodBoxId>0 && foodBoxId<=getFoodBoxNumber());
 
-    MessagingFoodBox box = food_Boxes.get(foodBoxId-1);
-    for (boxContents c: box.contents){
-      if (c.id == itemId){
-        return c.name;
-      }
+    FoodBoxCatalog c = catalogOrNull();
+    if (c == null) {
+      return null;
     }
-    return null;
+    CompactFoodBox box = c.get(foodBoxId);
+    int i = box.indexOf(itemId);
+    return i < 0 ? null : box.getItemName(i);
   }
 
   /**
@@ -633,13 +991,13 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(itemId>0 && foodBoxId>0 && foodBoxId<=getFoodBoxNumber());
 
-    MessagingFoodBox box = food_Boxes.get(foodBoxId-1);
-    for (boxContents c: box.contents){
-      if (c.id == itemId){
-        return c.quantity;
-      }
+    FoodBoxCatalog c = catalogOrNull();
+    if (c == null) {
+      return 0;
     }
-    return 0;
+    CompactFoodBox box = c.get(foodBoxId);
+    int i = box.indexOf(itemId);
+    return i < 0 ? 0 : box.getQuantity(i);
   }
 
   /**
@@ -660,7 +1018,12 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(foodBoxId>0 && foodBoxId<=getFoodBoxNumber());
 
-    this.picked_Box = food_Boxes.get(foodBoxId-1);
+    FoodBoxCatalog c = catalogOrNull();
+    if (c == null) {
+      return false;
+    }
+    // Quantities are changed on a copy, so the catalog is left untouched
+    this.picked_Box.set(new WorkingFoodBox(c.get(foodBoxId)));
     return true;
   }
 
@@ -671,52 +1034,48 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    * @param  itemId the food box id as last returned from the server
    * @param  quantity the food box item quantity to be set
    * @return true if the item quantity for the picked foodbox was changed
-   * @CustomException if no box has been picked yet or
-   *                  if item was not in the box or
-   *                  if quantity was invalid
    */
   @Override
   public boolean changeItemQuantityForPickedFoodBox(int itemId, int quantity) {
+    return tryChangeItemQuantityForPickedFoodBox(itemId, quantity).isOk();
+  }
+
+  /**
+   * Changes the item quantity for the picked foodbox and returns the outcome of
+   * the operation.
+   *
+   * @param  itemId the food box id as last returned from the server
+   * @param  quantity the food box item quantity to be set
+   * @return result of the operation
+   * @ErrorCode NO_BOX_PICKED if no box has been picked yet
+   *            ITEM_NOT_IN_BOX if item was not in the box
+   *            QUANTITY_NOT_DECREASED if quantity was invalid
+   */
+  public Result<Void> tryChangeItemQuantityForPickedFoodBox(int itemId, int quantity) {
     // Make sure parameters are valid
     assert(itemId>0 && quantity>=0);
 
     // Check if box has been picked
-    if (picked_Box==null){
-      try {
-        throw new CustomException("You must first pick a box");
-      } catch (CustomException e) {
-        e.printStackTrace();
-      }
-      return false;
+    WorkingFoodBox box = picked_Box.get();
+    if (box==null){
+      return Result.error(ErrorCode.NO_BOX_PICKED, "You must first pick a box");
     }
 
     // Check if Item is in box
-    if (!getItemIdsForFoodBox(Integer.parseInt(picked_Box.id)).contains(itemId)){
-      try {
-        throw new CustomException("Item is not in box");
-      } catch (CustomException e) {
-        e.printStackTrace();
-      }
-      return false;
+    int i = box.indexOf(itemId);
+    if (i < 0){
+      return Result.error(ErrorCode.ITEM_NOT_IN_BOX, "Item is not in box");
     }
 
-    for (boxContents c : picked_Box.contents){
-      if (c.id == itemId){
-
-        // Check if quantity is being decreased
-        if (quantity >= c.quantity){
-          try {
-            throw new CustomException("Can only decrease quantity");
-          } catch (CustomException e) {
-            e.printStackTrace();
-          }
-          return false;
-        }
-
-        c.quantity = quantity;
+    synchronized (box) {
+      // Check if quantity is being decreased
+      if (quantity >= box.getQuantity(i)){
+        return Result.error(ErrorCode.QUANTITY_NOT_DECREASED, "Can only decrease quantity");
       }
+
+      box.setQuantity(i, quantity);
     }
-    return true;
+    return Result.ok();
   }
 
   /**
@@ -746,12 +1105,8 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(orderNumber>0);
 
-    for (prevOrders o : orders){
-      if (o.orderId == orderNumber){
-        return o.status;
-      }
-    }
-    return null;
+    prevOrders o = findOrder(orderNumber);
+    return o == null ? null : getStatusName(o);
   }
 
   /**
@@ -768,11 +1123,10 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
 
     List<Integer> itemIDs = new ArrayList<Integer>();
 
-    for (prevOrders o : orders){
-      if (o.orderId == orderNumber){
-        for (boxContents c: o.foodBox.contents){
-          itemIDs.add(c.id);
-        }
+    prevOrders o = findOrder(orderNumber);
+    if (o != null){
+      for (int i = 0; i < o.foodBox.getItemCount(); i++){
+        itemIDs.add(o.foodBox.getItemId(i));
       }
     }
     return itemIDs;
@@ -792,13 +1146,11 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(itemId>0 && orderNumber>0);
 
-    for (prevOrders o : orders){
-      if (o.orderId == orderNumber){
-        for (boxContents c: o.foodBox.contents){
-          if (c.id == itemId){
-            return c.name;
-          }
-        }
+    prevOrders o = findOrder(orderNumber);
+    if (o != null){
+      int i = o.foodBox.indexOf(itemId);
+      if (i >= 0){
+        return o.foodBox.getItemName(i);
       }
     }
     return null;
@@ -818,12 +1170,12 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
     // Make sure parameters are valid
     assert(itemId>0 && orderNumber>0);
 
-    for (prevOrders o : orders){
-      if (o.orderId == orderNumber){
-        for (boxContents c: o.foodBox.contents){
-          if (c.id == itemId){
-            return c.quantity;
-          }
+    prevOrders o = findOrder(orderNumber);
+    if (o != null){
+      int i = o.foodBox.indexOf(itemId);
+      if (i >= 0){
+        synchronized (o) {
+          return o.foodBox.getQuantity(i);
         }
       }
     }
@@ -837,88 +1189,127 @@ public class ShieldingIndividualClientImp implements ShieldingIndividualClient {
    * @param  orderNumber the order number
    * @param  quantity the food box item quantity to be set
    * @return true if quantity of the item for the requested order was changed
-   * @CustomException if order has already been packed or
-   *                  if item is not in the box or
-   *                  if quantity was not decreased
    */
   @Override
   public boolean setItemQuantityForOrder(int itemId, int orderNumber, int quantity) {
+    return trySetItemQuantityForOrder(itemId, orderNumber, quantity).isOk();
+  }
+
+  /**
+   * Changes the quantity of the item for the requested order as stored locally
+   * and returns the outcome of the operation.
+   *
+   * @param  itemId the food box id as last returned from the server
+   * @param  orderNumber the order number
+   * @param  quantity the food box item quantity to be set
+   * @return result of the operation
+   * @ErrorCode ORDER_NOT_FOUND if the order was not placed by this client
+   *            ORDER_NOT_AMENDABLE if order has already been packed
+   *            ITEM_NOT_IN_BOX if item is not in the box
+   *            QUANTITY_NOT_DECREASED if quantity was not decreased
+   */
+  public Result<Void> trySetItemQuantityForOrder(int itemId, int orderNumber, int quantity) {
     // Make sure parameters are valid
     assert(itemId>0 && orderNumber>0 && quantity>=0);
 
-    requestOrderStatus(orderNumber);
+    prevOrders o = findOrder(orderNumber);
+    if (o == null){
+      return Result.error(ErrorCode.ORDER_NOT_FOUND, "Order number was not found");
+    }
 
-    for (prevOrders o : orders){
-      if (o.orderId == orderNumber){
+    synchronized (o) {
+      requestOrderStatus(orderNumber);
 
-        // Check if order has already been packed
-        if (!o.status.equals("placed")){
-          try {
-            throw new CustomException("Order can no longer be amended");
-          } catch (CustomException e) {
-            e.printStackTrace();
-          }
-          return false;
+      // Check if order has already been packed
+      if (o.status != OrderStatus.PLACED){
+        return Result.error(ErrorCode.ORDER_NOT_AMENDABLE, "Order can no longer be amended");
+      }
 
-        } else {
-
-          // Check if item is in box
-          if (!getItemIdsForFoodBox(Integer.parseInt(o.foodBox.id)).contains(itemId)){
-            try {
-              throw new CustomException("Item is not in box");
-            } catch (CustomException e) {
-              e.printStackTrace();
-            }
-            return false;
-
-          } else {
-
-            for (boxContents c : o.foodBox.contents){
-              if (c.id == itemId){
-
-                // Check if quantity is being decreased
-                if (quantity >= c.quantity){
-                  try {
-                    throw new CustomException("Can only decrease quantity");
-                  } catch (CustomException e) {
-                    e.printStackTrace();
-                  }
-                  return false;
-                }
-
-                c.quantity = quantity;
-                return true;
-              }
-            }
-          }
-        }
+      // Check if item is in box
+      int i = o.foodBox.indexOf(itemId);
+      if (i < 0){
+        return Result.error(ErrorCode.ITEM_NOT_IN_BOX, "Item is not in box");
+      }
+
+      // Check if quantity is being decreased
+      if (quantity >= o.foodBox.getQuantity(i)){
+        return Result.error(ErrorCode.QUANTITY_NOT_DECREASED, "Can only decrease quantity");
       }
+
+      o.foodBox.setQuantity(i, quantity);
+      return Result.ok();
     }
-    return false;
   }
 
   /**
    * Returns closest catering company serving orders based on Shielding Individuals
-   * postcode.
+   * postcode. As in CatererAssignmentService, caterers with malformed postcodes
+   * are skipped and ties go to the caterer that comes first in the registry.
+   * Caterers whose distance could not be fetched are skipped too.
    *
    * @return business name of catering company
    */
   @Override
   public String getClosestCateringCompany() {
-    Collection<String> caterers = getCateringCompanies();
+    Result<CatererRegistry> result = refreshCaterers();
+    if (!result.isOk()) {
+      chosenCaterer c = cater;
+      return c == null ? null : c.name;
+    }
+    CatererRegistry registry = result.getValue();
     float minDist = -1;
+    int closest = -1;
+
+    // Request all the distances at once so they can share a connection
+    List<CompletableFuture<Float>> distances = new ArrayList<CompletableFuture<Float>>(registry.size());
+    for (int i = 0; i < registry.size(); i++){
+      String postcode = registry.getPostcode(i);
+      distances.add(isValidPostcode(postcode)
+          ? fetchDistanceAsync(getPostcode(), postcode)
+          : CompletableFuture.<Float>completedFuture(null));
+    }
 
-    for (String c: caterers){
-      String[] caterInfo = c.split(",");
-      float distance = getDistance(getPostcode(), caterInfo[2]);
+    for (int i = 0; i < registry.size(); i++){
+      Float distance = distances.get(i).join();
+      if (distance == null){
+        continue;
+      }
 
       if(distance < minDist || minDist < 0){
         minDist = distance;
-        this.cater_name = caterInfo[1];
-        this.cater_postcode = caterInfo[2];
+        closest = i;
       }
     }
-    return cater_name;
+    if (closest < 0){
+      chosenCaterer c = cater;
+      return c == null ? null : c.name;
+    }
+
+    // Swap in name and postcode together so placeOrder never sees a mix
+    chosenCaterer c = new chosenCaterer(registry.getName(closest), registry.getPostcode(closest));
+    this.cater = c;
+    return c.name;
+  }
+
+  /**
+   * Uses the catering company assigned to the individual's postcode by a
+   * CatererAssignmentService, instead of finding the closest one with
+   * getClosestCateringCompany.
+   *
+   * @param assignments caterers assigned to the postcodes of a cohort
+   * @return true if a catering company was assigned to the individual's postcode
+   */
+  public boolean adoptCateringCompany(CatererAssignmentService.Assignments assignments) {
+    // Make sure parameters are not null
+    assert(assignments != null);
+
+    String postcode = getPostcode();
+    CatererAssignmentService.Caterer assigned = postcode == null ? null : assignments.get(postcode);
+    if (assigned == null) {
+      return false;
+    }
+    this.cater = new chosenCaterer(assigned.name, assigned.postcode);
+    return true;
   }
 
 }
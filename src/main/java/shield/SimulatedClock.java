@@ -0,0 +1,89 @@
+/**
+ * Clock that only moves when told to, for simulating weeks of client activity
+ * in minutes (see ClientClock).
+ *
+ * The time starts at a given instant and is moved forward by advance() or set
+ * with setInstant(); reading it is a single volatile read. Clocks returned by
+ * withZone() share the time of the clock they were made from.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class SimulatedClock extends Clock {
+
+  private final AtomicReference<Instant> now;
+  private final ZoneId zone;
+
+  /**
+   * Creates a clock starting at the current time of the system clock
+   */
+  public SimulatedClock() {
+    this(Instant.now(), ZoneId.systemDefault());
+  }
+
+  /**
+   * @param start the time the clock starts at
+   * @param zone the time zone of the clock
+   */
+  public SimulatedClock(Instant start, ZoneId zone) {
+    // Make sure parameters are not null
+    assert(start != null && zone != null);
+
+    this.now = new AtomicReference<Instant>(start);
+    this.zone = zone;
+  }
+
+  private SimulatedClock(AtomicReference<Instant> now, ZoneId zone) {
+    this.now = now;
+    this.zone = zone;
+  }
+
+  /**
+   * Moves the clock forward
+   *
+   * @param amount how far to move, must not be negative
+   * @return the new time
+   */
+  public Instant advance(Duration amount) {
+    // Make sure parameters are valid
+    assert(amount != null && !amount.isNegative());
+
+    return now.updateAndGet(t -> t.plus(amount));
+  }
+
+  /**
+   * Sets the clock to a time, which may be in the past of its current time
+   *
+   * @param instant the new time
+   */
+  public void setInstant(Instant instant) {
+    // Make sure parameters are not null
+    assert(instant != null);
+
+    now.set(instant);
+  }
+
+  @Override
+  public Instant instant() {
+    return now.get();
+  }
+
+  @Override
+  public ZoneId getZone() {
+    return zone;
+  }
+
+  @Override
+  public Clock withZone(ZoneId zone) {
+    return zone.equals(this.zone) ? this : new SimulatedClock(now, zone);
+  }
+}
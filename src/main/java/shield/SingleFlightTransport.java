@@ -0,0 +1,204 @@
+/**
+ * Transport merging identical GET requests that are in flight at the same time
+ * into a single network call, whose response is handed to all the waiting callers.
+ *
+ * Only reads of the catalog, the caterers and distances are merged. GET
+ * endpoints that change state on the server (e.g. cancelOrder,
+ * updateOrderStatus) are always passed through, as are POST requests and
+ * order status reads: a caller that just changed an order must not join a
+ * status read that started before its change.
+ *
+ * A response body can only be closed once, so callers that joined a body
+ * request in flight get their own pooled copy of the bytes read by the caller
+ * that made it.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+public class SingleFlightTransport implements Transport {
+
+  /**
+   * Endpoints that do not change state on the server and can be merged
+   */
+  public static final Set<String> IDEMPOTENT_PATHS = Collections.unmodifiableSet(new HashSet<String>(
+      Arrays.asList("/showFoodBox", "/getCaterers", "/distance")));
+
+  private final Transport delegate;
+  private final ConcurrentMap<String, CompletableFuture<String>> inFlight =
+      new ConcurrentHashMap<String, CompletableFuture<String>>();
+  private final ConcurrentMap<String, CompletableFuture<SharedBody>> bodiesInFlight =
+      new ConcurrentHashMap<String, CompletableFuture<SharedBody>>();
+
+  // Bytes of a body read once on behalf of several callers
+  private static final class SharedBody {
+    private final byte[] bytes;
+    private final String contentType;
+
+    SharedBody(ResponseBody body) {
+      ByteBuffer b = body.bytes();
+      this.bytes = new byte[b.remaining()];
+      b.get(bytes);
+      this.contentType = body.getContentType();
+    }
+
+    ResponseBody open() {
+      return ResponseBody.copyOf(bytes, contentType);
+    }
+  }
+
+  public SingleFlightTransport(Transport delegate) {
+    // Make sure parameters are not null
+    assert(delegate != null);
+
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String doGETRequest(String endpoint) throws RuntimeException, IOException {
+    if (!isIdempotent(endpoint)) {
+      return delegate.doGETRequest(endpoint);
+    }
+
+    CompletableFuture<String> call = new CompletableFuture<String>();
+    CompletableFuture<String> existing = inFlight.putIfAbsent(endpoint, call);
+    if (existing != null) {
+      return await(existing);
+    }
+
+    // This caller performs the request on behalf of everyone waiting for it
+    try {
+      String response = delegate.doGETRequest(endpoint);
+      call.complete(response);
+      return response;
+    } catch (IOException | RuntimeException e) {
+      call.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(endpoint, call);
+    }
+  }
+
+  @Override
+  public ResponseBody doGETRequestBody(String endpoint) throws RuntimeException, IOException {
+    return doGETRequestBody(endpoint, null);
+  }
+
+  @Override
+  public ResponseBody doGETRequestBody(String endpoint, String accept) throws RuntimeException, IOException {
+    if (!isIdempotent(endpoint)) {
+      return send(endpoint, accept);
+    }
+
+    // Responses differ by media type, so only requests accepting the same ones are merged
+    String key = accept == null ? endpoint : endpoint + " " + accept;
+    CompletableFuture<SharedBody> call = new CompletableFuture<SharedBody>();
+    CompletableFuture<SharedBody> existing = bodiesInFlight.putIfAbsent(key, call);
+    if (existing != null) {
+      return await(existing).open();
+    }
+
+    // This caller keeps the body it read and shares a copy of its bytes
+    try {
+      ResponseBody body = send(endpoint, accept);
+      call.complete(new SharedBody(body));
+      return body;
+    } catch (IOException | RuntimeException e) {
+      call.completeExceptionally(e);
+      throw e;
+    } finally {
+      bodiesInFlight.remove(key, call);
+    }
+  }
+
+  @Override
+  public CompletableFuture<String> doGETRequestAsync(String endpoint) {
+    if (!isIdempotent(endpoint)) {
+      return delegate.doGETRequestAsync(endpoint);
+    }
+
+    CompletableFuture<String> call = new CompletableFuture<String>();
+    CompletableFuture<String> existing = inFlight.putIfAbsent(endpoint, call);
+    if (existing != null) {
+      return existing;
+    }
+
+    delegate.doGETRequestAsync(endpoint).whenComplete((response, e) -> {
+      inFlight.remove(endpoint, call);
+      if (e != null) {
+        call.completeExceptionally(e);
+      } else {
+        call.complete(response);
+      }
+    });
+    return call;
+  }
+
+  @Override
+  public String doPOSTRequest(String endpoint, String data) throws RuntimeException, IOException {
+    return delegate.doPOSTRequest(endpoint, data);
+  }
+
+  // Null accept leaves the Accept header to the delegate
+  private ResponseBody send(String endpoint, String accept) throws IOException {
+    return accept == null ? delegate.doGETRequestBody(endpoint) : delegate.doGETRequestBody(endpoint, accept);
+  }
+
+  /**
+   * Returns the number of distinct requests currently in flight
+   *
+   * @return number of distinct requests currently in flight
+   */
+  public int getInFlightCount() { return inFlight.size() + bodiesInFlight.size(); }
+
+  /**
+   * Returns true if the endpoint's path is one of the IDEMPOTENT_PATHS
+   *
+   * @param endpoint a HTTP URL giving location of an endpoint
+   * @return true if requests to the endpoint can be merged
+   */
+  static boolean isIdempotent(String endpoint) {
+    int scheme = endpoint.indexOf("://");
+    int start = endpoint.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+    if (start < 0) {
+      return false;
+    }
+    int end = endpoint.indexOf('?', start);
+    return IDEMPOTENT_PATHS.contains(endpoint.substring(start, end < 0 ? endpoint.length() : end));
+  }
+
+  private static <T> T await(CompletableFuture<T> call) throws IOException {
+    try {
+      return call.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a shared request", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Table of strings shared by all the clients in this JVM, so each distinct item
+ * name is stored once and food boxes only hold its int code.
+ *
+ * Codes are never reused or removed; the table only grows with the number of
+ * distinct strings, which for item names is small.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class StringTable {
+
+  private static final StringTable SHARED = new StringTable();
+
+  private final Map<String, Integer> codes = new HashMap<String, Integer>();
+  private volatile String[] strings = new String[16];
+  private int size;
+
+  /**
+   * Returns the table shared by all the clients
+   *
+   * @return the shared table
+   */
+  public static StringTable shared() { return SHARED; }
+
+  /**
+   * Returns the code of the string, adding it to the table if needed
+   *
+   * @param s the string
+   * @return code of the string
+   */
+  public synchronized int intern(String s) {
+    Integer code = codes.get(s);
+    if (code != null) {
+      return code;
+    }
+
+    String[] table = strings;
+    if (size == table.length) {
+      table = Arrays.copyOf(table, size * 2);
+    }
+    table[size] = s;
+    // Writing the volatile field publishes the new entry to readers
+    strings = table;
+    codes.put(s, size);
+    return size++;
+  }
+
+  /**
+   * Returns the string with the code
+   *
+   * @param code code as returned by intern()
+   * @return the string
+   */
+  public String get(int code) {
+    return strings[code];
+  }
+
+  /**
+   * Returns the number of distinct strings in the table
+   *
+   * @return number of distinct strings
+   */
+  public synchronized int size() { return size; }
+}
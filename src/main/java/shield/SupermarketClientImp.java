@@ -1,14 +1,30 @@
 
 package shield;
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class SupermarketClientImp implements SupermarketClient {
+  private static final RequestTemplate REGISTER =
+      RequestTemplate.compile("/registerSupermarket", "business_name", "postcode");
+  private static final RequestTemplate RECORD_ORDER = RequestTemplate.compile("/recordSupermarketOrder",
+      "individual_id", "order_number", "supermarket_business_name", "supermarket_postcode");
+  private static final RequestTemplate UPDATE_ORDER_STATUS =
+      RequestTemplate.compile("/updateSupermarketOrderStatus", "order_id", "newStatus");
+  private static final RequestTemplate REQUEST_STATUS = RequestTemplate.compile("/requestStatus", "order_id");
 
   private String endpoint;
   private boolean registered;
   private String name;
   private String postcode;
+  private final OutstandingRequests outstanding = new OutstandingRequests();
+  private volatile WriteBehindQueue writeBehind;
+  // Status this client last set for each order
+  private final Map<Integer, OrderStatus> knownStatus = new ConcurrentHashMap<Integer, OrderStatus>();
 
-  public SupermarketClientImp(String endpoint) { this.endpoint = endpoint; }
+  public SupermarketClientImp(String endpoint) { this.endpoint = RequestTemplate.parseBase(endpoint); }
 
   /**
    * Returns true if the operation occurred correctly (Supermarket is
@@ -17,30 +33,39 @@ public class SupermarketClientImp implements SupermarketClient {
    * @param name name of the business
    * @param postCode post code of the business
    * @return true if the operation occurred correctly
-   * @Exception if http request unsuccessful
    */
   @Override
   public boolean registerSupermarket(String name, String postCode) {
+    return tryRegisterSupermarket(name, postCode).isOk();
+  }
+
+  /**
+   * Registers the supermarket and returns the outcome of the operation.
+   *
+   * @param name name of the business
+   * @param postCode post code of the business
+   * @return result of the operation
+   * @ErrorCode SERVER_REJECTED if the server did not register the supermarket
+   *            IO_ERROR if http request unsuccessful
+   */
+  public Result<Void> tryRegisterSupermarket(String name, String postCode) {
     // Make sure parameters are not null
     assert(!name.equals(null) && !postCode.equals(null));
 
-    // Construct the endpoint request
-    String request = "/registerSupermarket?business_name=" + name + "&postcode=" + postCode;
-
     try {
       // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
+      String response = ClientIO.doGETRequest(REGISTER.url(endpoint, name, postCode));
 
       if (response.equals("registered new") || response.equals("already registered")) {
         this.registered = true;
         this.name = name;
         this.postcode = postCode;
-        return true;
+        return Result.ok();
       }
+      return Result.error(ErrorCode.SERVER_REJECTED, "Registration rejected by server: " + response);
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Registration request failed", e);
     }
-    return false;
   }
 
   /**
@@ -50,27 +75,82 @@ public class SupermarketClientImp implements SupermarketClient {
    * @param CHI CHI number of the shielding individual associated with this order
    * @param orderNumber the order number
    * @return true if the operation occurred correctly
-   * @Exception if http request unsuccessful
    */
   @Override
   public boolean recordSupermarketOrder(String CHI, int orderNumber) {
+    return tryRecordSupermarketOrder(CHI, orderNumber).isOk();
+  }
+
+  /**
+   * Records the supermarket order and returns the outcome of the operation.
+   *
+   * The request carries an idempotency key and is retried when no answer is
+   * received. If no attempt gets an answer, /requestStatus is asked whether one
+   * of them was recorded after all; if the server does not know the order yet it
+   * stays outstanding, and calling again resends it with the same key.
+   *
+   * @param CHI CHI number of the shielding individual associated with this order
+   * @param orderNumber the order number
+   * @return result of the operation
+   * @ErrorCode SERVER_REJECTED if the server did not record the order
+   *            IO_ERROR if http request unsuccessful, the order stays outstanding
+   *            and calling again resends the same request
+   */
+  public Result<Void> tryRecordSupermarketOrder(String CHI, int orderNumber) {
     // Make sure parameters are not null
     assert(!CHI.equals(null) && orderNumber>=0);
 
     // Construct the endpoint request
-    String request = "/recordSupermarketOrder?individual_id=" + CHI + "&order_number=" + orderNumber + "&supermarket_business_name=" + name + "&supermarket_postcode=" + postcode;
+    String request = RECORD_ORDER.expand(CHI, orderNumber, name, postcode);
+
+    OutstandingRequests.Entry pending = outstanding.begin("recordSupermarketOrder:" + orderNumber, request, null);
 
+    String response;
     try {
       // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
-
-      if (response.equals("True")) {
-        return true;
+      response = outstanding.send(endpoint, pending);
+    } catch (IOException e) {
+      // The outcome is unknown, ask the server whether an attempt was recorded
+      try {
+        if (isRecorded(orderNumber)) {
+          outstanding.complete(pending);
+          knownStatus.put(orderNumber, OrderStatus.PLACED);
+          return Result.ok();
+        }
+      } catch (Exception statusFailure) {
+        e.addSuppressed(statusFailure);
       }
+      return Result.error(ErrorCode.IO_ERROR, "Supermarket order request failed, calling again resends the same request", e);
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Supermarket order request failed", e);
+    }
+
+    outstanding.complete(pending);
+    if (response.equals("True")) {
+      knownStatus.put(orderNumber, OrderStatus.PLACED);
+      return Result.ok();
+    }
+    return Result.error(ErrorCode.SERVER_REJECTED, "Supermarket order rejected by server");
+  }
+
+  /**
+   * Returns true if the server knows the order number.
+   *
+   * @param orderNumber the order number
+   * @return true if /requestStatus reports a status for the order
+   * @throws IOException if http request unsuccessful
+   */
+  private boolean isRecorded(int orderNumber) throws IOException {
+    try (ResponseBody response = ClientIO.doGETRequestBody(REQUEST_STATUS.url(endpoint, orderNumber))) {
+      return response.parseInt() >= 0;
     }
-    return false;
+  }
+
+  /**
+   * @return the orders whose recording got no definite answer yet
+   */
+  public OutstandingRequests getOutstandingRequests() {
+    return outstanding;
   }
 
   /**
@@ -79,26 +159,76 @@ public class SupermarketClientImp implements SupermarketClient {
    * @param orderNumber the order number
    * @param status status of the order for the requested number
    * @return true if the operation occurred correctly
-   * @Exception if http request unsuccessful
    */
   @Override
   public boolean updateOrderStatus(int orderNumber, String status) {
+    return tryUpdateOrderStatus(orderNumber, status).isOk();
+  }
+
+  /**
+   * Updates the status of the order and returns the outcome of the operation.
+   *
+   * The update is checked against the order lifecycle first (see OrderStatus),
+   * using the status this client last set for the order, and an illegal one is
+   * rejected without a request.
+   *
+   * @param orderNumber the order number
+   * @param status status of the order for the requested number
+   * @return result of the operation
+   * @ErrorCode INVALID_STATUS_TRANSITION if the order cannot move to the status
+   *            SERVER_REJECTED if the server did not accept the update
+   *            IO_ERROR if http request unsuccessful and the update was not queued
+   */
+  public Result<Void> tryUpdateOrderStatus(int orderNumber, String status) {
     // Make sure parameters are not null
     assert(orderNumber>=0 && !status.equals(null));
 
+    // Check the transition locally
+    OrderStatus next = OrderStatus.fromName(status);
+    if (next == null || !next.isReachable()) {
+      return Result.error(ErrorCode.INVALID_STATUS_TRANSITION, "Order status cannot be set to " + status);
+    }
+    OrderStatus current = knownStatus.get(orderNumber);
+    if (current != null && !current.canMoveTo(next)) {
+      return Result.error(ErrorCode.INVALID_STATUS_TRANSITION,
+          "Order cannot go from " + current.getName() + " to " + status);
+    }
+
     // Construct the endpoint request
-    String request = "/updateSupermarketOrderStatus?order_id=" + orderNumber + "&newStatus=" + status;
+    String request = UPDATE_ORDER_STATUS.expand(orderNumber, status);
 
-    try {
-      // Perform request
-      String response = ClientIO.doGETRequest(endpoint + request);
-      if (response.equals("True")) {
-        return true;
+    // Perform request
+    try (ResponseBody response = ClientIO.doGETRequestBody(endpoint + request)) {
+      if (response.isTrue()) {
+        knownStatus.put(orderNumber, next);
+        return Result.ok();
       }
+      return Result.error(ErrorCode.SERVER_REJECTED, "Order status update rejected by server");
+    } catch (IOException e) {
+      // Keep the update for later if the server cannot be reached
+      WriteBehindQueue queue = writeBehind;
+      if (queue != null) {
+        try {
+          queue.enqueue(WriteBehindQueue.Kind.UPDATE_ORDER_STATUS, orderNumber, UUID.randomUUID().toString(), request, null);
+          knownStatus.put(orderNumber, next);
+          return Result.ok();
+        } catch (IOException queueFailure) {
+          e.addSuppressed(queueFailure);
+        }
+      }
+      return Result.error(ErrorCode.IO_ERROR, "Order status update request failed", e);
     } catch (Exception e) {
-      e.printStackTrace();
+      return Result.error(ErrorCode.IO_ERROR, "Order status update request failed", e);
     }
-    return false;
+  }
+
+  /**
+   * Queues status updates that cannot reach the server instead of failing them.
+   *
+   * @param queue the queue to use or null to fail such updates again
+   */
+  public void setWriteBehindQueue(WriteBehindQueue queue) {
+    this.writeBehind = queue;
   }
 
   @Override
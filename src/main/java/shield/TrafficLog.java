@@ -0,0 +1,363 @@
+/**
+ * Compact binary log of the requests a client sent and the responses it got,
+ * written by CaptureTransport and read by TrafficReplay.
+ *
+ * The file starts with the magic bytes SHTR, the format VERSION and the time
+ * the capture started. A gzip stream of entries follows. Each entry holds the
+ * kind of request and the thread that sent it, so replays keep the original
+ * concurrency. It also holds when the request started and how long it took,
+ * in nanoseconds since the capture started, then the URL, Accept header, POST
+ * body, outcome, content type and response. Numbers are varints and strings
+ * are length-prefixed UTF-8, so a typical request takes a few dozen bytes
+ * before compression.
+ *
+ * Entries are encoded by the thread that made the request and written by a
+ * background thread, the same way as AsyncClientLogger. Requests never wait on
+ * the disk: if the queue is full the entry is dropped and counted. The gzip
+ * stream is flushed whenever the queue runs empty, so a crash loses at most the
+ * entries still queued. Reading stops at a truncated last entry.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public final class TrafficLog {
+  /**
+   * Version of the file format, files of other versions cannot be read
+   */
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'S', 'H', 'T', 'R'};
+
+  // Internal field to store the kind of a request
+  public enum Kind {
+    GET,
+    GET_BODY,
+    POST,
+    GET_ASYNC
+  }
+
+  // Internal field to store how a request ended
+  public enum Outcome {
+    OK,
+    IO_ERROR,
+    RUNTIME_ERROR
+  }
+
+  /**
+   * One captured request and its response
+   */
+  public static final class Entry {
+    public final Kind kind;
+    public final long session;
+    public final long startNanos;
+    public final long durationNanos;
+    public final String url;
+    public final String accept;
+    public final String data;
+    public final Outcome outcome;
+    public final String contentType;
+    public final byte[] response;
+
+    /**
+     * @param kind the kind of request
+     * @param session id of the thread that sent the request
+     * @param startNanos when the request started, since the capture started
+     * @param durationNanos how long the request took
+     * @param url the URL requested
+     * @param accept the Accept header, null if none was set
+     * @param data the POST body, null for GET requests
+     * @param outcome how the request ended
+     * @param contentType the content type of the response, null if not known
+     * @param response the response, or the message of the exception, may be null
+     */
+    public Entry(Kind kind, long session, long startNanos, long durationNanos, String url, String accept,
+        String data, Outcome outcome, String contentType, byte[] response) {
+      this.kind = kind;
+      this.session = session;
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+      this.url = url;
+      this.accept = accept;
+      this.data = data;
+      this.outcome = outcome;
+      this.contentType = contentType;
+      this.response = response;
+    }
+  }
+
+  private TrafficLog() {}
+
+  /**
+   * Reads all the entries of a log, in the order they were written
+   *
+   * @param file the log file
+   * @return the entries
+   * @throws IOException if the file cannot be read or is not a log of this VERSION
+   */
+  public static List<Entry> read(Path file) throws IOException {
+    try (InputStream raw = new BufferedInputStream(Files.newInputStream(file))) {
+      DataInputStream header = new DataInputStream(raw);
+      byte[] magic = new byte[MAGIC.length];
+      header.readFully(magic);
+      for (int i = 0; i < MAGIC.length; i++) {
+        if (magic[i] != MAGIC[i]) {
+          throw new IOException(file + " is not a traffic log");
+        }
+      }
+      int version = header.readUnsignedByte();
+      if (version != VERSION) {
+        throw new IOException("Traffic log version " + version + " is not " + VERSION);
+      }
+      header.readLong();
+
+      List<Entry> entries = new ArrayList<Entry>();
+      try (InputStream in = new BufferedInputStream(new GZIPInputStream(raw))) {
+        while (true) {
+          int kind = in.read();
+          if (kind < 0) {
+            break;
+          }
+          if (kind >= Kind.values().length) {
+            throw new IOException("Unknown request kind " + kind + " in traffic log");
+          }
+          long session = varint(in);
+          long start = varint(in);
+          long duration = varint(in);
+          String url = string(in);
+          String accept = string(in);
+          String data = string(in);
+          int outcome = readByte(in);
+          if (outcome >= Outcome.values().length) {
+            throw new IOException("Unknown outcome " + outcome + " in traffic log");
+          }
+          entries.add(new Entry(Kind.values()[kind], session, start, duration, url, accept, data,
+              Outcome.values()[outcome], string(in), bytes(in)));
+        }
+      } catch (EOFException e) {
+        // The capture ended in the middle of an entry
+      }
+      return entries;
+    }
+  }
+
+  /**
+   * Writes entries to a log file on a background thread
+   */
+  public static final class Writer implements Closeable {
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final byte[] CLOSE = new byte[0];
+
+    private final BlockingQueue<byte[]> queue;
+    private final OutputStream out;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    public Writer(Path file) throws IOException { this(file, DEFAULT_CAPACITY); }
+
+    /**
+     * Creates the file, replacing any file of the same name, and starts the
+     * daemon writer thread
+     *
+     * @param file the log file
+     * @param capacity maximum number of entries waiting to be written
+     * @throws IOException if the file cannot be created
+     */
+    public Writer(Path file, int capacity) throws IOException {
+      // Make sure parameters are valid
+      assert(file != null && capacity > 0);
+
+      this.queue = new ArrayBlockingQueue<byte[]>(capacity);
+      OutputStream raw = new BufferedOutputStream(Files.newOutputStream(file));
+      try {
+        raw.write(MAGIC);
+        raw.write(VERSION);
+        long now = System.currentTimeMillis();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+          raw.write((int) (now >>> shift));
+        }
+        this.out = new GZIPOutputStream(raw, true);
+      } catch (IOException e) {
+        raw.close();
+        throw e;
+      }
+
+      writer = new Thread(this::drain, "shield-traffic-capture");
+      writer.setDaemon(true);
+      writer.start();
+    }
+
+    /**
+     * @return the value of System.nanoTime() the entry times are relative to
+     */
+    public long getStartNanos() { return startNanos; }
+
+    /**
+     * Queues an entry, its times must be relative to getStartNanos()
+     *
+     * @param e the entry
+     */
+    public void write(Entry e) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream(64 + (e.response == null ? 0 : e.response.length));
+      buf.write(e.kind.ordinal());
+      varint(buf, e.session);
+      varint(buf, Math.max(0, e.startNanos));
+      varint(buf, Math.max(0, e.durationNanos));
+      string(buf, e.url);
+      string(buf, e.accept);
+      string(buf, e.data);
+      buf.write(e.outcome.ordinal());
+      string(buf, e.contentType);
+      bytes(buf, e.response);
+
+      if (closed || !queue.offer(buf.toByteArray())) {
+        dropped.incrementAndGet();
+      }
+    }
+
+    /**
+     * Returns the number of entries dropped because the queue was full or the
+     * writer was closed
+     *
+     * @return number of dropped entries
+     */
+    public long getDroppedCount() { return dropped.get(); }
+
+    /**
+     * Writes the queued entries and closes the file
+     *
+     * @throws IOException if writing the log failed at any point
+     */
+    @Override
+    public synchronized void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        queue.put(CLOSE);
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while closing the traffic log", e);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    private void drain() {
+      try {
+        while (true) {
+          byte[] entry = queue.poll();
+          if (entry == null) {
+            // Nothing waiting, let a reader see what was written so far
+            out.flush();
+            entry = queue.take();
+          }
+          if (entry == CLOSE) {
+            break;
+          }
+          out.write(entry);
+        }
+      } catch (IOException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        try {
+          out.close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+    }
+  }
+
+  private static void varint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  // Strings and byte arrays are prefixed by their length + 1, 0 meaning null
+  private static void string(ByteArrayOutputStream out, String s) {
+    bytes(out, s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void bytes(ByteArrayOutputStream out, byte[] b) {
+    if (b == null) {
+      out.write(0);
+      return;
+    }
+    varint(out, b.length + 1L);
+    out.write(b, 0, b.length);
+  }
+
+  private static int readByte(InputStream in) throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    return b;
+  }
+
+  private static long varint(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte(in);
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in traffic log");
+  }
+
+  private static String string(InputStream in) throws IOException {
+    byte[] b = bytes(in);
+    return b == null ? null : new String(b, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] bytes(InputStream in) throws IOException {
+    long length = varint(in) - 1;
+    if (length < 0) {
+      return null;
+    }
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Entry of " + length + " bytes in traffic log");
+    }
+    byte[] b = new byte[(int) length];
+    new DataInputStream(in).readFully(b);
+    return b;
+  }
+}
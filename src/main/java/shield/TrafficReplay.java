@@ -0,0 +1,322 @@
+/**
+ * Replays a TrafficLog recorded by CaptureTransport against a server, e.g. the
+ * local stub server, to benchmark ClientIO and its transports on real traffic:
+ *
+ *   java shield.TrafficReplay log-file [speed] [endpoint]
+ *
+ * The endpoint defaults to the one in client.cfg. Requests are sent through
+ * the transport configured in client.cfg, but are never captured again, even
+ * if captureFile is set. Every thread of the captured client becomes one
+ * replay session with a thread of its own, so the replay has the original
+ * concurrency. A session sends its requests in the captured order,
+ * each at its captured start time divided by speed: 1 replays in real time, 10
+ * ten times faster and 0 as fast as possible. A request never starts before the
+ * previous blocking request of its session has finished. The lag column of the
+ * report shows how far the replay fell behind the schedule. Asynchronous
+ * requests do not block their session, as when they were captured.
+ *
+ * For every path the report holds the latency percentiles and the requests
+ * that failed. It also counts the requests that changed, i.e. failed in only
+ * one of the capture and the replay, and those whose response differs from the
+ * captured one. Order numbers and the like naturally differ between runs.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public final class TrafficReplay {
+
+  /**
+   * Counts and latencies of the requests to one path
+   */
+  public static final class PathStats {
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong outcomeChanged = new AtomicLong();
+    private final AtomicLong responseChanged = new AtomicLong();
+
+    public LatencyHistogram getLatencies() { return latencies; }
+
+    public long getCount() { return latencies.getCount(); }
+
+    /**
+     * @return the number of requests that failed in the replay
+     */
+    public long getErrors() { return errors.get(); }
+
+    /**
+     * @return the number of requests that failed in the replay but not in the
+     *         capture, or the other way round
+     */
+    public long getOutcomeChanged() { return outcomeChanged.get(); }
+
+    /**
+     * @return the number of requests that succeeded both times with different responses
+     */
+    public long getResponseChanged() { return responseChanged.get(); }
+  }
+
+  /**
+   * Outcome of a replay
+   */
+  public static final class Report {
+    private final Map<String, PathStats> paths;
+    private final LatencyHistogram lag;
+    private final long elapsedNanos;
+    private final long capturedNanos;
+
+    Report(Map<String, PathStats> paths, LatencyHistogram lag, long elapsedNanos, long capturedNanos) {
+      this.paths = paths;
+      this.lag = lag;
+      this.elapsedNanos = elapsedNanos;
+      this.capturedNanos = capturedNanos;
+    }
+
+    /**
+     * @param path the path of the requests, e.g. /placeOrder
+     * @return the stats of the path, null if no request was replayed to it
+     */
+    public PathStats getStats(String path) { return paths.get(path); }
+
+    /**
+     * @return how late requests started compared to the schedule
+     */
+    public LatencyHistogram getLag() { return lag; }
+
+    public double getElapsedSeconds() { return elapsedNanos / 1e9; }
+
+    /**
+     * @return the time from the first captured request to the end of the last
+     */
+    public double getCapturedSeconds() { return capturedNanos / 1e9; }
+
+    @Override
+    public String toString() {
+      StringBuilder out = new StringBuilder();
+      out.append(String.format("replayed in %.1f s, captured in %.1f s, lag p50 %.1f ms p99 %.1f ms%n",
+          getElapsedSeconds(), getCapturedSeconds(), lag.getPercentileMicros(50) / 1000.0,
+          lag.getPercentileMicros(99) / 1000.0));
+      out.append(String.format("%-30s %8s %9s %7s %9s %9s %8s %8s %8s %8s%n", "path", "count", "ops/s",
+          "errors", "changed", "differs", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+      for (Map.Entry<String, PathStats> e : paths.entrySet()) {
+        PathStats s = e.getValue();
+        LatencyHistogram h = s.getLatencies();
+        out.append(String.format("%-30s %8d %9.1f %7d %9d %9d %8.1f %8.1f %8.1f %8.1f%n", e.getKey(), s.getCount(),
+            elapsedNanos == 0 ? 0 : s.getCount() / getElapsedSeconds(), s.getErrors(), s.getOutcomeChanged(),
+            s.getResponseChanged(), h.getPercentileMicros(50) / 1000.0, h.getPercentileMicros(90) / 1000.0,
+            h.getPercentileMicros(99) / 1000.0, h.getMaxMicros() / 1000.0));
+      }
+      return out.toString();
+    }
+  }
+
+  private final List<List<TrafficLog.Entry>> sessions = new ArrayList<List<TrafficLog.Entry>>();
+  private final String endpoint;
+  private final double speed;
+  private final long capturedNanos;
+
+  private final ConcurrentMap<String, PathStats> paths = new ConcurrentHashMap<String, PathStats>();
+  private final LatencyHistogram lag = new LatencyHistogram();
+
+  /**
+   * @param entries the captured requests
+   * @param endpoint the server to send them to, null to use the captured URLs
+   * @param speed how many times faster than captured to replay, 0 for as fast as possible
+   */
+  public TrafficReplay(List<TrafficLog.Entry> entries, String endpoint, double speed) {
+    // Make sure parameters are valid
+    assert(entries != null && speed >= 0);
+
+    this.endpoint = endpoint == null ? null : RequestTemplate.parseBase(endpoint);
+    this.speed = speed;
+
+    // Entries are logged when they end, sessions send them in the order they started
+    List<TrafficLog.Entry> sorted = new ArrayList<TrafficLog.Entry>(entries);
+    sorted.sort(Comparator.comparingLong(e -> e.startNanos));
+    Map<Long, List<TrafficLog.Entry>> bySession = new LinkedHashMap<Long, List<TrafficLog.Entry>>();
+    long end = 0;
+    for (TrafficLog.Entry e : sorted) {
+      bySession.computeIfAbsent(e.session, s -> new ArrayList<TrafficLog.Entry>()).add(e);
+      end = Math.max(end, e.startNanos + e.durationNanos);
+    }
+    sessions.addAll(bySession.values());
+    this.capturedNanos = sorted.isEmpty() ? 0 : end - sorted.get(0).startNanos;
+  }
+
+  /**
+   * @return the number of sessions, i.e. the threads the replay uses
+   */
+  public int getSessionCount() { return sessions.size(); }
+
+  /**
+   * Replays all the sessions and waits for them to finish
+   *
+   * @return the report of the replay
+   * @throws InterruptedException if interrupted while waiting, the sessions are stopped
+   */
+  public Report run() throws InterruptedException {
+    long origin = Long.MAX_VALUE;
+    for (List<TrafficLog.Entry> session : sessions) {
+      origin = Math.min(origin, session.get(0).startNanos);
+    }
+    long first = origin;
+    long start = System.nanoTime();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (List<TrafficLog.Entry> session : sessions) {
+      Thread t = new Thread(() -> replay(session, start, first), "traffic-replay");
+      t.setDaemon(true);
+      threads.add(t);
+      t.start();
+    }
+    try {
+      for (Thread t : threads) {
+        t.join();
+      }
+    } catch (InterruptedException e) {
+      for (Thread t : threads) {
+        t.interrupt();
+      }
+      throw e;
+    }
+    return new Report(new TreeMap<String, PathStats>(paths), lag, System.nanoTime() - start, capturedNanos);
+  }
+
+  private void replay(List<TrafficLog.Entry> session, long start, long first) {
+    List<CompletableFuture<?>> async = new ArrayList<CompletableFuture<?>>();
+    for (TrafficLog.Entry e : session) {
+      long due = speed == 0 ? start : start + (long) ((e.startNanos - first) / speed);
+      long wait;
+      while ((wait = due - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+        if (Thread.currentThread().isInterrupted()) {
+          return;
+        }
+      }
+      long sent = System.nanoTime();
+      lag.record(sent - due);
+
+      String url = rebase(e.url);
+      PathStats stats = paths.computeIfAbsent(path(url), p -> new PathStats());
+      if (e.kind == TrafficLog.Kind.GET_ASYNC) {
+        async.add(ClientIO.doGETRequestAsync(url).whenComplete((response, failure) ->
+            record(stats, e, sent, failure == null ? response.getBytes(StandardCharsets.UTF_8) : null)));
+        continue;
+      }
+
+      byte[] response;
+      try {
+        response = send(e, url);
+      } catch (IOException | RuntimeException failure) {
+        response = null;
+      }
+      record(stats, e, sent, response);
+    }
+    for (CompletableFuture<?> f : async) {
+      try {
+        f.join();
+      } catch (RuntimeException failure) {
+        // Recorded by whenComplete
+      }
+    }
+  }
+
+  private static byte[] send(TrafficLog.Entry e, String url) throws IOException {
+    switch (e.kind) {
+      case GET_BODY:
+        try (ResponseBody body = e.accept == null
+            ? ClientIO.doGETRequestBody(url) : ClientIO.doGETRequestBody(url, e.accept)) {
+          ByteBuffer bytes = body.bytes();
+          byte[] copy = new byte[bytes.remaining()];
+          bytes.get(copy);
+          return copy;
+        }
+      case POST:
+        return ClientIO.doPOSTRequest(url, e.data).getBytes(StandardCharsets.UTF_8);
+      default:
+        return ClientIO.doGETRequest(url).getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  // Records a replayed request, response is null if it failed
+  private static void record(PathStats stats, TrafficLog.Entry e, long sent, byte[] response) {
+    stats.latencies.record(System.nanoTime() - sent);
+    boolean capturedOk = e.outcome == TrafficLog.Outcome.OK;
+    if (response == null) {
+      stats.errors.incrementAndGet();
+    }
+    if (capturedOk != (response != null)) {
+      stats.outcomeChanged.incrementAndGet();
+    } else if (capturedOk && !Arrays.equals(response, e.response)) {
+      stats.responseChanged.incrementAndGet();
+    }
+  }
+
+  // Replaces the scheme, host and port of a captured URL with the endpoint's
+  String rebase(String url) {
+    if (endpoint == null) {
+      return url;
+    }
+    int scheme = url.indexOf("://");
+    int path = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+    return endpoint + (path < 0 ? "" : url.substring(path));
+  }
+
+  private static String path(String url) {
+    int scheme = url.indexOf("://");
+    int start = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+    if (start < 0) {
+      return "/";
+    }
+    int end = url.indexOf('?', start);
+    return url.substring(start, end < 0 ? url.length() : end);
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.err.println("usage: java shield.TrafficReplay log-file [speed] [endpoint]");
+      System.exit(2);
+    }
+    double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+
+    Properties config = new Properties();
+    try (InputStream in = TrafficReplay.class.getClassLoader().getResourceAsStream(ClientIO.CONFIG_FILENAME)) {
+      if (in != null) {
+        config.load(in);
+      }
+    }
+    String endpoint = args.length > 2 ? args[2] : config.getProperty("endpoint");
+
+    // Replay on the configured transport, without capturing the replay itself
+    config.remove("captureFile");
+    ClientIO.setTransport(ClientIO.createTransport(config));
+
+    List<TrafficLog.Entry> entries = TrafficLog.read(Paths.get(args[0]));
+    TrafficReplay replay = new TrafficReplay(entries, endpoint, speed);
+    System.out.println("Replaying " + entries.size() + " requests in " + replay.getSessionCount()
+        + " sessions against " + (endpoint == null ? "the captured servers" : endpoint)
+        + (speed == 0 ? " as fast as possible" : " at " + speed + "x"));
+    System.out.print(replay.run());
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Interface for the HTTP backend used by ClientIO to talk to the server.
+ *
+ * The backend is selected through the transport property of client.cfg, see
+ * ClientIO.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+public interface Transport {
+  /**
+   * Performs a GET HTTP request and returns a String with the remote endpoint's reply
+   *
+   * @param  endpoint  a HTTP URL giving location of an endpoint
+   * @return      the endpoint's response
+   * @throws IOException an input/output error occurred
+   * @throws RuntimeException a protocol processing error occurred
+   */
+  public String doGETRequest(String endpoint) throws RuntimeException, IOException;
+
+  /**
+   * Performs a GET HTTP request and returns the remote endpoint's reply as bytes,
+   * so small replies can be parsed without decoding them into a String. The
+   * caller closes the body once done with it. Backends that only read Strings
+   * wrap the String reply.
+   *
+   * @param  endpoint  a HTTP URL giving location of an endpoint
+   * @return      the endpoint's response
+   * @throws IOException an input/output error occurred
+   * @throws RuntimeException a protocol processing error occurred
+   */
+  public default ResponseBody doGETRequestBody(String endpoint) throws RuntimeException, IOException {
+    return ResponseBody.of(doGETRequest(endpoint));
+  }
+
+  /**
+   * Performs a GET HTTP request accepting the given media types, e.g. the
+   * binary encoding of BinaryCodec. The caller checks the content type of the
+   * body, as the server may answer with any of them. Backends that cannot set
+   * the Accept header ask for JSON.
+   *
+   * @param  endpoint  a HTTP URL giving location of an endpoint
+   * @param  accept  value of the Accept header
+   * @return      the endpoint's response
+   * @throws IOException an input/output error occurred
+   * @throws RuntimeException a protocol processing error occurred
+   */
+  public default ResponseBody doGETRequestBody(String endpoint, String accept) throws RuntimeException, IOException {
+    return doGETRequestBody(endpoint);
+  }
+
+  /**
+   * Performs a POST HTTP request and returns a String with the remote endpoint's reply
+   *
+   * @param  endpoint  a HTTP URL giving location of an endpoint
+   * @param  data the data to post to the endpoint as string
+   * @return      the endpoint's response
+   * @throws IOException an input/output error occurred
+   * @throws RuntimeException a protocol processing error occurred
+   */
+  public String doPOSTRequest(String endpoint, String data) throws RuntimeException, IOException;
+
+  /**
+   * Performs a GET HTTP request without blocking the caller. Backends that cannot
+   * multiplex requests perform it synchronously and return a completed future.
+   *
+   * @param  endpoint  a HTTP URL giving location of an endpoint
+   * @return      future completed with the endpoint's response
+   */
+  public default CompletableFuture<String> doGETRequestAsync(String endpoint) {
+    CompletableFuture<String> future = new CompletableFuture<String>();
+    try {
+      future.complete(doGETRequest(endpoint));
+    } catch (Exception e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Transport opening a HttpURLConnection per request. This is the default backend.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+public class UrlConnectionTransport implements Transport {
+
+  private final int compressThreshold;
+
+  public UrlConnectionTransport() { this(Compression.NEVER); }
+
+  /**
+   * @param compressThreshold size in bytes from which POST bodies are gzipped,
+   *                          or Compression.NEVER
+   */
+  public UrlConnectionTransport(int compressThreshold) {
+    this.compressThreshold = compressThreshold;
+  }
+
+  @Override
+  public String doGETRequest(String endpoint) throws RuntimeException, IOException {
+    try (ResponseBody body = doGETRequestBody(endpoint)) {
+      return body.toString();
+    }
+  }
+
+  @Override
+  public ResponseBody doGETRequestBody(String endpoint) throws RuntimeException, IOException {
+    return doGETRequestBody(endpoint, BinaryCodec.ACCEPT_JSON);
+  }
+
+  @Override
+  public ResponseBody doGETRequestBody(String endpoint, String accept) throws RuntimeException, IOException {
+    URL requestUrl = new URL(endpoint);
+    HttpURLConnection conn = (HttpURLConnection) requestUrl.openConnection();
+    conn.setRequestMethod("GET");
+    conn.setRequestProperty("Accept", accept);
+    conn.setRequestProperty("Accept-Encoding", Compression.ACCEPT_ENCODING);
+
+    int responseCode = conn.getResponseCode();
+
+    if (responseCode != HttpURLConnection.HTTP_OK) {
+      throw new RuntimeException("Failed with HTTP code : "
+                                 + conn.getResponseCode());
+    }
+
+    ResponseBody body = read(conn);
+    conn.disconnect();
+
+    return body;
+  }
+
+  @Override
+  public String doPOSTRequest(String endpoint, String data) throws RuntimeException, IOException {
+    URL url = new URL(endpoint);
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setDoOutput(true);
+    conn.setRequestMethod("POST");
+    conn.setRequestProperty("Content-Type", "application/json");
+    conn.setRequestProperty("Accept-Encoding", Compression.ACCEPT_ENCODING);
+
+    byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+    if (Compression.shouldCompress(bytes.length, compressThreshold)) {
+      bytes = Compression.gzip(bytes);
+      conn.setRequestProperty("Content-Encoding", Compression.GZIP);
+    }
+
+    OutputStream os = conn.getOutputStream();
+    os.write(bytes);
+    os.flush();
+
+    if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+      throw new RuntimeException("Failed with HTTP code : "
+                                 + conn.getResponseCode());
+    }
+
+    try (ResponseBody body = read(conn)) {
+      return body.toString();
+    } finally {
+      conn.disconnect();
+    }
+  }
+
+  private static ResponseBody read(HttpURLConnection conn) throws IOException {
+    return ResponseBody.read(Compression.decode(conn.getInputStream(), conn.getContentEncoding()),
+        conn.getContentType());
+  }
+}
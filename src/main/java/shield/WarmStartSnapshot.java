@@ -0,0 +1,274 @@
+/**
+ * Snapshot file of the data a client downloads before it can serve requests: the
+ * food box catalog, the catering company registry and the distance cache of an
+ * endpoint.
+ *
+ * save writes what is currently shared by the clients of the endpoint; start
+ * saves it on a schedule and saveOnShutdown when the JVM exits. load maps the
+ * file into memory and shares its contents with the clients, so a restarted
+ * JVM serves its first request without a download. What the snapshot holds may
+ * be stale, so warmStart also revalidates the catalog and the registry against
+ * the server in the background.
+ *
+ * The file starts with a magic number, the format VERSION, the time it was
+ * saved and the endpoint, followed by one length-prefixed BinaryCodec message
+ * per section (a length of 0 for an empty section). A file of another version
+ * or endpoint is ignored. Files are replaced atomically, so a crash while saving
+ * leaves the previous snapshot.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public final class WarmStartSnapshot implements Closeable {
+  /**
+   * Version of the file format, files of other versions are ignored
+   */
+  public static final int VERSION = 1;
+
+  private static final int MAGIC = 0x5348534E; // SHSN
+
+  private final Path file;
+  private final String endpoint;
+  private ScheduledExecutorService saver;
+  private Thread shutdownHook;
+
+  /**
+   * @param file the snapshot file
+   * @param endpoint the server endpoint the snapshot holds the data of
+   */
+  public WarmStartSnapshot(Path file, String endpoint) {
+    // Make sure parameters are not null
+    assert(file != null && endpoint != null);
+
+    this.file = file;
+    this.endpoint = RequestTemplate.parseBase(endpoint);
+  }
+
+  /**
+   * Writes the catalog, registry and distances shared by the clients of the
+   * endpoint to the snapshot file
+   *
+   * @return result of the operation
+   * @ErrorCode IO_ERROR if the file could not be written
+   */
+  public synchronized Result<Void> save() {
+    FoodBoxCatalog catalog = FoodBoxCatalog.peekShared(endpoint);
+    CatererRegistry registry = CatererRegistry.getShared(endpoint);
+    Map<String, Float> distances = DistanceCache.forEndpoint(endpoint).entries();
+
+    byte[] endpointBytes = endpoint.getBytes(StandardCharsets.UTF_8);
+    byte[][] sections = {
+      catalog == null ? new byte[0] : BinaryCodec.encodeFoodBoxes(catalog.toMessages()),
+      registry.size() == 0 ? new byte[0] : BinaryCodec.encodeCaterers(registry.asStrings()),
+      BinaryCodec.encodeDistances(distances),
+    };
+
+    int size = 4 + 4 + 8 + 4 + endpointBytes.length;
+    for (byte[] section : sections) {
+      size += 4 + section.length;
+    }
+    ByteBuffer out = ByteBuffer.allocate(size);
+    out.putInt(MAGIC).putInt(VERSION).putLong(ClientClock.get().millis());
+    out.putInt(endpointBytes.length).put(endpointBytes);
+    for (byte[] section : sections) {
+      out.putInt(section.length).put(section);
+    }
+    out.flip();
+
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        while (out.hasRemaining()) {
+          channel.write(out);
+        }
+        channel.force(true);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return Result.ok();
+    } catch (IOException e) {
+      return Result.error(ErrorCode.IO_ERROR, "Snapshot could not be written to " + file, e);
+    }
+  }
+
+  /**
+   * Reads the snapshot file and shares its contents with the clients of the
+   * endpoint. A catalog already downloaded in this JVM is kept; the registry
+   * and distances of the snapshot are added to the shared ones.
+   *
+   * @return result holding the time the snapshot was saved, in epoch milliseconds
+   * @ErrorCode IO_ERROR if the file is missing, unreadable, of another version
+   *                     or endpoint, or corrupt
+   */
+  public Result<Long> load() {
+    if (!Files.exists(file)) {
+      return Result.error(ErrorCode.IO_ERROR, "No snapshot at " + file);
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (in.remaining() < 20 || in.getInt() != MAGIC) {
+        return Result.error(ErrorCode.IO_ERROR, file + " is not a snapshot");
+      }
+      int version = in.getInt();
+      if (version != VERSION) {
+        return Result.error(ErrorCode.IO_ERROR, "Snapshot version " + version + " is not " + VERSION);
+      }
+      long savedAt = in.getLong();
+      String savedEndpoint = StandardCharsets.UTF_8.decode(section(in)).toString();
+      if (!savedEndpoint.equals(endpoint)) {
+        return Result.error(ErrorCode.IO_ERROR, "Snapshot is for " + savedEndpoint + ", not " + endpoint);
+      }
+
+      // Decode everything before sharing anything, so a corrupt file changes nothing
+      ByteBuffer boxes = section(in);
+      ByteBuffer caterers = section(in);
+      ByteBuffer distances = section(in);
+      FoodBoxCatalog catalog = boxes.hasRemaining()
+          ? FoodBoxCatalog.fromMessages(BinaryCodec.decodeFoodBoxes(boxes)) : null;
+      CatererRegistry registry = caterers.hasRemaining()
+          ? CatererRegistry.EMPTY.update(BinaryCodec.decodeCaterers(caterers)) : null;
+      Map<String, Float> known = distances.hasRemaining()
+          ? BinaryCodec.decodeDistances(distances) : Collections.<String, Float>emptyMap();
+
+      if (catalog != null) {
+        FoodBoxCatalog.shareIfAbsent(endpoint, catalog);
+      }
+      if (registry != null && CatererRegistry.getShared(endpoint).size() == 0) {
+        CatererRegistry.share(endpoint, registry);
+      }
+      DistanceCache.forEndpoint(endpoint).putAll(known);
+      return Result.ok(savedAt);
+    } catch (IOException | RuntimeException e) {
+      return Result.error(ErrorCode.IO_ERROR, "Snapshot " + file + " could not be read", e);
+    }
+  }
+
+  /**
+   * Downloads the catalog and the catering companies again in the background
+   * and shares them with the clients of the endpoint
+   *
+   * @return future resolving to true if both were downloaded, false otherwise
+   */
+  public CompletableFuture<Boolean> revalidate() {
+    return CompletableFuture.supplyAsync(() -> {
+      boolean ok = true;
+      try {
+        FoodBoxCatalog.reloadShared(endpoint);
+      } catch (Exception e) {
+        ClientLog.get().log(ErrorCode.IO_ERROR, "Could not revalidate food boxes", e);
+        ok = false;
+      }
+      try {
+        CatererRegistry.share(endpoint, CatererRegistry.getShared(endpoint).refresh(endpoint));
+      } catch (Exception e) {
+        ClientLog.get().log(ErrorCode.IO_ERROR, "Could not revalidate catering companies", e);
+        ok = false;
+      }
+      return ok;
+    });
+  }
+
+  /**
+   * Loads the snapshot and revalidates it in the background. Clients created
+   * afterwards use the snapshot until the revalidated data is shared.
+   *
+   * @return result of loading the snapshot, see load
+   */
+  public Result<Long> warmStart() {
+    Result<Long> loaded = load();
+    revalidate();
+    return loaded;
+  }
+
+  /**
+   * Saves the snapshot in the background at a fixed delay
+   *
+   * @param period the delay between the end of a save and the start of the next
+   * @param unit the unit of the delay
+   */
+  public synchronized void start(long period, TimeUnit unit) {
+    if (saver == null) {
+      saver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "warm-start-snapshot");
+        t.setDaemon(true);
+        return t;
+      });
+      saver.scheduleWithFixedDelay(this::save, period, period, unit);
+    }
+  }
+
+  /**
+   * Saves the snapshot when the JVM shuts down
+   */
+  public synchronized void saveOnShutdown() {
+    if (shutdownHook == null) {
+      shutdownHook = new Thread(this::save, "warm-start-snapshot-shutdown");
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+  }
+
+  /**
+   * Stops the scheduled and shutdown saves, the file is left as it is
+   */
+  @Override
+  public synchronized void close() {
+    if (saver != null) {
+      saver.shutdownNow();
+      saver = null;
+    }
+    if (shutdownHook != null) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // Already shutting down, the hook runs anyway
+      }
+      shutdownHook = null;
+    }
+  }
+
+  /**
+   * Drops the catalog, registry and distances shared by the clients of an
+   * endpoint, as if the JVM had just started
+   *
+   * @param endpoint the server endpoint
+   */
+  static void unshare(String endpoint) {
+    FoodBoxCatalog.unshare(endpoint);
+    CatererRegistry.unshare(endpoint);
+    DistanceCache.unshare(endpoint);
+  }
+
+  // Returns the next length-prefixed section and moves past it
+  private static ByteBuffer section(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0 || length > in.remaining()) {
+      throw new IllegalArgumentException("Section of " + length + " bytes but " + in.remaining() + " left");
+    }
+    ByteBuffer section = in.slice();
+    section.limit(length);
+    in.position(in.position() + length);
+    return section;
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copy of a catalog food box whose item quantities can be changed, used for the
+ * picked box and for placed orders.
+ *
+ * The items and their original quantities are read from the shared
+ * CompactFoodBox, which is never modified. The box only stores the quantity
+ * deltas of the items that were changed, so picking a box costs one small object
+ * whatever the size of the box.
+ *
+ * A WorkingFoodBox is owned by a single client and is not thread-safe; the
+ * CompactFoodBox it is based on can be shared by any number of threads and
+ * clients.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.util.Arrays;
+
+public final class WorkingFoodBox {
+
+  private static final int[] NO_CHANGES = new int[0];
+
+  private final CompactFoodBox base;
+
+  // Indices of the changed items and the deltas of their quantities
+  private int[] changedItems = NO_CHANGES;
+  private int[] deltas = NO_CHANGES;
+  private int changeCount;
+
+  public WorkingFoodBox(CompactFoodBox base) {
+    // Make sure parameters are not null
+    assert(base != null);
+
+    this.base = base;
+  }
+
+  /**
+   * Returns a copy of this box, later changes to either box do not affect the other
+   *
+   * @return the copy
+   */
+  public WorkingFoodBox copy() {
+    WorkingFoodBox copy = new WorkingFoodBox(base);
+    copy.changedItems = Arrays.copyOf(changedItems, changeCount);
+    copy.deltas = Arrays.copyOf(deltas, changeCount);
+    copy.changeCount = changeCount;
+    return copy;
+  }
+
+  /**
+   * Returns the catalog food box this box is based on
+   *
+   * @return the catalog food box
+   */
+  public CompactFoodBox getBase() { return base; }
+
+  public String getId() { return base.getId(); }
+
+  public int getItemCount() { return base.getItemCount(); }
+
+  public int getItemId(int i) { return base.getItemId(i); }
+
+  public String getItemName(int i) { return base.getItemName(i); }
+
+  public int indexOf(int itemId) { return base.indexOf(itemId); }
+
+  /**
+   * Returns the quantity of the item at the index, as changed on this box
+   *
+   * @param i index of the item, between 0 and getItemCount()-1
+   * @return item quantity
+   */
+  public int getQuantity(int i) {
+    int k = findChange(i);
+    return k < 0 ? base.getQuantity(i) : base.getQuantity(i) + deltas[k];
+  }
+
+  /**
+   * Changes the quantity of the item at the index on this box only
+   *
+   * @param i index of the item, between 0 and getItemCount()-1
+   * @param quantity the new quantity
+   */
+  public void setQuantity(int i, int quantity) {
+    // Make sure parameters are valid
+    assert(i>=0 && i<getItemCount() && quantity>=0);
+
+    int delta = quantity - base.getQuantity(i);
+    int k = findChange(i);
+
+    if (k >= 0) {
+      deltas[k] = delta;
+      return;
+    }
+    if (delta == 0) {
+      return;
+    }
+
+    if (changeCount == changedItems.length) {
+      int capacity = Math.max(2, changeCount * 2);
+      changedItems = Arrays.copyOf(changedItems, capacity);
+      deltas = Arrays.copyOf(deltas, capacity);
+    }
+    changedItems[changeCount] = i;
+    deltas[changeCount] = delta;
+    changeCount++;
+  }
+
+  /**
+   * Returns true if any quantity was changed
+   *
+   * @return true if any quantity was changed
+   */
+  public boolean isModified() {
+    for (int k = 0; k < changeCount; k++) {
+      if (deltas[k] != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of items whose quantity was changed on this box
+   *
+   * @return number of changed items
+   */
+  public int getChangeCount() { return changeCount; }
+
+  /**
+   * Returns the contents of the box in the format expected by placeOrder and
+   * editOrder, i.e. {"contents": [{"id":1,"name":"cucumbers","quantity":1},...]}
+   *
+   * @return the contents of the box as json
+   */
+  public String toJson() {
+    StringBuilder data = new StringBuilder(32 + getItemCount() * 48);
+    data.append("{\"contents\": [");
+    for (int i = 0; i < getItemCount(); i++) {
+      if (i > 0) {
+        data.append(',');
+      }
+      data.append("{\"id\":").append(getItemId(i))
+          .append(",\"name\":\"").append(getItemName(i))
+          .append("\",\"quantity\":").append(getQuantity(i)).append('}');
+    }
+    return data.append("]}").toString();
+  }
+
+  private int findChange(int i) {
+    for (int k = 0; k < changeCount; k++) {
+      if (changedItems[k] == i) {
+        return k;
+      }
+    }
+    return -1;
+  }
+}
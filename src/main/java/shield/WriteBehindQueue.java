@@ -0,0 +1,515 @@
+/**
+ * Persistent queue of order mutations accepted while the server is unreachable.
+ *
+ * A client with a queue acknowledges placeOrder, editOrder, cancelOrder and
+ * updateOrderStatus straight away when the server cannot be reached, and the
+ * mutation is appended to a file so it survives a restart. flush sends the
+ * queued mutations once the server answers again:
+ *  - mutations of the same order are sent in the order they were accepted,
+ *    consecutive edits are merged into the last one and edits followed by a
+ *    cancellation are not sent; such edits are dropped once the mutation that
+ *    replaced them is accepted, and reported as conflicts with it otherwise,
+ *  - the status of every queued order is requested in one batch first, and a
+ *    mutation the server status no longer allows (e.g. editing a packed order) is
+ *    dropped as a conflict and reported to the listeners,
+ *  - a mutation the server answers with an error is dropped as a conflict too,
+ *    as sending it again would get the same answer,
+ *  - flushing stops at the first request without an answer, keeping the rest.
+ * Every mutation carries an idempotency key, so a flush interrupted after a
+ * request was sent can safely send it again.
+ *
+ * start flushes periodically in the background, spreading the queued mutations
+ * over time instead of sending them all when a session comes back online.
+ *
+ * @author
+ *
+ */
+
+package shield;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public final class WriteBehindQueue implements Closeable {
+  /**
+   * Kind of a queued mutation
+   */
+  public enum Kind { PLACE_ORDER, EDIT_ORDER, CANCEL_ORDER, UPDATE_ORDER_STATUS }
+
+  /**
+   * A mutation accepted locally and not sent yet
+   */
+  public static final class Mutation {
+    private final long seq;
+    private final Kind kind;
+    private final int orderId;
+    private final String key;
+    private final String request;
+    private final String data;
+    private final LocalDateTime acceptedAt;
+
+    private Mutation(long seq, Kind kind, int orderId, String key, String request, String data,
+                     LocalDateTime acceptedAt) {
+      this.seq = seq;
+      this.kind = kind;
+      this.orderId = orderId;
+      this.key = key;
+      this.request = request;
+      this.data = data;
+      this.acceptedAt = acceptedAt;
+    }
+
+    /**
+     * @return the position of the mutation in the queue
+     */
+    public long getSeq() {
+      return seq;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return the order the mutation applies to or 0 for PLACE_ORDER
+     */
+    public int getOrderId() {
+      return orderId;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public String getRequest() {
+      return request;
+    }
+
+    /**
+     * @return the data posted with the request or null for a GET request
+     */
+    public String getData() {
+      return data;
+    }
+
+    /**
+     * @return the time of ClientClock when the mutation was accepted, e.g. the
+     *         time a queued order was placed
+     */
+    public LocalDateTime getAcceptedAt() {
+      return acceptedAt;
+    }
+  }
+
+  /**
+   * Receives the outcome of the queued mutations, called from the flushing thread
+   */
+  public interface Listener {
+    /**
+     * Called once the server accepted a mutation
+     *
+     * @param mutation the mutation
+     * @param response the server's response, the order number for PLACE_ORDER
+     */
+    void flushed(Mutation mutation, String response);
+
+    /**
+     * Called when a mutation was dropped because the server no longer allows it
+     *
+     * @param mutation the mutation
+     * @param status the server status of the order or null if the server rejected
+     *               the request itself
+     */
+    void conflicted(Mutation mutation, String status);
+  }
+
+  private static final RequestTemplate REQUEST_STATUS = RequestTemplate.compile("/requestStatus", "order_id");
+
+  private final String endpoint;
+  private final Path file;
+  private final List<Mutation> pending = new ArrayList<Mutation>();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+  private final Object flushLock = new Object();
+  private long nextSeq = 1;
+  private ScheduledExecutorService flusher;
+
+  /**
+   * Opens the queue stored in a file, loading the mutations left by an earlier run
+   *
+   * @param endpoint the server endpoint
+   * @param file the file the queue is stored in, created when first needed
+   * @throws IOException if the file exists but cannot be read
+   */
+  public WriteBehindQueue(String endpoint, Path file) throws IOException {
+    // Make sure parameters are not null
+    assert(endpoint != null && file != null);
+
+    this.endpoint = endpoint;
+    this.file = file;
+
+    if (Files.exists(file)) {
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        if (!line.isEmpty()) {
+          Mutation m = parse(line);
+          pending.add(m);
+          nextSeq = Math.max(nextSeq, m.seq + 1);
+        }
+      }
+    }
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Accepts a mutation and stores it before returning
+   *
+   * @param kind the kind of mutation
+   * @param orderId the order the mutation applies to or 0 for PLACE_ORDER
+   * @param key the idempotency key of the request
+   * @param request the request path and parameters, without the endpoint
+   * @param data the data to post or null for a GET request
+   * @return the queued mutation
+   * @throws IOException if the mutation could not be stored
+   */
+  public synchronized Mutation enqueue(Kind kind, int orderId, String key, String request, String data)
+      throws IOException {
+    // Make sure parameters are valid
+    assert(kind != null && key != null && request != null);
+    assert((kind == Kind.PLACE_ORDER) == (orderId == 0));
+
+    Mutation m = new Mutation(nextSeq, kind, orderId, key, request, data, LocalDateTime.now(ClientClock.get()));
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      out.write(format(m));
+      out.newLine();
+    }
+    nextSeq++;
+    pending.add(m);
+    return m;
+  }
+
+  /**
+   * @return a copy of the mutations not sent yet, in the order they were accepted
+   */
+  public synchronized List<Mutation> pending() {
+    return new ArrayList<Mutation>(pending);
+  }
+
+  /**
+   * @return the number of mutations not sent yet
+   */
+  public synchronized int size() {
+    return pending.size();
+  }
+
+  /**
+   * Returns true if a mutation of the given kind is queued
+   *
+   * @param kind the kind of mutation
+   * @return true if a mutation of the given kind is queued
+   */
+  public synchronized boolean contains(Kind kind) {
+    for (Mutation m : pending) {
+      if (m.kind == kind) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sends the queued mutations to the server.
+   *
+   * @return result holding the number of mutations removed from the queue
+   * @ErrorCode IO_ERROR if the server could not be reached, the mutations not
+   *            sent yet stay queued
+   */
+  public Result<Integer> flush() {
+    synchronized (flushLock) {
+      List<Mutation> batch = pending();
+      if (batch.isEmpty()) {
+        return Result.ok(0);
+      }
+
+      // Group the mutations per order, keeping the order they were accepted in
+      Map<Integer, List<Mutation>> byOrder = new LinkedHashMap<Integer, List<Mutation>>();
+      List<Mutation> done = new ArrayList<Mutation>();
+      for (Mutation m : batch) {
+        // New orders have no order id yet and are sent one by one
+        int group = m.kind == Kind.PLACE_ORDER ? (int) -m.seq : m.orderId;
+        byOrder.computeIfAbsent(group, g -> new ArrayList<Mutation>()).add(m);
+      }
+      Map<Mutation, List<Mutation>> replaced = new HashMap<Mutation, List<Mutation>>();
+      for (List<Mutation> mutations : byOrder.values()) {
+        merge(mutations, replaced);
+      }
+
+      // Request the status of every queued order in one batch
+      Map<Integer, CompletableFuture<String>> statusRequests = new HashMap<Integer, CompletableFuture<String>>();
+      for (Integer orderId : byOrder.keySet()) {
+        if (orderId > 0) {
+          statusRequests.put(orderId, ClientIO.doGETRequestAsync(REQUEST_STATUS.url(endpoint, orderId)));
+        }
+      }
+
+      IOException failure = null;
+      try {
+        for (Map.Entry<Integer, List<Mutation>> group : byOrder.entrySet()) {
+          // Null for new orders and orders the server does not know
+          OrderStatus status = null;
+          boolean rejected = false;
+          if (group.getKey() > 0) {
+            String code = answer(statusRequests.get(group.getKey()));
+            rejected = code == null || !isOrderNumber(code);
+            status = rejected ? null : OrderStatus.fromCode(Integer.parseInt(code));
+          }
+
+          for (Mutation m : group.getValue()) {
+            List<Mutation> edits = replaced.getOrDefault(m, Collections.<Mutation>emptyList());
+            if (m.kind != Kind.PLACE_ORDER && (rejected || !isAllowed(m, status))) {
+              String name = rejected ? null : status == null ? "not found" : status.getName();
+              for (Mutation edit : edits) {
+                done.add(edit);
+                conflicted(edit, name);
+              }
+              done.add(m);
+              conflicted(m, name);
+              continue;
+            }
+
+            String response = send(m);
+            done.addAll(edits);
+            done.add(m);
+            if (response == null
+                || (m.kind == Kind.PLACE_ORDER ? !isOrderNumber(response) : !response.equals("True"))) {
+              for (Mutation edit : edits) {
+                conflicted(edit, null);
+              }
+              conflicted(m, null);
+              continue;
+            }
+            status = statusAfter(m, status);
+            for (Listener l : listeners) {
+              l.flushed(m, response);
+            }
+          }
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+
+      try {
+        remove(done);
+      } catch (IOException e) {
+        return Result.error(ErrorCode.IO_ERROR, "Write-behind queue could not be stored", e);
+      }
+      if (failure != null) {
+        return Result.error(ErrorCode.IO_ERROR, "Server unreachable, " + size() + " mutations still queued", failure);
+      }
+      return Result.ok(done.size());
+    }
+  }
+
+  /**
+   * Flushes the queue in the background at a fixed delay
+   *
+   * @param period the delay between the end of a flush and the start of the next
+   * @param unit the unit of the delay
+   */
+  public synchronized void start(long period, TimeUnit unit) {
+    if (flusher == null) {
+      flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "write-behind-flusher");
+        t.setDaemon(true);
+        return t;
+      });
+      flusher.scheduleWithFixedDelay(this::flush, period, period, unit);
+    }
+  }
+
+  /**
+   * Stops the background flushing, the queued mutations stay stored
+   */
+  @Override
+  public synchronized void close() {
+    if (flusher != null) {
+      flusher.shutdownNow();
+      flusher = null;
+    }
+  }
+
+  // Removes the edits made redundant by a later edit or cancellation, recording
+  // them under the mutation that replaces them
+  private static void merge(List<Mutation> mutations, Map<Mutation, List<Mutation>> replaced) {
+    int i = 0;
+    while (i < mutations.size() - 1) {
+      Mutation m = mutations.get(i);
+      Kind next = mutations.get(i + 1).kind;
+      if (m.kind == Kind.EDIT_ORDER && (next == Kind.EDIT_ORDER || next == Kind.CANCEL_ORDER)) {
+        mutations.remove(i);
+        List<Mutation> edits = replaced.computeIfAbsent(mutations.get(i), r -> new ArrayList<Mutation>());
+        List<Mutation> earlier = replaced.remove(m);
+        if (earlier != null) {
+          edits.addAll(earlier);
+        }
+        edits.add(m);
+      } else {
+        i++;
+      }
+    }
+  }
+
+  // Checks a mutation against the server status of its order
+  private static boolean isAllowed(Mutation m, OrderStatus status) {
+    if (status == null) {
+      return false;
+    }
+    switch (m.kind) {
+      case EDIT_ORDER:
+        return status == OrderStatus.PLACED;
+      case CANCEL_ORDER:
+        return status.canMoveTo(OrderStatus.CANCELLED);
+      case UPDATE_ORDER_STATUS:
+        OrderStatus target = targetStatus(m);
+        return target != null && status.canMoveTo(target);
+      default:
+        return true;
+    }
+  }
+
+  // Status of the order once the server accepted a mutation
+  private static OrderStatus statusAfter(Mutation m, OrderStatus status) {
+    switch (m.kind) {
+      case CANCEL_ORDER:
+        return OrderStatus.CANCELLED;
+      case UPDATE_ORDER_STATUS:
+        return targetStatus(m);
+      default:
+        return status;
+    }
+  }
+
+  // Status requested by an UPDATE_ORDER_STATUS request
+  private static OrderStatus targetStatus(Mutation m) {
+    String param = "newStatus=";
+    int start = m.request.indexOf(param);
+    if (start < 0) {
+      return null;
+    }
+    start += param.length();
+    int end = m.request.indexOf('&', start);
+    return OrderStatus.fromName(m.request.substring(start, end < 0 ? m.request.length() : end));
+  }
+
+  private static boolean isOrderNumber(String response) {
+    try {
+      Integer.parseInt(response);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  // Sends a mutation, returns null if the server answered with an error
+  private String send(Mutation m) throws IOException {
+    String url = endpoint + OutstandingRequests.withKey(m.request, m.key);
+    try {
+      if (m.data == null) {
+        return ClientIO.doGETRequest(url);
+      }
+      return ClientIO.doPOSTRequest(url, m.data);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  // Waits for a status request, returns null if the server answered with an error
+  private static String answer(CompletableFuture<String> request) throws IOException {
+    try {
+      return request.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException || cause instanceof UncheckedIOException) {
+        throw new IOException("Status request without an answer", cause);
+      }
+      return null;
+    }
+  }
+
+  private void conflicted(Mutation m, String status) {
+    for (Listener l : listeners) {
+      l.conflicted(m, status);
+    }
+  }
+
+  // Removes sent mutations and rewrites the file with the ones left
+  private synchronized void remove(List<Mutation> done) throws IOException {
+    if (done.isEmpty()) {
+      return;
+    }
+    pending.removeAll(done);
+
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      for (Mutation m : pending) {
+        out.write(format(m));
+        out.newLine();
+      }
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Line format: seq, kind, order id, key, request, base64 data and acceptance time separated by tabs
+  private static String format(Mutation m) {
+    String data = m.data == null ? "" : Base64.getEncoder().encodeToString(m.data.getBytes(StandardCharsets.UTF_8));
+    return m.seq + "\t" + m.kind + "\t" + m.orderId + "\t" + m.key + "\t" + m.request + "\t" + data
+        + "\t" + m.acceptedAt;
+  }
+
+  private static Mutation parse(String line) throws IOException {
+    String[] fields = line.split("\t", -1);
+    // Entries stored before the acceptance time was recorded have six fields
+    if (fields.length != 6 && fields.length != 7) {
+      throw new IOException("Malformed write-behind queue entry: " + line);
+    }
+    String data = fields[5].isEmpty() ? null : new String(Base64.getDecoder().decode(fields[5]), StandardCharsets.UTF_8);
+    try {
+      LocalDateTime acceptedAt = fields.length == 7
+          ? LocalDateTime.parse(fields[6]) : LocalDateTime.now(ClientClock.get());
+      return new Mutation(Long.parseLong(fields[0]), Kind.valueOf(fields[1]), Integer.parseInt(fields[2]),
+          fields[3], fields[4], data, acceptedAt);
+    } catch (IllegalArgumentException | DateTimeParseException e) {
+      throw new IOException("Malformed write-behind queue entry: " + line, e);
+    }
+  }
+}
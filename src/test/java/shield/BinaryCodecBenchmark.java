@@ -0,0 +1,101 @@
+/**
+ * Benchmark comparing the JSON and binary encodings of the catalog and caterer
+ * responses: message size, gzipped size and decoding time. Not run with the
+ * tests, start it with
+ *
+ *   java -cp <test and main classes, gson> shield.BinaryCodecBenchmark [boxes] [caterers]
+ */
+
+package shield;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+public class BinaryCodecBenchmark {
+  private static final Type BOXES_TYPE = new TypeToken<List<FoodBoxCatalog.MessagingFoodBox>>() {} .getType();
+  private static final Type CATERERS_TYPE = new TypeToken<List<String>>() {} .getType();
+
+  private static final String[] DIETS = {"none", "pollotarian", "vegan"};
+  private static final String[] ITEMS = {"cucumbers", "tomatoes", "onions", "carrots", "bacon",
+      "eggs", "oranges", "apples", "pork", "chicken", "avocado", "mango", "cabbage"};
+
+  private static final long RUN_NANOS = 2_000_000_000L;
+
+  private static volatile Object sink;
+
+  public static void main(String[] args) {
+    int boxCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+    int catererCount = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+    List<FoodBoxCatalog.MessagingFoodBox> boxes = new ArrayList<FoodBoxCatalog.MessagingFoodBox>();
+    for (int i = 1; i <= boxCount; i++) {
+      FoodBoxCatalog.MessagingFoodBox b = new FoodBoxCatalog.MessagingFoodBox();
+      b.id = String.valueOf(i);
+      b.name = "box " + i;
+      b.diet = DIETS[i % DIETS.length];
+      b.delivered_by = "catering";
+      b.contents = new ArrayList<FoodBoxCatalog.boxContents>();
+      for (int j = 0; j < 4; j++) {
+        FoodBoxCatalog.boxContents item = new FoodBoxCatalog.boxContents();
+        item.id = (i * 7 + j * 3) % ITEMS.length + 1;
+        item.name = ITEMS[item.id - 1];
+        item.quantity = 1 + (i + j) % 3;
+        b.contents.add(item);
+      }
+      boxes.add(b);
+    }
+    List<String> caterers = new ArrayList<String>();
+    for (int i = 0; i < catererCount; i++) {
+      caterers.add(i + ",caterer " + i + ",EH" + (i % 17 + 1) + "_" + (i % 9 + 1) + "AB");
+    }
+
+    Gson gson = new Gson();
+    byte[] boxesJson = gson.toJson(boxes).getBytes(StandardCharsets.UTF_8);
+    byte[] boxesBinary = BinaryCodec.encodeFoodBoxes(boxes);
+    byte[] caterersJson = gson.toJson(caterers).getBytes(StandardCharsets.UTF_8);
+    byte[] caterersBinary = BinaryCodec.encodeCaterers(caterers);
+
+    System.out.println("payload         encoding  bytes     gzipped   decode us/op");
+    report("showFoodBox", "json", boxesJson,
+        () -> gson.fromJson(reader(boxesJson), BOXES_TYPE));
+    report("showFoodBox", "binary", boxesBinary,
+        () -> BinaryCodec.decodeFoodBoxes(ByteBuffer.wrap(boxesBinary)));
+    report("getCaterers", "json", caterersJson,
+        () -> gson.fromJson(reader(caterersJson), CATERERS_TYPE));
+    report("getCaterers", "binary", caterersBinary,
+        () -> BinaryCodec.decodeCaterers(ByteBuffer.wrap(caterersBinary)));
+  }
+
+  private static InputStreamReader reader(byte[] bytes) {
+    return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+  }
+
+  private static void report(String payload, String encoding, byte[] message, Supplier<Object> decode) {
+    // Warm up, then time as many decodes as fit in the run
+    measure(decode);
+    double micros = measure(decode) / 1000.0;
+    System.out.println(String.format("%-15s %-9s %-9d %-9d %.1f",
+        payload, encoding, message.length, Compression.gzip(message).length, micros));
+  }
+
+  private static double measure(Supplier<Object> decode) {
+    long start = System.nanoTime();
+    long runs = 0;
+    long elapsed;
+    do {
+      sink = decode.get();
+      runs++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < RUN_NANOS);
+    return (double) elapsed / runs;
+  }
+}
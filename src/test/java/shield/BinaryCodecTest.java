@@ -0,0 +1,162 @@
+/**
+ * Unit tests for the binary encoding of catalog and caterer responses, and tests
+ * of its negotiation against a local stub server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BinaryCodecTest {
+  private final static String foodBoxes = "["
+      + "{\"contents\":[{\"id\":1,\"name\":\"cucumbers\",\"quantity\":1},{\"id\":2,\"name\":\"tomatoes\",\"quantity\":2}],\"delivered_by\":\"catering\",\"diet\":\"none\",\"id\":\"1\",\"name\":\"box a\"},"
+      + "{\"contents\":[{\"id\":1,\"name\":\"cucumbers\",\"quantity\":2},{\"id\":3,\"name\":\"onions\",\"quantity\":1}],\"delivered_by\":\"catering\",\"diet\":\"pollotarian\",\"id\":\"2\",\"name\":\"box b\"},"
+      + "{\"contents\":[{\"id\":3,\"name\":\"onions\",\"quantity\":1}],\"delivered_by\":\"catering\",\"diet\":\"none\",\"id\":\"3\",\"name\":\"box c\"}"
+      + "]";
+
+  private final static List<String> caterers =
+      Arrays.asList("0,alpha,EH1_1AA", "1,Pots, Pans and Co,EH2_2BB", "-2,Café,EH1_1AA");
+
+  static List<FoodBoxCatalog.MessagingFoodBox> parse(String json) {
+    return new Gson().fromJson(json, new TypeToken<List<FoodBoxCatalog.MessagingFoodBox>>() {} .getType());
+  }
+
+  private HttpServer server;
+  private String endpoint;
+  private Transport previous;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    // Stub server answering in the encoding the client prefers
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/showFoodBox", e -> respond(e, BinaryCodec.encodeFoodBoxes(parse(foodBoxes)), foodBoxes));
+    server.createContext("/getCaterers", e -> respond(e, BinaryCodec.encodeCaterers(caterers), new Gson().toJson(caterers)));
+    server.start();
+    endpoint = "http://localhost:" + server.getAddress().getPort();
+
+    previous = ClientIO.getTransport();
+    ClientIO.setTransport(new UrlConnectionTransport());
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ClientIO.setTransport(previous);
+    ClientIO.setBinaryFormat(false);
+    server.stop(0);
+  }
+
+  private static void respond(HttpExchange e, byte[] binary, String json) throws IOException {
+    String accept = e.getRequestHeaders().getFirst("Accept");
+    byte[] body;
+    if (accept != null && accept.contains(BinaryCodec.MEDIA_TYPE)) {
+      body = binary;
+      e.getResponseHeaders().set("Content-Type", BinaryCodec.MEDIA_TYPE);
+    } else {
+      body = json.getBytes(StandardCharsets.UTF_8);
+      e.getResponseHeaders().set("Content-Type", "application/json");
+    }
+    e.sendResponseHeaders(200, body.length);
+    try (OutputStream out = e.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testFoodBoxRoundTrip() {
+    byte[] message = BinaryCodec.encodeFoodBoxes(parse(foodBoxes));
+    List<FoodBoxCatalog.MessagingFoodBox> boxes = BinaryCodec.decodeFoodBoxes(ByteBuffer.wrap(message));
+
+    assertEquals(new Gson().toJson(boxes), new Gson().toJson(parse(foodBoxes)));
+    // Repeated names are sent once
+    assertTrue(message.length < foodBoxes.length() / 2);
+  }
+
+  @Test
+  public void testCatererRoundTrip() {
+    assertEquals(BinaryCodec.decodeCaterers(ByteBuffer.wrap(BinaryCodec.encodeCaterers(caterers))), caterers);
+  }
+
+  @Test
+  public void testDistanceRoundTrip() {
+    Map<String, Float> distances = new HashMap<String, Float>();
+    distances.put(DistanceCache.key("EH1_1AA", "EH2_2BB"), 2.5f);
+    distances.put(DistanceCache.key("EH3_3CC", "EH1_1AA"), 1234.125f);
+    distances.put(DistanceCache.key("EH1_1AA", "EH1_1AA"), 0f);
+
+    assertEquals(BinaryCodec.decodeDistances(ByteBuffer.wrap(BinaryCodec.encodeDistances(distances))), distances);
+  }
+
+  @Test
+  public void testNullsAndLargeValues() {
+    FoodBoxCatalog.MessagingFoodBox box = new FoodBoxCatalog.MessagingFoodBox();
+    box.id = "9";
+    FoodBoxCatalog.boxContents item = new FoodBoxCatalog.boxContents();
+    item.id = Integer.MIN_VALUE;
+    item.quantity = Integer.MAX_VALUE;
+    box.contents = Arrays.asList(item);
+
+    FoodBoxCatalog.MessagingFoodBox decoded =
+        BinaryCodec.decodeFoodBoxes(ByteBuffer.wrap(BinaryCodec.encodeFoodBoxes(Arrays.asList(box)))).get(0);
+    assertEquals(decoded.id, "9");
+    assertNull(decoded.name);
+    assertNull(decoded.contents.get(0).name);
+    assertEquals(decoded.contents.get(0).id, Integer.MIN_VALUE);
+    assertEquals(decoded.contents.get(0).quantity, Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void testCorruptMessagesRejected() {
+    byte[] message = BinaryCodec.encodeCaterers(caterers);
+
+    // Truncated, wrong kind, trailing bytes, not binary at all
+    assertThrows(IllegalArgumentException.class,
+        () -> BinaryCodec.decodeCaterers(ByteBuffer.wrap(Arrays.copyOf(message, message.length - 1))));
+    assertThrows(IllegalArgumentException.class,
+        () -> BinaryCodec.decodeFoodBoxes(ByteBuffer.wrap(message)));
+    assertThrows(IllegalArgumentException.class,
+        () -> BinaryCodec.decodeCaterers(ByteBuffer.wrap(Arrays.copyOf(message, message.length + 1))));
+    assertThrows(IllegalArgumentException.class,
+        () -> BinaryCodec.decodeCaterers(ByteBuffer.wrap("[\"0,a,b\"]".getBytes(StandardCharsets.UTF_8))));
+  }
+
+  /**
+   * System tests
+   */
+  @Test
+  public void testNegotiatedFormats() throws IOException {
+    for (boolean binary : new boolean[] {false, true}) {
+      ClientIO.setBinaryFormat(binary);
+
+      FoodBoxCatalog catalog = FoodBoxCatalog.load(endpoint);
+      assertEquals(catalog.size(), 3);
+      assertEquals(catalog.getFoodBoxIds("none"), Arrays.asList("1", "3"));
+      assertEquals(catalog.get(2).getItemName(1), "onions");
+
+      CatererRegistry registry = CatererRegistry.load(endpoint);
+      assertEquals(registry.asStrings(), caterers);
+      assertEquals(registry.getName(1), "Pots, Pans and Co");
+    }
+  }
+}
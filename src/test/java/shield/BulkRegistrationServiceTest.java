@@ -0,0 +1,138 @@
+/**
+ * System tests for the bulk registration of shielding individuals, these need
+ * the server to be running, except the ones using a stub transport.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+public class BulkRegistrationServiceTest {
+  private final static String clientPropsFilename = "client.cfg";
+
+  private Properties clientProps;
+  private BulkRegistrationService service;
+
+  private Properties loadProperties(String propsFilename) {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    Properties props = new Properties();
+
+    try {
+      InputStream propsStream = loader.getResourceAsStream(propsFilename);
+      props.load(propsStream);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+
+    return props;
+  }
+
+  @BeforeEach
+  public void setup() {
+    clientProps = loadProperties(clientPropsFilename);
+
+    service = new BulkRegistrationService(clientProps.getProperty("endpoint"), 4, false);
+  }
+
+  @Test
+  public void testRegisterAndResume() throws Exception {
+    // Generate CHIs
+    Random rand = new Random();
+    DateTimeFormatter dtf = DateTimeFormatter.ofPattern("ddMMyy");
+    String date = dtf.format(LocalDateTime.now());
+    String CHI1 = date + (rand.nextInt(10000 - 1000) + 1000);
+    String CHI2 = date + (rand.nextInt(10000 - 1000) + 1000);
+    while (CHI2.equals(CHI1)) {
+      CHI2 = date + (rand.nextInt(10000 - 1000) + 1000);
+    }
+    String input = CHI1 + "\n\n# comment\n" + CHI2 + "\n" + date + "abcd\n";
+
+    Path output = Files.createTempFile("bulk-registration", ".csv");
+    try {
+      BulkRegistrationService.Summary summary = service.run(new StringReader(input), output);
+      assertEquals(2, summary.registered + summary.alreadyRegistered);
+      assertEquals(1, summary.invalid);
+      assertEquals(0, summary.failed);
+
+      List<String> lines = Files.readAllLines(output);
+      assertEquals(3, lines.size());
+      for (String line : lines) {
+        if (line.startsWith(CHI1 + ",") || line.startsWith(CHI2 + ",")) {
+          assertTrue(line.contains(BulkRegistrationService.REGISTERED));
+        }
+      }
+
+      // Running again with the same output file resumes from the checkpoint
+      summary = service.run(new StringReader(input), output);
+      assertEquals(3, summary.skipped);
+      assertEquals(0, summary.registered + summary.alreadyRegistered + summary.invalid + summary.failed);
+      assertEquals(3, Files.readAllLines(output).size());
+    } finally {
+      Files.deleteIfExists(output);
+    }
+  }
+
+  @Test
+  public void testResultsKeptWhenInputFails() throws Exception {
+    // Slow registrations still in flight when reading the input fails
+    Transport previous = ClientIO.getTransport();
+    ClientIO.setTransport(new Transport() {
+      @Override
+      public String doGETRequest(String url) throws IOException {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return "[\"EH1 1AA\",\"Ann\",\"Smith\",\"07700900000\"]";
+      }
+
+      @Override
+      public String doPOSTRequest(String url, String data) throws IOException {
+        throw new IOException("unexpected");
+      }
+    });
+    String CHI = DateTimeFormatter.ofPattern("ddMMyy").format(LocalDateTime.now()) + "1234";
+    Reader input = new Reader() {
+      private boolean read;
+
+      @Override
+      public int read(char[] buf, int off, int len) throws IOException {
+        if (read) {
+          throw new IOException("input lost");
+        }
+        read = true;
+        String line = CHI + "\n";
+        line.getChars(0, line.length(), buf, off);
+        return line.length();
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    Path output = Files.createTempFile("bulk-registration", ".csv");
+    try {
+      assertThrows(IOException.class, () -> service.run(input, output));
+      assertEquals(Files.readAllLines(output), Arrays.asList(CHI + "," + BulkRegistrationService.REGISTERED
+          + ",EH1_1AA,Ann,Smith,07700900000"));
+    } finally {
+      ClientIO.setTransport(previous);
+      Files.deleteIfExists(output);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * Unit tests for assigning catering companies to a cohort, these use a stub
+ * transport instead of the server.
+ */
+
+package shield;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CatererAssignmentServiceTest {
+  private final static String endpoint = "http://assignment.example:5000";
+
+  // Stub transport placing postcode EHn_... at n km along a line
+  private static class LineTransport implements Transport {
+    final AtomicInteger distanceCalls = new AtomicInteger();
+    volatile List<String> caterers = Collections.<String>emptyList();
+
+    @Override
+    public String doGETRequest(String url) throws IOException {
+      if (url.contains("/registerShieldingIndividual")) {
+        return "[\"EH7 1AA\",\"Ann\",\"Smith\",\"07700900000\"]";
+      }
+      if (url.contains("/getCaterers")) {
+        return new Gson().toJson(caterers);
+      }
+      if (!url.contains("/distance")) {
+        throw new IOException("unexpected " + url);
+      }
+      distanceCalls.incrementAndGet();
+      String query = url.substring(url.indexOf('?') + 1);
+      String[] params = query.split("&");
+      String from = params[0].substring(params[0].indexOf('=') + 1);
+      String to = params[1].substring(params[1].indexOf('=') + 1);
+      if (from.startsWith("EH99") || to.startsWith("EH99")) {
+        throw new IOException("no route");
+      }
+      return String.valueOf((float) Math.abs(position(from) - position(to)));
+    }
+
+    private static int position(String postcode) {
+      return Integer.parseInt(postcode.substring(2, postcode.indexOf('_')));
+    }
+
+    @Override
+    public String doPOSTRequest(String url, String data) throws IOException {
+      throw new IOException("unexpected");
+    }
+  }
+
+  private final static CatererRegistry registry = CatererRegistry.EMPTY.update(Arrays.asList(
+      "0,north,EH1_1AA", "1,south,EH10_1AA", "2,south too,EH10_1AA", "3,Pots, Pans and Co,EH5_5BB"));
+
+  private Transport previous;
+  private LineTransport stub;
+
+  @BeforeEach
+  public void setup() {
+    previous = ClientIO.getTransport();
+    stub = new LineTransport();
+    ClientIO.setTransport(stub);
+    DistanceCache.unshare(endpoint);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ClientIO.setTransport(previous);
+    DistanceCache.unshare(endpoint);
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testAssignsClosestOncePerPostcode() {
+    // 100 individuals at 20 postcodes, some written with a space
+    List<String> cohort = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      int n = 1 + i % 20;
+      cohort.add(i % 2 == 0 ? "EH" + n + "_2CC" : "EH" + n + " 2CC");
+    }
+
+    CatererAssignmentService service = new CatererAssignmentService(endpoint, 4);
+    CatererAssignmentService.Assignments assignments = service.assign(cohort, registry);
+
+    assertEquals(assignments.size(), 20);
+    assertTrue(assignments.getUnassigned().isEmpty());
+    // Caterers sharing a postcode are asked for once
+    assertEquals(service.getRequestCount(), 20 * 3);
+    assertEquals(stub.distanceCalls.get(), 20 * 3);
+
+    assertEquals(assignments.get("EH1_2CC").name, "north");
+    assertEquals(assignments.get("EH4 2CC").name, "Pots, Pans and Co");
+    // Ties go to the first caterer in the registry
+    assertEquals(assignments.get("EH3_2CC").name, "north");
+    assertEquals(assignments.get("EH15_2CC").name, "south");
+    assertEquals(assignments.get("EH15_2CC").postcode, "EH10_1AA");
+
+    // Distances are cached for the next cohort and the clients
+    CatererAssignmentService again = new CatererAssignmentService(endpoint + "/", 2);
+    assertEquals(again.assign(cohort, registry).size(), 20);
+    assertEquals(again.getRequestCount(), 0);
+  }
+
+  @Test
+  public void testFailuresLeftUnassigned() {
+    CatererAssignmentService service = new CatererAssignmentService(endpoint, 2);
+    CatererAssignmentService.Assignments assignments =
+        service.assign(Arrays.asList("EH2_2CC", "EH99_1AA", "G1_1AA"), registry);
+
+    assertEquals(assignments.size(), 1);
+    assertEquals(assignments.getUnassigned().size(), 2);
+    assertNull(assignments.get("EH99_1AA"));
+
+    assertEquals(service.assign(Arrays.asList("EH2_2CC"), CatererRegistry.EMPTY).size(), 0);
+  }
+
+  @Test
+  public void testClientPicksSameCaterer() {
+    // A malformed postcode and a tie between the two others
+    stub.caterers = Arrays.asList("0,nowhere,G1_1AA", "1,west,EH3_1AA", "2,east,EH11_1AA");
+    ShieldingIndividualClientImp client = new ShieldingIndividualClientImp(endpoint);
+    assertTrue(client.registerShieldingIndividual("0101011234"));
+    CatererRegistry caterers = client.refreshCaterers().getValue();
+
+    CatererAssignmentService.Assignments assignments =
+        new CatererAssignmentService(endpoint, 2).assign(Arrays.asList(client.getPostcode()), caterers);
+    assertEquals(assignments.get(client.getPostcode()).name, "west");
+    assertEquals(client.getClosestCateringCompany(), "west");
+
+    // A caterer whose distance could not be fetched is skipped
+    stub.caterers = Arrays.asList("0,broken,EH99_1AA", "1,west,EH3_1AA", "2,east,EH11_1AA");
+    assertEquals(client.getClosestCateringCompany(), "west");
+  }
+
+  @Test
+  public void testWriteReadAndAdopt() throws IOException {
+    CatererAssignmentService.Assignments assignments =
+        new CatererAssignmentService(endpoint, 2).assign(Arrays.asList("EH7_1AA", "EH9_9ZZ"), registry);
+
+    Path dir = Files.createTempDirectory("assignments");
+    Path file = dir.resolve("assignments.csv");
+    try {
+      assignments.write(file);
+      CatererAssignmentService.Assignments read = CatererAssignmentService.Assignments.read(file);
+      assertEquals(read.size(), 2);
+      assertEquals(read.get("EH7 1AA").name, "Pots, Pans and Co");
+      assertEquals(read.get("EH7_1AA").postcode, "EH5_5BB");
+
+      ShieldingIndividualClientImp client = new ShieldingIndividualClientImp(endpoint);
+      assertFalse(client.adoptCateringCompany(read));
+      assertTrue(client.registerShieldingIndividual("0101011234"));
+      int calls = stub.distanceCalls.get();
+      assertTrue(client.adoptCateringCompany(read));
+      assertEquals(stub.distanceCalls.get(), calls);
+    } finally {
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(dir);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Unit tests for the catering company's order queue, these use a stub transport
+ * instead of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+
+public class CatererOrderQueueTest {
+  private final static String endpoint = "http://localhost:5000";
+
+  // Stub transport recording the status updates
+  private static class StubTransport implements Transport {
+    final List<String> updates = new ArrayList<String>();
+    volatile boolean offline;
+    volatile String answer = "True";
+    // Updates answered with "False" whatever the answer of the others
+    final Set<String> rejected = new HashSet<String>();
+
+    @Override
+    public synchronized String doGETRequest(String url) throws IOException {
+      if (offline) {
+        throw new IOException("unreachable");
+      }
+      String update = url.substring(endpoint.length());
+      updates.add(update);
+      return rejected.contains(update) ? "False" : answer;
+    }
+
+    @Override
+    public String doPOSTRequest(String url, String data) throws IOException {
+      throw new IOException("unexpected");
+    }
+  }
+
+  private Transport previous;
+  private StubTransport stub;
+  private CatererOrderQueue queue;
+  private LocalDateTime now;
+
+  @BeforeEach
+  public void setup() {
+    previous = ClientIO.getTransport();
+    stub = new StubTransport();
+    ClientIO.setTransport(stub);
+    queue = new CateringCompanyClientImp(endpoint).getOrderQueue();
+    now = LocalDateTime.now();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ClientIO.setTransport(previous);
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testNextToPackTakesOldestOrder() {
+    assertTrue(queue.addOrder(3, now.minusHours(1)));
+    assertTrue(queue.addOrder(1, now.minusHours(3)));
+    assertTrue(queue.addOrder(2, now.minusHours(2)));
+    assertFalse(queue.addOrder(2, now));
+    assertTrue(queue.markCancelled(2).isOk());
+    assertEquals(queue.waitingCount(), 2);
+
+    assertEquals(queue.nextToPack().getOrderNumber(), 1);
+    assertEquals(queue.getStatus(1), "packed");
+    // Cancelled orders are skipped
+    assertEquals(queue.nextToPack().getOrderNumber(), 3);
+    assertNull(queue.nextToPack());
+    assertEquals(queue.waitingCount(), 0);
+  }
+
+  @Test
+  public void testTransitionsValidatedLocally() {
+    queue.addOrder(1, now);
+
+    assertEquals(queue.setStatus(1, "dispatched").getCode(), ErrorCode.INVALID_STATUS_TRANSITION);
+    assertEquals(queue.setStatus(2, "packed").getCode(), ErrorCode.ORDER_NOT_FOUND);
+    assertTrue(queue.setStatus(1, "packed").isOk());
+    assertEquals(queue.setStatus(1, "packed").getCode(), ErrorCode.INVALID_STATUS_TRANSITION);
+    assertTrue(queue.setStatus(1, "dispatched").isOk());
+    assertEquals(queue.markCancelled(1).getCode(), ErrorCode.INVALID_STATUS_TRANSITION);
+    assertTrue(queue.setStatus(1, "delivered").isOk());
+    assertEquals(queue.getStatus(1), "delivered");
+
+    // Nothing was sent yet
+    assertTrue(stub.updates.isEmpty());
+    assertEquals(queue.unpublishedCount(), 3);
+  }
+
+  @Test
+  public void testPublishSendsChangesInOrder() {
+    queue.addOrder(1, now.minusHours(2));
+    queue.addOrder(2, now.minusHours(1));
+    queue.nextToPack();
+    queue.nextToPack();
+    queue.setStatus(1, "dispatched");
+
+    Result<Integer> result = queue.publish();
+    assertTrue(result.isOk());
+    assertEquals((int) result.getValue(), 3);
+    assertEquals(queue.unpublishedCount(), 0);
+
+    // Changes of the same order keep their order
+    assertEquals(stub.updates.size(), 3);
+    assertTrue(stub.updates.indexOf("/updateOrderStatus?order_id=1&newStatus=packed")
+        < stub.updates.indexOf("/updateOrderStatus?order_id=1&newStatus=dispatched"));
+    assertTrue(stub.updates.contains("/updateOrderStatus?order_id=2&newStatus=packed"));
+  }
+
+  @Test
+  public void testPublishKeepsChangesNotSent() {
+    queue.addOrder(1, now);
+    queue.nextToPack();
+
+    stub.offline = true;
+    assertEquals(queue.publish().getCode(), ErrorCode.IO_ERROR);
+    assertEquals(queue.unpublishedCount(), 1);
+
+    stub.offline = false;
+    stub.answer = "False";
+    assertEquals(queue.publish().getCode(), ErrorCode.SERVER_REJECTED);
+    assertEquals(queue.unpublishedCount(), 0);
+  }
+
+  @Test
+  public void testPublishStopsOrderAtRejection() {
+    queue.addOrder(1, now.minusHours(2));
+    queue.addOrder(2, now.minusHours(1));
+    queue.nextToPack();
+    queue.nextToPack();
+    queue.setStatus(1, "dispatched");
+    queue.setStatus(1, "delivered");
+    queue.setStatus(2, "dispatched");
+    stub.rejected.add("/updateOrderStatus?order_id=1&newStatus=packed");
+
+    Result<Integer> result = queue.publish();
+    assertEquals(result.getCode(), ErrorCode.SERVER_REJECTED);
+    assertEquals(queue.unpublishedCount(), 0);
+
+    // The changes after the rejected one are dropped without being sent
+    assertFalse(stub.updates.contains("/updateOrderStatus?order_id=1&newStatus=dispatched"));
+    assertFalse(stub.updates.contains("/updateOrderStatus?order_id=1&newStatus=delivered"));
+    assertTrue(stub.updates.contains("/updateOrderStatus?order_id=2&newStatus=dispatched"));
+    assertEquals(stub.updates.size(), 3);
+  }
+}
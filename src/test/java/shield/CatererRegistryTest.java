@@ -0,0 +1,93 @@
+/**
+ * Unit tests for the parsed registry of catering companies, these use canned
+ * /getCaterers responses instead of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.*;
+
+public class CatererRegistryTest {
+
+  @Test
+  public void testParse() {
+    List<String> entries = Arrays.asList("0,alpha,EH1_1AA", "1,beta,EH2_2BB", "2,gamma,EH1_1AA");
+    CatererRegistry registry = CatererRegistry.EMPTY.update(entries);
+
+    assertEquals(3, registry.size());
+    assertEquals(1, registry.getPosition(1));
+    assertEquals("beta", registry.getName(1));
+    assertEquals("EH2_2BB", registry.getPostcode(1));
+
+    assertArrayEquals(new int[] {1}, registry.indicesOfName("beta"));
+    assertArrayEquals(new int[] {0, 2}, registry.indicesOfPostcode("EH1_1AA"));
+    assertArrayEquals(new int[0], registry.indicesOfName("delta"));
+
+    // The legacy view is the same as the server's response
+    assertEquals(entries, registry.asStrings());
+  }
+
+  @Test
+  public void testNameWithComma() {
+    CatererRegistry registry = CatererRegistry.EMPTY.update(Arrays.asList("0,Pots, Pans and Co,EH1_1AA", "oops"));
+
+    assertEquals(1, registry.size());
+    assertEquals("Pots, Pans and Co", registry.getName(0));
+    assertEquals("EH1_1AA", registry.getPostcode(0));
+
+    // Malformed entries are kept as sent, so the same response is recognised
+    List<String> entries = Arrays.asList("0,Pots, Pans and Co,EH1_1AA", "oops");
+    assertEquals(entries, registry.asStrings());
+    assertSame(registry, registry.update(entries));
+
+    // As does a registry restored from asStrings(), e.g. by a warm start snapshot
+    CatererRegistry restored = CatererRegistry.EMPTY.update(registry.asStrings());
+    assertSame(restored, restored.update(entries));
+  }
+
+  @Test
+  public void testDeltaRefresh() {
+    CatererRegistry registry = CatererRegistry.EMPTY.update(Arrays.asList("0,alpha,EH1_1AA", "1,beta,EH2_2BB"));
+
+    // Nothing changed
+    assertSame(registry, registry.update(Arrays.asList("0,alpha,EH1_1AA", "1,beta,EH2_2BB")));
+
+    // New catering company appended
+    CatererRegistry appended = registry.update(Arrays.asList("0,alpha,EH1_1AA", "1,beta,EH2_2BB", "2,gamma,EH3_3CC"));
+    assertNotSame(registry, appended);
+    assertEquals(2, registry.size());
+    assertEquals(3, appended.size());
+    assertEquals("gamma", appended.getName(2));
+    assertArrayEquals(new int[] {2}, appended.indicesOfName("gamma"));
+
+    // Previously seen entries changed, so the registry is rebuilt
+    CatererRegistry rebuilt = appended.update(Arrays.asList("0,delta,EH4_4DD"));
+    assertEquals(1, rebuilt.size());
+    assertEquals("delta", rebuilt.getName(0));
+    assertArrayEquals(new int[0], rebuilt.indicesOfName("alpha"));
+  }
+
+  @Test
+  public void testEarlierEntryChanged() {
+    CatererRegistry registry = CatererRegistry.EMPTY.update(Arrays.asList("0,alpha,EH1_1AA", "1,beta,EH2_2BB"));
+
+    // Same count and last entry, but the first entry moved
+    CatererRegistry moved = registry.update(Arrays.asList("0,alpha,EH9_9ZZ", "1,beta,EH2_2BB"));
+    assertNotSame(registry, moved);
+    assertEquals("EH9_9ZZ", moved.getPostcode(0));
+    assertArrayEquals(new int[0], moved.indicesOfPostcode("EH1_1AA"));
+
+    // Earlier entry renamed while one is appended, so the registry is rebuilt
+    CatererRegistry renamed = moved.update(Arrays.asList("0,omega,EH9_9ZZ", "1,beta,EH2_2BB", "2,gamma,EH3_3CC"));
+    assertEquals(3, renamed.size());
+    assertEquals("omega", renamed.getName(0));
+    assertArrayEquals(new int[0], renamed.indicesOfName("alpha"));
+    assertArrayEquals(new int[] {2}, renamed.indicesOfName("gamma"));
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Unit tests for the CHI number validation, these do not need the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.*;
+
+public class ChiValidatorTest {
+
+  @Test
+  public void testFormat() {
+    assertEquals(ChiValidator.Outcome.WRONG_LENGTH, ChiValidator.validate(null, false));
+    assertEquals(ChiValidator.Outcome.WRONG_LENGTH, ChiValidator.validate("010101", false));
+    assertEquals(ChiValidator.Outcome.WRONG_LENGTH, ChiValidator.validate("01010112345", false));
+    assertEquals(ChiValidator.Outcome.NOT_NUMERIC, ChiValidator.validate("010101abcd", false));
+    assertEquals(ChiValidator.Outcome.NOT_NUMERIC, ChiValidator.validate("0101-11234", false));
+    assertEquals(ChiValidator.Outcome.VALID, ChiValidator.validate("0101011234", false));
+  }
+
+  @Test
+  public void testDate() {
+    // Day and month out of range
+    assertEquals(ChiValidator.Outcome.INVALID_DATE, ChiValidator.validate("0000001234", false));
+    assertEquals(ChiValidator.Outcome.INVALID_DATE, ChiValidator.validate("3201011234", false));
+    assertEquals(ChiValidator.Outcome.INVALID_DATE, ChiValidator.validate("0113011234", false));
+    assertEquals(ChiValidator.Outcome.INVALID_DATE, ChiValidator.validate("3104011234", false));
+
+    // Leap years
+    assertTrue(ChiValidator.isValid("2902001234", false));
+    assertTrue(ChiValidator.isValid("2902241234", false));
+    assertFalse(ChiValidator.isValid("2902231234", false));
+    assertFalse(ChiValidator.isValid("3002241234", false));
+  }
+
+  @Test
+  public void testCheckDigit() {
+    assertTrue(ChiValidator.isValid("0101011237", true));
+    assertTrue(ChiValidator.isValid("1507804563", true));
+    assertTrue(ChiValidator.isValid("3112990005", true));
+    assertFalse(ChiValidator.isValid("0101011234", true));
+    assertEquals(ChiValidator.Outcome.INVALID_CHECK_DIGIT, ChiValidator.validate("1507804560", true));
+
+    // Check digit is only verified when required
+    assertTrue(ChiValidator.isValid("1507804560", false));
+  }
+
+  @Test
+  public void testValidateAll() {
+    List<String> chis = Arrays.asList("0101011237", "010101abcd", "0000001234", "1507804563");
+
+    BitSet valid = ChiValidator.validateAll(chis, true);
+    assertEquals(2, valid.cardinality());
+    assertTrue(valid.get(0));
+    assertTrue(valid.get(3));
+
+    assertEquals(0, ChiValidator.validateAll(new ArrayList<String>(), false).cardinality());
+  }
+}
@@ -0,0 +1,164 @@
+/**
+ * Unit tests for the content coding of requests and responses, and tests of both
+ * transports against a local stub server that compresses large responses.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+public class CompressionTest {
+  // Responses at least this large are compressed by the stub server
+  private static final int RESPONSE_THRESHOLD = 256;
+
+  private static String catalog;
+
+  private HttpServer server;
+  private String endpoint;
+  private final AtomicInteger bytesSent = new AtomicInteger();
+  private final AtomicReference<String> postedEncoding = new AtomicReference<String>();
+  private final AtomicReference<String> posted = new AtomicReference<String>();
+
+  @BeforeAll
+  public static void buildCatalog() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 1; i <= 50; i++) {
+      sb.append(i > 1 ? "," : "").append("{\"id\":").append(i)
+        .append(",\"name\":\"box ").append(i).append("\",\"diet\":\"none\"}");
+    }
+    catalog = sb.append(']').toString();
+  }
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/showFoodBox", e -> respond(e, catalog));
+    server.createContext("/requestStatus", e -> respond(e, "1"));
+    server.createContext("/editOrder", e -> {
+      postedEncoding.set(e.getRequestHeaders().getFirst("Content-Encoding"));
+      InputStream in = "gzip".equals(postedEncoding.get())
+          ? new GZIPInputStream(e.getRequestBody()) : e.getRequestBody();
+      posted.set(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+      respond(e, "True");
+    });
+    server.start();
+    endpoint = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private void respond(HttpExchange e, String response) throws IOException {
+    byte[] body = response.getBytes(StandardCharsets.UTF_8);
+    String accepted = e.getRequestHeaders().getFirst("Accept-Encoding");
+    if (body.length >= RESPONSE_THRESHOLD && accepted != null && accepted.contains("gzip")) {
+      body = Compression.gzip(body);
+      e.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    bytesSent.addAndGet(body.length);
+    e.sendResponseHeaders(200, body.length);
+    try (OutputStream out = e.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static byte[] deflate(byte[] data, boolean zlib) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib))) {
+      deflate.write(data);
+    }
+    return out.toByteArray();
+  }
+
+  private static String decode(byte[] data, String coding) throws IOException {
+    try (ResponseBody body = ResponseBody.read(Compression.decode(new ByteArrayInputStream(data), coding))) {
+      return body.toString();
+    }
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testDecode() throws IOException {
+    byte[] data = catalog.getBytes(StandardCharsets.UTF_8);
+
+    assertEquals(decode(data, null), catalog);
+    assertEquals(decode(data, "identity"), catalog);
+    assertEquals(decode(Compression.gzip(data), "gzip"), catalog);
+    assertEquals(decode(deflate(data, true), "deflate"), catalog);
+    assertEquals(decode(deflate(data, false), "Deflate"), catalog);
+    assertThrows(IOException.class, () -> decode(data, "br"));
+  }
+
+  @Test
+  public void testThreshold() {
+    assertFalse(Compression.shouldCompress(100000, Compression.NEVER));
+    assertFalse(Compression.shouldCompress(1023, 1024));
+    assertTrue(Compression.shouldCompress(1024, 1024));
+    assertEquals(Compression.parseThreshold(null), Compression.NEVER);
+    assertEquals(Compression.parseThreshold(" 2048 "), 2048);
+    assertEquals(Compression.parseThreshold("lots"), Compression.NEVER);
+  }
+
+  /**
+   * System tests
+   */
+  @Test
+  public void testCompressedResponses() throws IOException {
+    Transport[] transports = {
+      new UrlConnectionTransport(),
+      new HttpClientTransport(HttpClient.Version.HTTP_1_1),
+    };
+    for (Transport t : transports) {
+      bytesSent.set(0);
+      assertEquals(t.doGETRequest(endpoint + "/showFoodBox"), catalog);
+      assertTrue(bytesSent.get() < catalog.length() / 2);
+
+      assertEquals(t.doGETRequestAsync(endpoint + "/showFoodBox").join(), catalog);
+      try (ResponseBody body = t.doGETRequestBody(endpoint + "/requestStatus")) {
+        assertEquals(body.parseInt(), 1);
+      }
+    }
+  }
+
+  @Test
+  public void testCompressedRequests() throws IOException {
+    Transport[] transports = {
+      new UrlConnectionTransport(RESPONSE_THRESHOLD),
+      new HttpClientTransport(HttpClient.Version.HTTP_1_1, RESPONSE_THRESHOLD),
+    };
+    for (Transport t : transports) {
+      assertEquals(t.doPOSTRequest(endpoint + "/editOrder", "{}"), "True");
+      assertEquals(postedEncoding.get(), null);
+      assertEquals(posted.get(), "{}");
+
+      assertEquals(t.doPOSTRequest(endpoint + "/editOrder", catalog), "True");
+      assertEquals(postedEncoding.get(), "gzip");
+      assertEquals(posted.get(), catalog);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Unit tests for the in-memory food box catalog, these build the catalog from a
+ * canned /showFoodBox response instead of the server, and check that clients
+ * share one lazy download of it.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FoodBoxCatalogTest {
+  private final static String response = "["
+      + "{\"contents\":[{\"id\":1,\"name\":\"cucumbers\",\"quantity\":1},{\"id\":2,\"name\":\"tomatoes\",\"quantity\":2}],\"delivered_by\":\"catering\",\"diet\":\"none\",\"id\":\"1\",\"name\":\"box a\"},"
+      + "{\"contents\":[{\"id\":1,\"name\":\"cucumbers\",\"quantity\":2},{\"id\":3,\"name\":\"onions\",\"quantity\":1}],\"delivered_by\":\"catering\",\"diet\":\"pollotarian\",\"id\":\"2\",\"name\":\"box b\"},"
+      + "{\"contents\":[{\"id\":3,\"name\":\"onions\",\"quantity\":1}],\"delivered_by\":\"catering\",\"diet\":\"none\",\"id\":\"3\",\"name\":\"box c\"}"
+      + "]";
+
+  private FoodBoxCatalog catalog;
+
+  @BeforeEach
+  public void setup() {
+    catalog = FoodBoxCatalog.fromJson(response);
+  }
+
+  @Test
+  public void testGetFoodBoxIds() {
+    assertEquals(Arrays.asList("1", "3"), catalog.getFoodBoxIds("none"));
+    assertEquals(Arrays.asList("2"), catalog.getFoodBoxIds("pollotarian"));
+    assertTrue(catalog.getFoodBoxIds("Kosher").isEmpty());
+    assertEquals(Arrays.asList("1", "2", "3"), catalog.getFoodBoxIds(""));
+
+    // Lists are precomputed and shared, so they cannot be modified
+    assertThrows(UnsupportedOperationException.class, () -> catalog.getFoodBoxIds("none").add("4"));
+  }
+
+  @Test
+  public void testLookups() {
+    assertEquals(3, catalog.size());
+    assertEquals("none", catalog.getDiet(1));
+    assertEquals("pollotarian", catalog.getDiet(2));
+  }
+
+  @Test
+  public void testCompactContents() {
+    CompactFoodBox box = catalog.get(2);
+    assertEquals("2", box.getId());
+    assertEquals(2, box.getItemCount());
+    assertEquals(1, box.indexOf(3));
+    assertEquals(-1, box.indexOf(4));
+    assertEquals("onions", box.getItemName(1));
+    assertEquals(2, box.getQuantity(0));
+
+    // Item names are stored once in the shared string table
+    assertSame(catalog.get(1).getItemName(0), box.getItemName(0));
+  }
+
+  @Test
+  public void testWorkingFoodBox() {
+    WorkingFoodBox picked = new WorkingFoodBox(catalog.get(1));
+    assertFalse(picked.isModified());
+
+    picked.setQuantity(1, 1);
+    assertTrue(picked.isModified());
+    assertEquals(1, picked.getQuantity(1));
+    assertEquals(1, picked.getQuantity(0));
+
+    // Only the changed item is stored
+    picked.setQuantity(1, 0);
+    assertEquals(1, picked.getChangeCount());
+    assertEquals(0, picked.getQuantity(1));
+    picked.setQuantity(1, 1);
+
+    // The catalog is not modified
+    assertEquals(2, catalog.get(1).getQuantity(1));
+    assertEquals(2, new WorkingFoodBox(catalog.get(1)).getQuantity(1));
+
+    assertEquals("{\"contents\": [{\"id\":1,\"name\":\"cucumbers\",\"quantity\":1},"
+        + "{\"id\":2,\"name\":\"tomatoes\",\"quantity\":1}]}", picked.toJson());
+  }
+
+  // Stub transport answering /showFoodBox once released, counting the requests
+  private static class SlowCatalogTransport implements Transport {
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile boolean fail;
+
+    @Override
+    public String doGETRequest(String url) throws IOException {
+      calls.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      if (fail) {
+        throw new IOException("unreachable");
+      }
+      return response;
+    }
+
+    @Override
+    public String doPOSTRequest(String url, String data) throws IOException {
+      throw new IOException("unexpected");
+    }
+  }
+
+  @Test
+  public void testLazySharedLoad() throws Exception {
+    Transport previous = ClientIO.getTransport();
+    SlowCatalogTransport stub = new SlowCatalogTransport();
+    ClientIO.setTransport(stub);
+    try {
+      String endpoint = "http://lazy.example:5000";
+      ShieldingIndividualClientImp first = new ShieldingIndividualClientImp(endpoint);
+      ShieldingIndividualClientImp second = new ShieldingIndividualClientImp(endpoint);
+      // Creating clients makes no request
+      assertEquals(0, stub.calls.get());
+
+      CompletableFuture<Boolean> preloaded = first.preload();
+      CompletableFuture<Integer> counted = CompletableFuture.supplyAsync(second::getFoodBoxNumber);
+      stub.release.countDown();
+
+      assertTrue(preloaded.get(5, TimeUnit.SECONDS));
+      assertEquals(3, (int) counted.get(5, TimeUnit.SECONDS));
+      assertEquals(2, second.getItemsNumberForFoodBox(1));
+      // Both clients waited for the same download
+      assertEquals(1, stub.calls.get());
+      assertSame(FoodBoxCatalog.getShared(endpoint), FoodBoxCatalog.getShared(endpoint));
+    } finally {
+      ClientIO.setTransport(previous);
+    }
+  }
+
+  @Test
+  public void testFailedLoadRetried() throws Exception {
+    Transport previous = ClientIO.getTransport();
+    SlowCatalogTransport stub = new SlowCatalogTransport();
+    stub.fail = true;
+    stub.release.countDown();
+    ClientIO.setTransport(stub);
+    try {
+      ShieldingIndividualClientImp client = new ShieldingIndividualClientImp("http://unreachable.example:5000");
+
+      // No catalog, but no exception either
+      assertFalse(client.preload().get(5, TimeUnit.SECONDS));
+      assertEquals(0, client.getFoodBoxNumber());
+      assertFalse(client.tryShowFoodBoxes("none").isOk());
+
+      stub.fail = false;
+      assertEquals(3, client.getFoodBoxNumber());
+      assertEquals(Arrays.asList("1", "3"), client.showFoodBoxes("none"));
+      assertEquals(Arrays.asList("1", "2", "3"), client.showFoodBoxes(""));
+    } finally {
+      ClientIO.setTransport(previous);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Tests of the load generator and of the latency histogram its report is built
+ * from. The system test runs a short simulation against the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGeneratorTest {
+  private final static String clientPropsFilename = "client.cfg";
+
+  private Properties loadProperties(String propsFilename) {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    Properties props = new Properties();
+
+    try {
+      InputStream propsStream = loader.getResourceAsStream(propsFilename);
+      props.load(propsStream);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+
+    return props;
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(h.getPercentileMicros(99), 0);
+
+    // 1 to 1000 ms
+    for (int i = 1; i <= 1000; i++) {
+      h.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(h.getCount(), 1000);
+    assertEquals(h.getMaxMicros(), 1000000);
+    assertEquals(h.getMeanMicros(), 500500, 1);
+    assertEquals(h.getPercentileMicros(50), 500000, 500000 / 32.0);
+    assertEquals(h.getPercentileMicros(99), 990000, 990000 / 32.0);
+    assertEquals(h.getPercentileMicros(100), 1000000);
+  }
+
+  @Test
+  public void testBucketsCoverValues() {
+    for (long v : new long[] {0, 1, 63, 64, 65, 127, 128, 1000, 123456789, Long.MAX_VALUE / 4}) {
+      int bucket = LatencyHistogram.bucket(v);
+      assertTrue(LatencyHistogram.highestIn(bucket) >= v);
+      assertTrue(bucket == 0 || LatencyHistogram.highestIn(bucket - 1) < v);
+    }
+  }
+
+  @Test
+  public void testParseMix() {
+    Map<LoadGenerator.Operation, Integer> mix = LoadGenerator.parseMix("showFoodBoxes:3, placeOrder:1,");
+    assertEquals((int) mix.get(LoadGenerator.Operation.SHOW_FOOD_BOXES), 3);
+    assertEquals((int) mix.get(LoadGenerator.Operation.PLACE_ORDER), 1);
+    assertEquals((int) mix.get(LoadGenerator.Operation.CATERER_UPDATE), 0);
+
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("register:1"));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("placeOrder"));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseMix("placeOrder:-1"));
+    assertThrows(IllegalArgumentException.class, () -> new LoadGenerator("http://localhost", settings("threads", "x")));
+  }
+
+  private static Properties settings(String... pairs) {
+    Properties p = new Properties();
+    for (int i = 0; i < pairs.length; i += 2) {
+      p.setProperty(pairs[i], pairs[i + 1]);
+    }
+    return p;
+  }
+
+  /**
+   * System tests
+   */
+  @Test
+  public void testShortRun() throws InterruptedException {
+    Properties settings = settings("individuals", "6", "caterers", "2", "supermarkets", "1",
+        "durationSeconds", "3", "rampUpSeconds", "0", "thinkTimeMillis", "20", "threads", "4");
+    LoadGenerator.Report report =
+        new LoadGenerator(loadProperties(clientPropsFilename).getProperty("endpoint"), settings).run();
+
+    LoadGenerator.OperationStats register = report.getStats(LoadGenerator.Operation.REGISTER);
+    assertEquals(register.getCount(), 9);
+    assertEquals(register.getErrors(), 0);
+    assertTrue(report.getStats(LoadGenerator.Operation.SHOW_FOOD_BOXES).getCount() > 0);
+    assertTrue(report.getThroughput(LoadGenerator.Operation.SHOW_FOOD_BOXES) > 0);
+    assertTrue(report.toString().contains("showFoodBoxes"));
+  }
+}
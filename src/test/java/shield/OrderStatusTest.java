@@ -0,0 +1,103 @@
+/**
+ * Unit tests for the order lifecycle and the local checks of status updates, these
+ * use a stub transport instead of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OrderStatusTest {
+  private final static String endpoint = "http://localhost:5000";
+
+  // Stub transport accepting every request
+  private static class CountingTransport implements Transport {
+    final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public String doGETRequest(String url) {
+      calls.incrementAndGet();
+      return "True";
+    }
+
+    @Override
+    public String doPOSTRequest(String url, String data) throws IOException {
+      throw new IOException("unexpected");
+    }
+  }
+
+  private Transport previous;
+  private CountingTransport stub;
+
+  @BeforeEach
+  public void setup() {
+    previous = ClientIO.getTransport();
+    stub = new CountingTransport();
+    ClientIO.setTransport(stub);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ClientIO.setTransport(previous);
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testCodesMatchServer() {
+    assertEquals(OrderStatus.fromCode(0), OrderStatus.PLACED);
+    assertEquals(OrderStatus.fromCode(1), OrderStatus.PACKED);
+    assertEquals(OrderStatus.fromCode(2), OrderStatus.DISPATCHED);
+    assertEquals(OrderStatus.fromCode(3), OrderStatus.DELIVERED);
+    assertEquals(OrderStatus.fromCode(4), OrderStatus.CANCELLED);
+    assertNull(OrderStatus.fromCode(OrderStatus.NOT_FOUND_CODE));
+    assertEquals(OrderStatus.fromName("dispatched").getCode(), 2);
+    assertNull(OrderStatus.fromName("lost"));
+  }
+
+  @Test
+  public void testTransitionTable() {
+    assertTrue(OrderStatus.PLACED.canMoveTo(OrderStatus.PACKED));
+    assertTrue(OrderStatus.PACKED.canMoveTo(OrderStatus.DISPATCHED));
+    assertTrue(OrderStatus.DISPATCHED.canMoveTo(OrderStatus.DELIVERED));
+    assertTrue(OrderStatus.PLACED.canMoveTo(OrderStatus.CANCELLED));
+    assertTrue(OrderStatus.PACKED.canMoveTo(OrderStatus.CANCELLED));
+
+    assertFalse(OrderStatus.PLACED.canMoveTo(OrderStatus.DISPATCHED));
+    assertFalse(OrderStatus.DISPATCHED.canMoveTo(OrderStatus.CANCELLED));
+    assertFalse(OrderStatus.DELIVERED.canMoveTo(OrderStatus.PACKED));
+    assertFalse(OrderStatus.PACKED.canMoveTo(OrderStatus.PACKED));
+
+    assertTrue(OrderStatus.DELIVERED.isFinal());
+    assertTrue(OrderStatus.CANCELLED.isFinal());
+    assertFalse(OrderStatus.PACKED.isFinal());
+    assertFalse(OrderStatus.PLACED.isReachable());
+    assertTrue(OrderStatus.DELIVERED.isReachable());
+  }
+
+  @Test
+  public void testIllegalUpdatesRejectedWithoutRequest() {
+    CateringCompanyClientImp client = new CateringCompanyClientImp(endpoint);
+
+    assertEquals(client.tryUpdateOrderStatus(1, "lost").getCode(), ErrorCode.INVALID_STATUS_TRANSITION);
+    assertEquals(client.tryUpdateOrderStatus(1, "placed").getCode(), ErrorCode.INVALID_STATUS_TRANSITION);
+    assertEquals(stub.calls.get(), 0);
+
+    assertTrue(client.updateOrderStatus(1, "packed"));
+    assertTrue(client.updateOrderStatus(1, "dispatched"));
+    assertEquals(stub.calls.get(), 2);
+
+    // The order is known to be dispatched, going back needs no request
+    assertEquals(client.tryUpdateOrderStatus(1, "packed").getCode(), ErrorCode.INVALID_STATUS_TRANSITION);
+    assertEquals(client.tryUpdateOrderStatus(1, "dispatched").getCode(), ErrorCode.INVALID_STATUS_TRANSITION);
+    assertEquals(stub.calls.get(), 2);
+  }
+}
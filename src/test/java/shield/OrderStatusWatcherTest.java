@@ -0,0 +1,230 @@
+/**
+ * Unit tests for order status subscriptions, these use a stub transport instead
+ * of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OrderStatusWatcherTest {
+
+  // Stub transport serving the status of one order, with or without long-poll
+  private static class StatusTransport implements Transport {
+    final boolean longPoll;
+    final AtomicInteger polls = new AtomicInteger();
+    final AtomicInteger longPolls = new AtomicInteger();
+    // Number of long-poll requests answered with a server error first
+    final AtomicInteger errors = new AtomicInteger();
+    private int status = 0;
+
+    StatusTransport(boolean longPoll) {
+      this.longPoll = longPoll;
+    }
+
+    synchronized void setStatus(int newStatus) {
+      status = newStatus;
+      notifyAll();
+    }
+
+    @Override
+    public synchronized String doGETRequest(String url) throws IOException {
+      if (url.contains("/requestStatus")) {
+        polls.incrementAndGet();
+        return String.valueOf(status);
+      }
+      if (url.contains("/awaitStatus") && longPoll) {
+        if (errors.getAndDecrement() > 0) {
+          throw new RuntimeException("Failed with HTTP code : 500");
+        }
+        longPolls.incrementAndGet();
+        int known = Integer.parseInt(url.replaceAll(".*&status=(-?\\d+).*", "$1"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (status == known && System.currentTimeMillis() < deadline) {
+          try {
+            wait(100);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        }
+        return String.valueOf(status);
+      }
+      throw new RuntimeException("Failed with HTTP code : 404");
+    }
+
+    @Override
+    public String doPOSTRequest(String url, String data) {
+      throw new RuntimeException("Failed with HTTP code : 404");
+    }
+  }
+
+  // Stub transport that leaves long-poll requests open until the test answers them
+  private static class AsyncStatusTransport implements Transport {
+    final BlockingQueue<CompletableFuture<String>> open = new LinkedBlockingQueue<CompletableFuture<String>>();
+
+    @Override
+    public String doGETRequest(String url) throws IOException {
+      if (url.contains("/requestStatus")) {
+        return "0";
+      }
+      throw new RuntimeException("Failed with HTTP code : 404");
+    }
+
+    @Override
+    public CompletableFuture<String> doGETRequestAsync(String url) {
+      if (!url.contains("/awaitStatus")) {
+        return Transport.super.doGETRequestAsync(url);
+      }
+      CompletableFuture<String> answer = new CompletableFuture<String>();
+      open.add(answer);
+      return answer;
+    }
+
+    @Override
+    public String doPOSTRequest(String url, String data) {
+      throw new RuntimeException("Failed with HTTP code : 404");
+    }
+  }
+
+  private Transport previous;
+  private BlockingQueue<String> events;
+
+  @BeforeEach
+  public void setup() {
+    previous = ClientIO.getTransport();
+    events = new LinkedBlockingQueue<String>();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ClientIO.setTransport(previous);
+  }
+
+  private String next() throws InterruptedException {
+    return events.poll(10, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testFallsBackToPolling() throws InterruptedException {
+    String endpoint = "http://polling.test";
+    StatusTransport stub = new StatusTransport(false);
+    ClientIO.setTransport(stub);
+
+    OrderStatusWatcher.Subscription s = OrderStatusWatcher.subscribe(endpoint, 7,
+        (number, status) -> events.add(number + ":" + status));
+    assertEquals(next(), "7:placed");
+
+    stub.setStatus(1);
+    assertEquals(next(), "7:packed");
+    assertEquals(OrderStatusWatcher.supportsLongPoll(endpoint), Boolean.FALSE);
+
+    // A final status ends the subscription
+    stub.setStatus(3);
+    assertEquals(next(), "7:delivered");
+    assertTrue(s.isDone());
+  }
+
+  @Test
+  public void testUsesLongPollWhenOffered() throws InterruptedException {
+    String endpoint = "http://long-poll.test";
+    StatusTransport stub = new StatusTransport(true);
+    ClientIO.setTransport(stub);
+
+    OrderStatusWatcher.Subscription s = OrderStatusWatcher.subscribe(endpoint, 7,
+        (number, status) -> events.add(number + ":" + status));
+    assertEquals(next(), "7:placed");
+
+    stub.setStatus(1);
+    assertEquals(next(), "7:packed");
+    stub.setStatus(2);
+    assertEquals(next(), "7:dispatched");
+    stub.setStatus(4);
+    assertEquals(next(), "7:cancelled");
+
+    // Only the first status was polled
+    assertEquals(stub.polls.get(), 1);
+    assertTrue(stub.longPolls.get() >= 3);
+    assertEquals(OrderStatusWatcher.supportsLongPoll(endpoint), Boolean.TRUE);
+    assertTrue(s.isDone());
+  }
+
+  @Test
+  public void testServerErrorKeepsLongPoll() throws InterruptedException {
+    String endpoint = "http://long-poll-error.test";
+    StatusTransport stub = new StatusTransport(true);
+    stub.errors.set(1);
+    ClientIO.setTransport(stub);
+
+    OrderStatusWatcher.Subscription s = OrderStatusWatcher.subscribe(endpoint, 7,
+        (number, status) -> events.add(number + ":" + status));
+    assertEquals(next(), "7:placed");
+
+    // The first long-poll fails with a 500, which does not rule long-poll out
+    stub.setStatus(1);
+    assertEquals(next(), "7:packed");
+    assertEquals(OrderStatusWatcher.supportsLongPoll(endpoint), Boolean.TRUE);
+    assertEquals(stub.polls.get(), 1);
+
+    stub.setStatus(3);
+    assertEquals(next(), "7:delivered");
+    assertTrue(s.isDone());
+  }
+
+  @Test
+  public void testCancelStopsListener() throws InterruptedException {
+    String endpoint = "http://cancelled.test";
+    StatusTransport stub = new StatusTransport(false);
+    ClientIO.setTransport(stub);
+
+    OrderStatusWatcher.Subscription s = OrderStatusWatcher.subscribe(endpoint, 7,
+        (number, status) -> events.add(number + ":" + status));
+    assertEquals(next(), "7:placed");
+    s.cancel();
+
+    stub.setStatus(1);
+    assertEquals(events.poll(3, TimeUnit.SECONDS), null);
+    assertTrue(s.isDone());
+  }
+
+  @Test
+  public void testLongPollsDoNotHoldThreads() throws InterruptedException {
+    String endpoint = "http://async-long-poll.test";
+    AsyncStatusTransport stub = new AsyncStatusTransport();
+    ClientIO.setTransport(stub);
+
+    int orders = 50;
+    for (int i = 1; i <= orders; i++) {
+      OrderStatusWatcher.subscribe(endpoint, i, (number, status) -> events.add(number + ":" + status));
+    }
+    for (int i = 0; i < orders; i++) {
+      assertTrue(next().endsWith(":placed"));
+    }
+
+    // Every subscription has a long-poll open at the same time
+    List<CompletableFuture<String>> open = new ArrayList<CompletableFuture<String>>();
+    for (int i = 0; i < orders; i++) {
+      CompletableFuture<String> answer = stub.open.poll(10, TimeUnit.SECONDS);
+      assertTrue(answer != null);
+      open.add(answer);
+    }
+
+    for (CompletableFuture<String> answer : open) {
+      answer.complete("3");
+    }
+    for (int i = 0; i < orders; i++) {
+      assertTrue(next().endsWith(":delivered"));
+    }
+    assertEquals(OrderStatusWatcher.supportsLongPoll(endpoint), Boolean.TRUE);
+  }
+}
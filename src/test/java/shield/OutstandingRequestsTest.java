@@ -0,0 +1,141 @@
+/**
+ * Unit tests for the idempotency keys and the outstanding request table, these use
+ * a stub transport instead of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class OutstandingRequestsTest {
+  private final static String endpoint = "http://localhost:5000";
+
+  // Stub transport dropping the first requests and then answering from a map
+  private static class FlakyTransport implements Transport {
+    final List<String> requests = new ArrayList<String>();
+    final Map<String, String> answers = new HashMap<String, String>();
+    int failures;
+
+    @Override
+    public synchronized String doGETRequest(String endpoint) throws IOException {
+      requests.add(endpoint);
+      if (failures > 0) {
+        failures--;
+        throw new IOException("timed out");
+      }
+      for (Map.Entry<String, String> a : answers.entrySet()) {
+        if (endpoint.contains(a.getKey())) {
+          return a.getValue();
+        }
+      }
+      return "False";
+    }
+
+    @Override
+    public synchronized String doPOSTRequest(String endpoint, String data) throws IOException {
+      return doGETRequest(endpoint);
+    }
+  }
+
+  private Transport previous;
+  private FlakyTransport stub;
+  private OutstandingRequests outstanding;
+
+  @BeforeEach
+  public void setup() {
+    previous = ClientIO.getTransport();
+    stub = new FlakyTransport();
+    ClientIO.setTransport(stub);
+    outstanding = new OutstandingRequests();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ClientIO.setTransport(previous);
+  }
+
+  private static String keyOf(String url) {
+    return url.substring(url.indexOf(OutstandingRequests.KEY_PARAM + "="));
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testWithKey() {
+    assertEquals(OutstandingRequests.withKey("/placeOrder", "k"), "/placeOrder?idempotency_key=k");
+    assertEquals(OutstandingRequests.withKey("/placeOrder?individual_id=1", "k"), "/placeOrder?individual_id=1&idempotency_key=k");
+  }
+
+  @Test
+  public void testRetriesReuseKey() throws IOException {
+    stub.failures = 2;
+    stub.answers.put("/cancelOrder", "True");
+
+    OutstandingRequests.Entry e = outstanding.begin("cancel", "/cancelOrder?order_id=1", null);
+    long start = System.nanoTime();
+    assertEquals(outstanding.send(endpoint, e), "True");
+    assertEquals(e.getAttempts(), 3);
+
+    // The retries waited at least half of their backoff
+    long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue(waited >= (OutstandingRequests.BACKOFF_MILLIS + 2 * OutstandingRequests.BACKOFF_MILLIS) / 2);
+    assertEquals(stub.requests.size(), 3);
+    for (String url : stub.requests) {
+      assertEquals(keyOf(url), OutstandingRequests.KEY_PARAM + "=" + e.getKey());
+    }
+
+    outstanding.complete(e);
+    assertEquals(outstanding.size(), 0);
+  }
+
+  @Test
+  public void testUnansweredOperationStaysOutstanding() {
+    stub.failures = OutstandingRequests.MAX_ATTEMPTS;
+
+    OutstandingRequests.Entry e = outstanding.begin("cancel", "/cancelOrder?order_id=1", null);
+    assertThrows(IOException.class, () -> outstanding.send(endpoint, e));
+    assertEquals(outstanding.size(), 1);
+
+    // Retrying the operation resends the original request with the original key
+    OutstandingRequests.Entry again = outstanding.begin("cancel", "/cancelOrder?order_id=2", null);
+    assertTrue(again == e);
+    assertEquals(again.getRequest(), "/cancelOrder?order_id=1");
+    assertEquals(outstanding.get("cancel"), e);
+
+    // Once completed the next operation gets a new key
+    outstanding.complete(e);
+    assertNotEquals(outstanding.begin("cancel", "/cancelOrder?order_id=2", null).getKey(), e.getKey());
+  }
+
+  @Test
+  public void testSupermarketOrderReconciledAgainstStatus() {
+    SupermarketClientImp client = new SupermarketClientImp(endpoint);
+
+    // No attempt gets an answer and the server does not know the order, so it
+    // stays outstanding
+    stub.failures = OutstandingRequests.MAX_ATTEMPTS;
+    assertFalse(client.recordSupermarketOrder("0101011234", 7));
+    assertEquals(client.getOutstandingRequests().size(), 1);
+    assertTrue(stub.requests.get(stub.requests.size() - 1).contains("/requestStatus?order_id=7"));
+
+    // No attempt gets an answer again, but one was recorded and /requestStatus
+    // knows the order
+    stub.failures = OutstandingRequests.MAX_ATTEMPTS;
+    stub.answers.put("/requestStatus?order_id=7", "0");
+    assertTrue(client.recordSupermarketOrder("0101011234", 7));
+    assertEquals(client.getOutstandingRequests().size(), 0);
+
+    // Without an ambiguous attempt a rejection is reported as is
+    assertFalse(client.recordSupermarketOrder("0101011234", 7));
+  }
+}
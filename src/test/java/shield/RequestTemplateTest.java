@@ -0,0 +1,72 @@
+/**
+ * Unit tests for the precompiled request templates.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestTemplateTest {
+  private final static String endpoint = "http://localhost:5000";
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testExpandKeepsPlainValues() {
+    RequestTemplate t = RequestTemplate.compile("/placeOrder",
+        "individual_id", "catering_business_name", "catering_postcode");
+
+    assertEquals(t.expand("0101011234", "4321", "EH1_1AB"),
+        "/placeOrder?individual_id=0101011234&catering_business_name=4321&catering_postcode=EH1_1AB");
+    assertEquals(t.url(endpoint, "0101011234", null, null),
+        endpoint + "/placeOrder?individual_id=0101011234&catering_business_name=null&catering_postcode=null");
+  }
+
+  @Test
+  public void testExpandWithoutParameters() {
+    assertEquals(RequestTemplate.compile("/getCaterers").url(endpoint), endpoint + "/getCaterers");
+  }
+
+  @Test
+  public void testValuesArePercentEncoded() {
+    RequestTemplate t = RequestTemplate.compile("/registerSupermarket", "business_name", "postcode");
+
+    assertEquals(t.expand("Fish & Chips", "EH1 1AB"),
+        "/registerSupermarket?business_name=Fish%20%26%20Chips&postcode=EH1%201AB");
+    assertEquals(t.expand("a=b?c/d#e+f", "~x-y_z."),
+        "/registerSupermarket?business_name=a%3Db%3Fc%2Fd%23e%2Bf&postcode=~x-y_z.");
+    // Non ASCII characters are sent as UTF-8
+    assertEquals(t.expand("Café Über", "EH1"),
+        "/registerSupermarket?business_name=Caf%C3%A9%20%C3%9Cber&postcode=EH1");
+  }
+
+  @Test
+  public void testIntegersAppendedDirectly() {
+    RequestTemplate t = RequestTemplate.compile("/updateOrderStatus", "order_id", "newStatus");
+
+    assertEquals(t.expand(42, "packed"), "/updateOrderStatus?order_id=42&newStatus=packed");
+    assertEquals(t.expand(-1, "packed"), "/updateOrderStatus?order_id=-1&newStatus=packed");
+  }
+
+  @Test
+  public void testLongValuesDoNotLeak() {
+    RequestTemplate t = RequestTemplate.compile("/distance", "postcode1", "postcode2");
+    StringBuilder longValue = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      longValue.append('a');
+    }
+
+    assertTrue(t.expand(longValue.toString(), "b").endsWith("&postcode2=b"));
+    assertEquals(t.expand("EH1_1AB", "EH2_2CD"), "/distance?postcode1=EH1_1AB&postcode2=EH2_2CD");
+  }
+
+  @Test
+  public void testParseBase() {
+    assertEquals(RequestTemplate.parseBase("http://localhost:5000/"), endpoint);
+    assertEquals(RequestTemplate.parseBase(endpoint), endpoint);
+    assertEquals(RequestTemplate.parseBase("not a uri"), "not a uri");
+  }
+}
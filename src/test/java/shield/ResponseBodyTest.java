@@ -0,0 +1,107 @@
+/**
+ * Unit tests for response bodies read into pooled buffers.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class ResponseBodyTest {
+
+  private static ResponseBody read(String response) throws IOException {
+    return ResponseBody.read(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testScalars() throws IOException {
+    try (ResponseBody body = read("True\n")) {
+      assertTrue(body.isTrue());
+    }
+    try (ResponseBody body = read("False")) {
+      assertFalse(body.isTrue());
+    }
+    try (ResponseBody body = read("12345")) {
+      assertEquals(body.parseInt(), 12345);
+    }
+    try (ResponseBody body = read("-1\r\n")) {
+      assertEquals(body.parseInt(), -1);
+    }
+    try (ResponseBody body = read("2147483647")) {
+      assertEquals(body.parseInt(), Integer.MAX_VALUE);
+    }
+    try (ResponseBody body = read("-2147483648")) {
+      assertEquals(body.parseInt(), Integer.MIN_VALUE);
+    }
+  }
+
+  @Test
+  public void testInvalidIntegers() throws IOException {
+    for (String response : new String[] {"", "-", "12a", "2147483648", "True", "1.5"}) {
+      try (ResponseBody body = read(response)) {
+        assertThrows(NumberFormatException.class, body::parseInt);
+      }
+    }
+  }
+
+  @Test
+  public void testFloatsMatchParseFloat() throws IOException {
+    for (String response : new String[] {"0", "3.2154", "-0.5", "123456.789", "0.000123", "1e-05", "7.", "12.3456789012345678"}) {
+      try (ResponseBody body = read(response)) {
+        assertEquals(body.parseFloat(), Float.parseFloat(response));
+      }
+    }
+    try (ResponseBody body = read("far")) {
+      assertThrows(NumberFormatException.class, body::parseFloat);
+    }
+  }
+
+  @Test
+  public void testJsonFromReader() throws IOException {
+    try (ResponseBody body = read("[\"EH1_1AB\",\n\"Café\"]")) {
+      List<String> values = new Gson().fromJson(body.reader(), new TypeToken<List<String>>() {} .getType());
+      assertEquals(values.size(), 2);
+      assertEquals(values.get(1), "Café");
+      assertEquals(body.toString(), "[\"EH1_1AB\",\"Café\"]");
+    }
+  }
+
+  @Test
+  public void testBuffersAreReused() throws IOException {
+    read("warm up").close();
+    int pooled = ResponseBody.pooledCount();
+
+    ResponseBody body = read("True");
+    assertEquals(ResponseBody.pooledCount(), pooled - 1);
+    body.close();
+    body.close();
+    assertEquals(ResponseBody.pooledCount(), pooled);
+    assertThrows(IllegalStateException.class, body::isTrue);
+  }
+
+  @Test
+  public void testLargeResponse() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 3 * ResponseBody.BUFFER_SIZE; i++) {
+      sb.append((char) ('a' + i % 26));
+    }
+    try (ResponseBody body = read(sb.toString())) {
+      assertEquals(body.length(), sb.length());
+      assertEquals(body.toString(), sb.toString());
+    }
+  }
+}
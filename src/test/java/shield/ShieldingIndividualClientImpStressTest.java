@@ -0,0 +1,202 @@
+/**
+ * Runs several sessions of the same shielding individual against one client at
+ * the same time and checks the client's local state stays consistent.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class ShieldingIndividualClientImpStressTest {
+  private final static String clientPropsFilename = "client.cfg";
+  private final static int THREADS = 8;
+
+  private Properties clientProps;
+  private ShieldingIndividualClientImp client;
+  private ExecutorService pool;
+
+  private Properties loadProperties(String propsFilename) {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    Properties props = new Properties();
+
+    try {
+      InputStream propsStream = loader.getResourceAsStream(propsFilename);
+      props.load(propsStream);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+
+    return props;
+  }
+
+  @BeforeEach
+  public void setup() {
+    clientProps = loadProperties(clientPropsFilename);
+
+    client = new ShieldingIndividualClientImp(clientProps.getProperty("endpoint"));
+    pool = Executors.newFixedThreadPool(THREADS);
+
+    // Register a new shielding individual
+    Random rand = new Random();
+    String temp = String.valueOf(rand.nextInt(10000 - 1000) + 1000);
+    DateTimeFormatter dtf = DateTimeFormatter.ofPattern("ddMMyy");
+    String CHI = dtf.format(LocalDateTime.now()) + temp;
+    assertTrue(client.registerShieldingIndividual(CHI));
+    client.getClosestCateringCompany();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  // Starts all tasks at the same time and rethrows the first failure
+  private <T> List<T> runTogether(List<Callable<T>> tasks) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<T>> futures = new ArrayList<Future<T>>();
+    for (Callable<T> task : tasks) {
+      futures.add(pool.submit(() -> {
+        start.await();
+        return task.call();
+      }));
+    }
+    start.countDown();
+
+    List<T> results = new ArrayList<T>();
+    for (Future<T> f : futures) {
+      results.add(f.get(60, TimeUnit.SECONDS));
+    }
+    return results;
+  }
+
+  /**
+   * System tests
+   */
+  @Test
+  public void testConcurrentPlaceOrderPlacesOnlyOne() throws Exception {
+    assertTrue(client.pickFoodBox(1));
+
+    List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+    for (int i = 0; i < THREADS; i++) {
+      tasks.add(client::placeOrder);
+    }
+
+    int placed = 0;
+    for (Boolean ok : runTogether(tasks)) {
+      if (ok) placed++;
+    }
+    assertEquals(placed, 1);
+    assertEquals(client.getOrderNumbers().size(), 1);
+  }
+
+  @Test
+  public void testConcurrentPickAndChangeQuantity() throws Exception {
+    int quantity = client.getItemQuantityForFoodBox(1, 1);
+    assertTrue(quantity > 0);
+    assertTrue(client.pickFoodBox(1));
+
+    // Every session lowers the same item while others re-pick the box
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < THREADS; i++) {
+      final boolean repick = i % 2 == 0;
+      tasks.add(() -> {
+        for (int j = 0; j < 200; j++) {
+          if (repick) {
+            client.pickFoodBox(1);
+          } else {
+            client.changeItemQuantityForPickedFoodBox(1, j % quantity);
+          }
+        }
+        return null;
+      });
+    }
+    runTogether(tasks);
+
+    // The catalog is never changed through the picked box
+    assertEquals(client.getItemQuantityForFoodBox(1, 1), quantity);
+    assertTrue(client.placeOrder());
+  }
+
+  @Test
+  public void testChangeWhilePlacingOrder() throws Exception {
+    int quantity = client.getItemQuantityForFoodBox(1, 1);
+    assertTrue(quantity > 0);
+    assertTrue(client.pickFoodBox(1));
+
+    // Another session lowers a quantity of the picked box while the order is in flight
+    Transport previous = ClientIO.getTransport();
+    ClientIO.setTransport(new Transport() {
+      @Override
+      public String doGETRequest(String url) throws IOException {
+        return previous.doGETRequest(url);
+      }
+
+      @Override
+      public String doPOSTRequest(String url, String data) throws IOException {
+        if (url.contains("/placeOrder")) {
+          assertTrue(client.changeItemQuantityForPickedFoodBox(1, 0));
+        }
+        return previous.doPOSTRequest(url, data);
+      }
+    });
+    try {
+      assertTrue(client.placeOrder());
+    } finally {
+      ClientIO.setTransport(previous);
+    }
+
+    // The order keeps the quantities that were sent
+    int orderNumber = client.getOrderNumbers().iterator().next();
+    assertEquals(client.getItemQuantityForOrder(1, orderNumber), quantity);
+  }
+
+  @Test
+  public void testConcurrentStatusAndCancel() throws Exception {
+    assertTrue(client.pickFoodBox(1));
+    assertTrue(client.placeOrder());
+    int orderNumber = client.getOrderNumbers().iterator().next();
+
+    AtomicInteger cancelled = new AtomicInteger();
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < THREADS; i++) {
+      final int session = i;
+      tasks.add(() -> {
+        for (int j = 0; j < 20; j++) {
+          switch ((session + j) % 4) {
+            case 0:
+              client.requestOrderStatus(orderNumber);
+              break;
+            case 1:
+              if (client.cancelOrder(orderNumber)) cancelled.incrementAndGet();
+              break;
+            case 2:
+              client.getStatusForOrder(orderNumber);
+              client.getItemIdsForOrder(orderNumber);
+              break;
+            default:
+              client.getOrderNumbers();
+              client.getItemQuantityForOrder(1, orderNumber);
+          }
+        }
+        return null;
+      });
+    }
+    runTogether(tasks);
+
+    // Only one session gets to cancel the order
+    assertEquals(cancelled.get(), 1);
+    assertEquals(client.getStatusForOrder(orderNumber), "cancelled");
+    assertTrue(client.requestOrderStatus(orderNumber));
+    assertEquals(client.getStatusForOrder(orderNumber), "cancelled");
+  }
+}
@@ -13,6 +13,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -125,6 +128,92 @@ public class ShieldingIndividualClientImpTest {
 
   }
 
+  @Test
+  public void testPlaceOrderNextWeek() {
+    // Generate CHI
+    Random rand = new Random();
+    String temp = String.valueOf(rand.nextInt(10000 - 1000) + 1000);
+    DateTimeFormatter dtf = DateTimeFormatter.ofPattern("ddMMyy");
+    String CHI = dtf.format(LocalDateTime.now()) + temp;
+
+    SimulatedClock clock = new SimulatedClock();
+    ClientClock.set(clock);
+    try {
+      assertTrue(client.registerShieldingIndividual(CHI));
+      client.getClosestCateringCompany();
+
+      assertTrue(client.pickFoodBox(1));
+      assertTrue(client.placeOrder());
+
+      // Six days later it is still the same week
+      clock.advance(Duration.ofDays(6));
+      assertTrue(client.pickFoodBox(1));
+      assertFalse(client.placeOrder());
+
+      clock.advance(Duration.ofDays(2));
+      assertTrue(client.placeOrder());
+      assertEquals(client.getOrderNumbers().size(), 2);
+    } finally {
+      ClientClock.reset();
+    }
+  }
+
+  @Test
+  public void testQueuedOrderCountsFromWhenItWasPlaced() throws IOException {
+    // Generate CHI
+    Random rand = new Random();
+    String temp = String.valueOf(rand.nextInt(10000 - 1000) + 1000);
+    DateTimeFormatter dtf = DateTimeFormatter.ofPattern("ddMMyy");
+    String CHI = dtf.format(LocalDateTime.now()) + temp;
+
+    // Transport that cannot reach the server for new orders while offline
+    Transport previous = ClientIO.getTransport();
+    boolean[] offline = {false};
+    ClientIO.setTransport(new Transport() {
+      @Override
+      public String doGETRequest(String url) throws IOException {
+        return previous.doGETRequest(url);
+      }
+
+      @Override
+      public String doPOSTRequest(String url, String data) throws IOException {
+        if (offline[0] && url.contains("/placeOrder")) {
+          throw new IOException("unreachable");
+        }
+        return previous.doPOSTRequest(url, data);
+      }
+    });
+    Path file = Files.createTempFile("write-behind", ".queue");
+    Files.delete(file);
+    SimulatedClock clock = new SimulatedClock();
+    ClientClock.set(clock);
+    try {
+      ShieldingIndividualClientImp imp = (ShieldingIndividualClientImp) client;
+      WriteBehindQueue queue = new WriteBehindQueue(clientProps.getProperty("endpoint"), file);
+      imp.setWriteBehindQueue(queue);
+      assertTrue(imp.registerShieldingIndividual(CHI));
+      imp.getClosestCateringCompany();
+
+      // Placed offline, sent three days later
+      offline[0] = true;
+      assertTrue(imp.pickFoodBox(1));
+      assertTrue(imp.placeOrder());
+      clock.advance(Duration.ofDays(3));
+      offline[0] = false;
+      assertTrue(queue.flush().isOk());
+      assertEquals(imp.getOrderNumbers().size(), 1);
+
+      // A week after it was placed, not after it was sent, the next order is allowed
+      clock.advance(Duration.ofDays(5));
+      assertTrue(imp.pickFoodBox(1));
+      assertTrue(imp.placeOrder());
+    } finally {
+      ClientClock.reset();
+      ClientIO.setTransport(previous);
+      Files.deleteIfExists(file);
+    }
+  }
+
   @Test
   public void testEditOrder(){
     // Register shielding individual
@@ -448,6 +537,24 @@ public class ShieldingIndividualClientImpTest {
     assertTrue(client.changeItemQuantityForPickedFoodBox(1, quantity-1));
   }
 
+  @Test
+  public void testPickedFoodBoxDoesNotChangeCatalog(){
+    int quantity = client.getItemQuantityForFoodBox(1, 1);
+
+    // Changing the picked box leaves the catalog untouched
+    assertTrue(client.pickFoodBox(1));
+    assertTrue(client.changeItemQuantityForPickedFoodBox(1, quantity-1));
+    assertEquals(client.getItemQuantityForFoodBox(1, 1), quantity);
+
+    // Picking the box again starts from the catalog quantities
+    assertTrue(client.pickFoodBox(1));
+    assertTrue(client.changeItemQuantityForPickedFoodBox(1, quantity-1));
+
+    // Other clients share the same catalog
+    ShieldingIndividualClient other = new ShieldingIndividualClientImp(clientProps.getProperty("endpoint"));
+    assertEquals(other.getItemQuantityForFoodBox(1, 1), quantity);
+  }
+
   /**
    * This test method testOrders is a large test for all the methods that get information
    * from placed orders. We put them all into this large unit-level-like test rather than smaller
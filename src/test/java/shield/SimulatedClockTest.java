@@ -0,0 +1,61 @@
+/**
+ * Unit tests for the simulated clock the clients can be run on.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+public class SimulatedClockTest {
+  private final static Instant start = Instant.parse("2021-03-01T10:00:00Z");
+
+  @AfterEach
+  public void tearDown() {
+    ClientClock.reset();
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testAdvanceAndSet() {
+    SimulatedClock clock = new SimulatedClock(start, ZoneOffset.UTC);
+    assertEquals(clock.instant(), start);
+    assertEquals(clock.instant(), start);
+
+    assertEquals(clock.advance(Duration.ofDays(7)), start.plus(Duration.ofDays(7)));
+    assertEquals(LocalDateTime.now(clock), LocalDateTime.of(2021, 3, 8, 10, 0));
+
+    clock.setInstant(start);
+    assertEquals(clock.millis(), start.toEpochMilli());
+  }
+
+  @Test
+  public void testZonesShareTime() {
+    SimulatedClock clock = new SimulatedClock(start, ZoneOffset.UTC);
+    Clock paris = clock.withZone(ZoneId.of("Europe/Paris"));
+
+    clock.advance(Duration.ofHours(1));
+    assertEquals(paris.instant(), clock.instant());
+    assertEquals(LocalDateTime.now(paris), LocalDateTime.of(2021, 3, 1, 12, 0));
+  }
+
+  @Test
+  public void testClientClock() {
+    SimulatedClock clock = new SimulatedClock(start, ZoneOffset.UTC);
+    ClientClock.set(clock);
+    assertEquals(ClientClock.get().instant(), start);
+
+    ClientClock.reset();
+    assertTrue(ClientClock.get().instant().isAfter(start));
+  }
+}
@@ -0,0 +1,271 @@
+/**
+ * Unit tests for merging identical in-flight requests, these use a stub transport
+ * instead of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTransportTest {
+  private final static String endpoint = "http://localhost:5000";
+
+  // Stub transport blocking every GET until released
+  private static class BlockingTransport implements Transport {
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicInteger bodyCalls = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile boolean fail = false;
+
+    @Override
+    public ResponseBody doGETRequestBody(String endpoint) throws IOException {
+      bodyCalls.incrementAndGet();
+      String response = doGETRequest(endpoint);
+      return ResponseBody.read(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), "text/plain");
+    }
+
+    @Override
+    public String doGETRequest(String endpoint) throws IOException {
+      calls.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      if (fail) {
+        throw new IOException("unreachable");
+      }
+      return "response " + endpoint;
+    }
+
+    @Override
+    public String doPOSTRequest(String endpoint, String data) {
+      calls.incrementAndGet();
+      return "posted";
+    }
+  }
+
+  private BlockingTransport stub;
+  private SingleFlightTransport transport;
+  private ExecutorService pool;
+
+  @BeforeEach
+  public void setup() {
+    stub = new BlockingTransport();
+    transport = new SingleFlightTransport(stub);
+    pool = Executors.newFixedThreadPool(8);
+  }
+
+  @AfterEach
+  public void teardown() {
+    pool.shutdownNow();
+  }
+
+  private List<Future<String>> submit(String request, int n) {
+    List<Future<String>> futures = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      futures.add(pool.submit(() -> transport.doGETRequest(endpoint + request)));
+    }
+    return futures;
+  }
+
+  private void awaitCalls(int n) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (stub.calls.get() < n && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void testIdenticalRequestsAreMerged() throws Exception {
+    String request = "/showFoodBox?orderOption=catering&dietaryPreference=none";
+    List<Future<String>> futures = submit(request, 8);
+
+    // Give every caller the chance to join the request in flight
+    awaitCalls(1);
+    Thread.sleep(100);
+    stub.release.countDown();
+
+    for (Future<String> f : futures) {
+      assertEquals("response " + endpoint + request, f.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, stub.calls.get());
+    assertEquals(0, transport.getInFlightCount());
+  }
+
+  @Test
+  public void testBodyRequestsAreMerged() throws Exception {
+    String request = endpoint + "/distance?postcode1=EH1_1AA&postcode2=EH2_2BB";
+    List<Future<ResponseBody>> futures = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      futures.add(pool.submit(() -> transport.doGETRequestBody(request)));
+    }
+    awaitCalls(1);
+    Thread.sleep(100);
+    stub.release.countDown();
+
+    // Every caller gets a body of its own, still readable once the others are closed
+    List<ResponseBody> bodies = new ArrayList<>();
+    for (Future<ResponseBody> f : futures) {
+      bodies.add(f.get(5, TimeUnit.SECONDS));
+    }
+    for (ResponseBody body : bodies) {
+      assertEquals("response " + request, body.toString());
+      assertEquals("text/plain", body.getContentType());
+      body.close();
+    }
+    assertEquals(1, stub.calls.get());
+    assertEquals(1, stub.bodyCalls.get());
+    assertEquals(0, transport.getInFlightCount());
+
+    // Mutating requests are passed through as bodies too
+    try (ResponseBody body = transport.doGETRequestBody(endpoint + "/cancelOrder?order_id=1")) {
+      assertEquals("response " + endpoint + "/cancelOrder?order_id=1", body.toString());
+    }
+    assertEquals(2, stub.bodyCalls.get());
+  }
+
+  @Test
+  public void testBinaryAndJsonRequestsAreMergedSeparately() throws Exception {
+    List<String> caterers = Arrays.asList("0,alpha,EH1_1AA", "1,Pots, Pans and Co,EH2_2BB");
+    AtomicInteger served = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+
+    // Stub server answering in the encoding the client prefers, once released
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(pool);
+    server.createContext("/getCaterers", e -> {
+      served.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      String accept = e.getRequestHeaders().getFirst("Accept");
+      byte[] body;
+      if (accept != null && accept.contains(BinaryCodec.MEDIA_TYPE)) {
+        body = BinaryCodec.encodeCaterers(caterers);
+        e.getResponseHeaders().set("Content-Type", BinaryCodec.MEDIA_TYPE);
+      } else {
+        body = new Gson().toJson(caterers).getBytes(StandardCharsets.UTF_8);
+        e.getResponseHeaders().set("Content-Type", "application/json");
+      }
+      e.sendResponseHeaders(200, body.length);
+      try (OutputStream out = e.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    String url = "http://localhost:" + server.getAddress().getPort() + "/getCaterers";
+    ExecutorService callers = Executors.newFixedThreadPool(6);
+    try {
+      SingleFlightTransport http = new SingleFlightTransport(new UrlConnectionTransport());
+      List<Future<List<String>>> binary = new ArrayList<>();
+      List<Future<List<String>>> json = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        binary.add(callers.submit(() -> {
+          try (ResponseBody body = http.doGETRequestBody(url, BinaryCodec.ACCEPT_BINARY)) {
+            assertTrue(body.isBinary());
+            return BinaryCodec.decodeCaterers(body.bytes());
+          }
+        }));
+        json.add(callers.submit(() -> {
+          try (ResponseBody body = http.doGETRequestBody(url, BinaryCodec.ACCEPT_JSON)) {
+            assertFalse(body.isBinary());
+            return new Gson().<List<String>>fromJson(body.reader(), new TypeToken<List<String>>() {} .getType());
+          }
+        }));
+      }
+
+      // One request per media type reaches the server, the other callers join them
+      long deadline = System.currentTimeMillis() + 5000;
+      while (served.get() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      Thread.sleep(100);
+      release.countDown();
+
+      for (Future<List<String>> f : binary) {
+        assertEquals(caterers, f.get(5, TimeUnit.SECONDS));
+      }
+      for (Future<List<String>> f : json) {
+        assertEquals(caterers, f.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(2, served.get());
+      assertEquals(0, http.getInFlightCount());
+    } finally {
+      callers.shutdownNow();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testMutatingRequestsAreNotMerged() throws Exception {
+    List<Future<String>> futures = submit("/cancelOrder?order_id=1", 3);
+    awaitCalls(3);
+    stub.release.countDown();
+
+    for (Future<String> f : futures) {
+      f.get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(3, stub.calls.get());
+  }
+
+  @Test
+  public void testStatusReadsAreNotMerged() throws Exception {
+    List<Future<String>> futures = submit("/requestStatus?order_id=1", 2);
+    awaitCalls(2);
+    stub.release.countDown();
+
+    for (Future<String> f : futures) {
+      f.get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(2, stub.calls.get());
+  }
+
+  @Test
+  public void testFailureIsSharedAndNotCached() throws Exception {
+    stub.fail = true;
+    List<Future<String>> futures = submit("/getCaterers", 4);
+    awaitCalls(1);
+    Thread.sleep(100);
+    stub.release.countDown();
+
+    for (Future<String> f : futures) {
+      ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertEquals(1, stub.calls.get());
+
+    // The next request goes to the network again
+    stub.fail = false;
+    assertEquals("response " + endpoint + "/getCaterers", transport.doGETRequest(endpoint + "/getCaterers"));
+    assertEquals(2, stub.calls.get());
+  }
+
+  @Test
+  public void testIsIdempotent() {
+    assertTrue(SingleFlightTransport.isIdempotent(endpoint + "/distance?postcode1=EH1_1AA&postcode2=EH2_2BB"));
+    assertTrue(SingleFlightTransport.isIdempotent(endpoint + "/getCaterers"));
+    assertFalse(SingleFlightTransport.isIdempotent(endpoint + "/requestStatus?order_id=1"));
+    assertFalse(SingleFlightTransport.isIdempotent(endpoint + "/updateOrderStatus?order_id=1&newStatus=packed"));
+    assertFalse(SingleFlightTransport.isIdempotent(endpoint));
+  }
+}
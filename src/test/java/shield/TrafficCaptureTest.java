@@ -0,0 +1,171 @@
+/**
+ * Unit tests for capturing traffic to a TrafficLog and replaying it, these use
+ * stub transports instead of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TrafficCaptureTest {
+  // Stub transport answering with the path, failing /fail
+  private static class EchoTransport implements Transport {
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    volatile long delayMillis;
+
+    @Override
+    public String doGETRequest(String url) throws IOException {
+      int n = inFlight.incrementAndGet();
+      maxInFlight.accumulateAndGet(n, Math::max);
+      try {
+        if (delayMillis > 0) {
+          Thread.sleep(delayMillis);
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      if (url.contains("/fail")) {
+        throw new IOException("failed " + url);
+      }
+      return url.substring(url.indexOf('/', url.indexOf("://") + 3));
+    }
+
+    @Override
+    public String doPOSTRequest(String url, String data) throws IOException {
+      return data.toUpperCase();
+    }
+  }
+
+  private Transport previous;
+  private Path dir;
+  private Path file;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    previous = ClientIO.getTransport();
+    dir = Files.createTempDirectory("traffic");
+    file = dir.resolve("traffic.log");
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    ClientIO.setTransport(previous);
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(dir);
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testCaptureRoundTrip() throws Exception {
+    try (CaptureTransport capture = new CaptureTransport(new EchoTransport(), new TrafficLog.Writer(file))) {
+      assertEquals(capture.doGETRequest("http://server:5000/requestStatus?order_id=1"), "/requestStatus?order_id=1");
+      try (ResponseBody body = capture.doGETRequestBody("http://server:5000/showFoodBox", BinaryCodec.ACCEPT_JSON)) {
+        assertEquals(body.toString(), "/showFoodBox");
+      }
+      assertEquals(capture.doPOSTRequest("http://server:5000/placeOrder?individual_id=1", "{\"a\":1}"), "{\"A\":1}");
+      assertEquals(capture.doGETRequestAsync("http://server:5000/distance").get(5, TimeUnit.SECONDS), "/distance");
+      assertThrows(IOException.class, () -> capture.doGETRequest("http://server:5000/fail"));
+    }
+
+    List<TrafficLog.Entry> entries = TrafficLog.read(file);
+    assertEquals(entries.size(), 5);
+
+    TrafficLog.Entry get = entries.get(0);
+    assertEquals(get.kind, TrafficLog.Kind.GET);
+    assertEquals(get.url, "http://server:5000/requestStatus?order_id=1");
+    assertEquals(get.session, Thread.currentThread().getId());
+    assertEquals(new String(get.response, StandardCharsets.UTF_8), "/requestStatus?order_id=1");
+    assertNull(get.data);
+
+    assertEquals(entries.get(1).kind, TrafficLog.Kind.GET_BODY);
+    assertEquals(entries.get(1).accept, BinaryCodec.ACCEPT_JSON);
+    assertEquals(entries.get(2).data, "{\"a\":1}");
+    assertEquals(entries.get(3).kind, TrafficLog.Kind.GET_ASYNC);
+    assertEquals(entries.get(4).outcome, TrafficLog.Outcome.IO_ERROR);
+    assertTrue(entries.get(4).startNanos >= entries.get(0).startNanos);
+  }
+
+  @Test
+  public void testConfiguredCaptureClosedOnShutdown() throws Exception {
+    Properties config = new Properties();
+    config.setProperty("captureFile", file.toString());
+    Transport t = ClientIO.createTransport(config);
+    assertTrue(t instanceof CaptureTransport);
+
+    // Closing removes the shutdown hook, closing again does nothing
+    CaptureTransport capture = (CaptureTransport) t;
+    capture.closeOnShutdown();
+    capture.close();
+    capture.close();
+    assertEquals(TrafficLog.read(file).size(), 0);
+  }
+
+  @Test
+  public void testTruncatedLogRead() throws Exception {
+    try (CaptureTransport capture = new CaptureTransport(new EchoTransport(), new TrafficLog.Writer(file))) {
+      for (int i = 0; i < 100; i++) {
+        capture.doGETRequest("http://server:5000/requestStatus?order_id=" + i);
+      }
+    }
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 20));
+    assertTrue(TrafficLog.read(file).size() < 100);
+
+    Files.write(file, "not a log".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, () -> TrafficLog.read(file));
+  }
+
+  @Test
+  public void testReplayKeepsConcurrencyAndSpeed() throws Exception {
+    // Two sessions sending a request every 100 ms, as captured against another server
+    List<TrafficLog.Entry> entries = new ArrayList<TrafficLog.Entry>();
+    for (int session = 1; session <= 2; session++) {
+      for (int i = 0; i < 4; i++) {
+        String path = i == 3 ? "/fail" : "/requestStatus?order_id=" + i;
+        entries.add(new TrafficLog.Entry(TrafficLog.Kind.GET, session, TimeUnit.MILLISECONDS.toNanos(100 * i),
+            TimeUnit.MILLISECONDS.toNanos(5), "http://captured:5000" + path, null, null, TrafficLog.Outcome.OK,
+            null, (i == 2 ? "changed" : path).getBytes(StandardCharsets.UTF_8)));
+      }
+    }
+
+    EchoTransport stub = new EchoTransport();
+    stub.delayMillis = 20;
+    ClientIO.setTransport(stub);
+
+    TrafficReplay replay = new TrafficReplay(entries, "http://localhost:5000", 2);
+    assertEquals(replay.rebase("http://captured:5000/distance?a=b"), "http://localhost:5000/distance?a=b");
+    assertEquals(replay.getSessionCount(), 2);
+
+    TrafficReplay.Report report = replay.run();
+    // 300 ms of traffic at twice the speed
+    assertTrue(report.getElapsedSeconds() >= 0.15 && report.getElapsedSeconds() < 1);
+    assertEquals(stub.maxInFlight.get(), 2);
+
+    TrafficReplay.PathStats status = report.getStats("/requestStatus");
+    assertEquals(status.getCount(), 6);
+    assertEquals(status.getErrors(), 0);
+    assertEquals(status.getResponseChanged(), 2);
+    assertEquals(report.getStats("/fail").getOutcomeChanged(), 2);
+    assertTrue(report.toString().contains("/requestStatus"));
+  }
+}
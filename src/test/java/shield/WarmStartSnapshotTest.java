@@ -0,0 +1,152 @@
+/**
+ * Unit tests for the warm-start snapshot file, these use a stub transport
+ * instead of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WarmStartSnapshotTest {
+  private final static String endpoint = "http://snapshot.example:5000";
+
+  private final static String foodBoxes = "["
+      + "{\"contents\":[{\"id\":1,\"name\":\"cucumbers\",\"quantity\":1}],\"delivered_by\":\"catering\",\"diet\":\"none\",\"id\":\"1\",\"name\":\"box a\"},"
+      + "{\"contents\":[{\"id\":3,\"name\":\"onions\",\"quantity\":1}],\"delivered_by\":\"catering\",\"diet\":\"vegan\",\"id\":\"2\",\"name\":\"box b\"}"
+      + "]";
+
+  // Stub transport answering the catalog, caterer and distance requests
+  private static class CatalogTransport implements Transport {
+    final AtomicInteger calls = new AtomicInteger();
+    volatile boolean online = true;
+    volatile String caterers = "[\"0,alpha,EH1_1AA\",\"1,beta,EH2_2BB\"]";
+
+    @Override
+    public String doGETRequest(String url) throws IOException {
+      calls.incrementAndGet();
+      if (!online) {
+        throw new IOException("offline");
+      }
+      if (url.contains("/showFoodBox")) {
+        return foodBoxes;
+      }
+      if (url.contains("/getCaterers")) {
+        return caterers;
+      }
+      if (url.contains("/distance")) {
+        return "2.5";
+      }
+      throw new IOException("unexpected " + url);
+    }
+
+    @Override
+    public String doPOSTRequest(String url, String data) throws IOException {
+      throw new IOException("unexpected");
+    }
+  }
+
+  private Transport previous;
+  private CatalogTransport stub;
+  private Path dir;
+  private Path file;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    previous = ClientIO.getTransport();
+    stub = new CatalogTransport();
+    ClientIO.setTransport(stub);
+    dir = Files.createTempDirectory("snapshot");
+    file = dir.resolve("shield.snapshot");
+    WarmStartSnapshot.unshare(endpoint);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    ClientIO.setTransport(previous);
+    WarmStartSnapshot.unshare(endpoint);
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(dir);
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testWarmStartWithoutServer() throws Exception {
+    // Fill the shared data as a running client would
+    ShieldingIndividualClientImp client = new ShieldingIndividualClientImp(endpoint);
+    assertEquals(client.getFoodBoxNumber(), 2);
+    assertEquals(client.getCatererRegistry().size(), 0);
+    assertTrue(client.refreshCaterers().isOk());
+    assertEquals(client.getDistance("EH1_1AA", "EH2_2BB"), 2.5f);
+
+    try (WarmStartSnapshot snapshot = new WarmStartSnapshot(file, endpoint)) {
+      assertTrue(snapshot.save().isOk());
+    }
+
+    // Restart with the server down
+    WarmStartSnapshot.unshare(endpoint);
+    stub.online = false;
+    int calls = stub.calls.get();
+
+    WarmStartSnapshot snapshot = new WarmStartSnapshot(file, endpoint + "/");
+    assertTrue(snapshot.load().isOk());
+
+    ShieldingIndividualClientImp restarted = new ShieldingIndividualClientImp(endpoint);
+    assertEquals(restarted.getFoodBoxNumber(), 2);
+    assertEquals(restarted.getItemNameForFoodBox(3, 2), "onions");
+    assertEquals(restarted.getCatererRegistry().getName(1), "beta");
+    assertEquals(restarted.getDistance("EH2_2BB", "EH1_1AA"), 2.5f);
+    assertEquals(stub.calls.get(), calls);
+
+    // Revalidation fails while offline and leaves the snapshot in use
+    assertFalse(snapshot.revalidate().get(5, TimeUnit.SECONDS));
+    assertEquals(restarted.getFoodBoxNumber(), 2);
+  }
+
+  @Test
+  public void testRevalidate() throws Exception {
+    ShieldingIndividualClientImp client = new ShieldingIndividualClientImp(endpoint);
+    assertTrue(client.refreshCaterers().isOk());
+    assertTrue(client.preload().get(5, TimeUnit.SECONDS));
+
+    WarmStartSnapshot snapshot = new WarmStartSnapshot(file, endpoint);
+    assertTrue(snapshot.save().isOk());
+    WarmStartSnapshot.unshare(endpoint);
+
+    stub.caterers = "[\"0,alpha,EH1_1AA\",\"1,beta,EH2_2BB\",\"2,gamma,EH3_3CC\"]";
+    assertTrue(snapshot.warmStart().isOk());
+    // Clients created now see the snapshot or, once revalidated, the server's data
+    assertTrue(snapshot.revalidate().get(5, TimeUnit.SECONDS));
+    assertEquals(new ShieldingIndividualClientImp(endpoint).getCatererRegistry().size(), 3);
+  }
+
+  @Test
+  public void testUnusableFilesIgnored() throws IOException {
+    WarmStartSnapshot snapshot = new WarmStartSnapshot(file, endpoint);
+    assertFalse(snapshot.load().isOk());
+
+    // Another endpoint
+    assertTrue(snapshot.save().isOk());
+    assertFalse(new WarmStartSnapshot(file, "http://other.example:5000").load().isOk());
+
+    // Truncated or not a snapshot at all
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+    assertFalse(snapshot.load().isOk());
+    Files.write(file, "[]".getBytes());
+    assertFalse(snapshot.load().isOk());
+    assertNull(FoodBoxCatalog.peekShared(endpoint));
+  }
+}
@@ -0,0 +1,278 @@
+/**
+ * Unit tests for the write-behind queue of order mutations, these use a stub
+ * transport instead of the server.
+ */
+
+package shield;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class WriteBehindQueueTest {
+  private final static String endpoint = "http://localhost:5000";
+
+  // Stub transport recording the requests and answering from a map
+  private static class StubTransport implements Transport {
+    final List<String> requests = new ArrayList<String>();
+    final Map<String, String> answers = new HashMap<String, String>();
+    final Set<String> errors = new HashSet<String>();
+    final Set<String> unreachable = new HashSet<String>();
+    volatile boolean offline;
+
+    @Override
+    public synchronized String doGETRequest(String url) throws IOException {
+      if (offline) {
+        throw new IOException("unreachable");
+      }
+      String request = url.substring(endpoint.length());
+      int key = request.indexOf("&" + OutstandingRequests.KEY_PARAM);
+      if (key >= 0) {
+        request = request.substring(0, key);
+      }
+      requests.add(request);
+      for (String e : errors) {
+        if (request.startsWith(e)) {
+          throw new RuntimeException("Failed with HTTP code : 500");
+        }
+      }
+      for (String u : unreachable) {
+        if (request.startsWith(u)) {
+          throw new IOException("unreachable");
+        }
+      }
+      for (Map.Entry<String, String> a : answers.entrySet()) {
+        if (request.startsWith(a.getKey())) {
+          return a.getValue();
+        }
+      }
+      return "True";
+    }
+
+    @Override
+    public synchronized String doPOSTRequest(String url, String data) throws IOException {
+      return doGETRequest(url);
+    }
+  }
+
+  // Listener recording the outcome of every mutation
+  private static class Recorder implements WriteBehindQueue.Listener {
+    final List<String> flushed = new ArrayList<String>();
+    final List<String> conflicts = new ArrayList<String>();
+
+    @Override
+    public synchronized void flushed(WriteBehindQueue.Mutation m, String response) {
+      flushed.add(m.getRequest() + "=" + response);
+    }
+
+    @Override
+    public synchronized void conflicted(WriteBehindQueue.Mutation m, String status) {
+      conflicts.add(m.getRequest() + "=" + status);
+    }
+  }
+
+  private Transport previous;
+  private StubTransport stub;
+  private Path file;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    previous = ClientIO.getTransport();
+    stub = new StubTransport();
+    ClientIO.setTransport(stub);
+    file = Files.createTempFile("write-behind", ".queue");
+    Files.delete(file);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    ClientIO.setTransport(previous);
+    Files.deleteIfExists(file);
+  }
+
+  /**
+   * Unit tests
+   */
+  @Test
+  public void testQueueSurvivesRestart() throws IOException {
+    WriteBehindQueue queue = new WriteBehindQueue(endpoint, file);
+    WriteBehindQueue.Mutation placed =
+        queue.enqueue(WriteBehindQueue.Kind.PLACE_ORDER, 0, "k1", "/placeOrder?individual_id=1", "{\"contents\": []}");
+    queue.enqueue(WriteBehindQueue.Kind.CANCEL_ORDER, 5, "k2", "/cancelOrder?order_id=5", null);
+
+    WriteBehindQueue reopened = new WriteBehindQueue(endpoint, file);
+    List<WriteBehindQueue.Mutation> pending = reopened.pending();
+    assertEquals(pending.size(), 2);
+    assertEquals(pending.get(0).getKind(), WriteBehindQueue.Kind.PLACE_ORDER);
+    assertEquals(pending.get(0).getData(), "{\"contents\": []}");
+    assertEquals(pending.get(0).getAcceptedAt(), placed.getAcceptedAt());
+    assertEquals(pending.get(1).getOrderId(), 5);
+    assertEquals(pending.get(1).getKey(), "k2");
+    assertEquals(pending.get(1).getData(), null);
+
+    // New mutations continue after the stored ones
+    assertTrue(reopened.enqueue(WriteBehindQueue.Kind.CANCEL_ORDER, 6, "k3", "/cancelOrder?order_id=6", null).getSeq() > pending.get(1).getSeq());
+  }
+
+  @Test
+  public void testFlushWhileOfflineKeepsMutations() throws IOException {
+    WriteBehindQueue queue = new WriteBehindQueue(endpoint, file);
+    queue.enqueue(WriteBehindQueue.Kind.CANCEL_ORDER, 5, "k1", "/cancelOrder?order_id=5", null);
+
+    stub.offline = true;
+    assertFalse(queue.flush().isOk());
+    assertEquals(queue.size(), 1);
+    assertEquals(new WriteBehindQueue(endpoint, file).size(), 1);
+
+    stub.offline = false;
+    stub.answers.put("/requestStatus", "0");
+    assertTrue(queue.flush().isOk());
+    assertEquals(queue.size(), 0);
+    assertEquals(new WriteBehindQueue(endpoint, file).size(), 0);
+  }
+
+  @Test
+  public void testFlushMergesAndOrdersPerOrder() throws IOException {
+    WriteBehindQueue queue = new WriteBehindQueue(endpoint, file);
+    Recorder recorder = new Recorder();
+    queue.addListener(recorder);
+
+    queue.enqueue(WriteBehindQueue.Kind.EDIT_ORDER, 1, "k1", "/editOrder?order_id=1", "a");
+    queue.enqueue(WriteBehindQueue.Kind.UPDATE_ORDER_STATUS, 2, "k2", "/updateOrderStatus?order_id=2&newStatus=packed", null);
+    queue.enqueue(WriteBehindQueue.Kind.EDIT_ORDER, 1, "k3", "/editOrder?order_id=1", "b");
+    queue.enqueue(WriteBehindQueue.Kind.UPDATE_ORDER_STATUS, 2, "k4", "/updateOrderStatus?order_id=2&newStatus=dispatched", null);
+    queue.enqueue(WriteBehindQueue.Kind.EDIT_ORDER, 3, "k5", "/editOrder?order_id=3", "c");
+    queue.enqueue(WriteBehindQueue.Kind.CANCEL_ORDER, 3, "k6", "/cancelOrder?order_id=3", null);
+    queue.enqueue(WriteBehindQueue.Kind.PLACE_ORDER, 0, "k7", "/placeOrder?individual_id=1", "d");
+
+    stub.answers.put("/requestStatus", "0");
+    stub.answers.put("/placeOrder", "42");
+    Result<Integer> result = queue.flush();
+    assertTrue(result.isOk());
+    assertEquals((int) result.getValue(), 7);
+
+    // Only the last edit of order 1 and the cancellation of order 3 are sent
+    List<String> sent = new ArrayList<String>();
+    for (String r : stub.requests) {
+      if (!r.startsWith("/requestStatus")) {
+        sent.add(r);
+      }
+    }
+    assertEquals(sent, Arrays.asList(
+        "/editOrder?order_id=1",
+        "/updateOrderStatus?order_id=2&newStatus=packed",
+        "/updateOrderStatus?order_id=2&newStatus=dispatched",
+        "/cancelOrder?order_id=3",
+        "/placeOrder?individual_id=1"));
+    assertEquals(recorder.flushed.size(), 5);
+    assertTrue(recorder.flushed.contains("/placeOrder?individual_id=1=42"));
+    assertTrue(recorder.conflicts.isEmpty());
+  }
+
+  @Test
+  public void testConflictsWithServerStatusAreDropped() throws IOException {
+    WriteBehindQueue queue = new WriteBehindQueue(endpoint, file);
+    Recorder recorder = new Recorder();
+    queue.addListener(recorder);
+
+    queue.enqueue(WriteBehindQueue.Kind.EDIT_ORDER, 1, "k1", "/editOrder?order_id=1", "a");
+    queue.enqueue(WriteBehindQueue.Kind.CANCEL_ORDER, 2, "k2", "/cancelOrder?order_id=2", null);
+    queue.enqueue(WriteBehindQueue.Kind.UPDATE_ORDER_STATUS, 3, "k3", "/updateOrderStatus?order_id=3&newStatus=packed", null);
+
+    stub.answers.put("/requestStatus?order_id=1", "1");
+    stub.answers.put("/requestStatus?order_id=2", "2");
+    stub.answers.put("/requestStatus?order_id=3", "-1");
+    assertTrue(queue.flush().isOk());
+    assertEquals(queue.size(), 0);
+
+    assertEquals(recorder.conflicts, Arrays.asList(
+        "/editOrder?order_id=1=packed",
+        "/cancelOrder?order_id=2=dispatched",
+        "/updateOrderStatus?order_id=3&newStatus=packed=not found"));
+    assertTrue(recorder.flushed.isEmpty());
+  }
+
+  @Test
+  public void testEditsKeptUntilCancellationAccepted() throws IOException {
+    WriteBehindQueue queue = new WriteBehindQueue(endpoint, file);
+    Recorder recorder = new Recorder();
+    queue.addListener(recorder);
+
+    queue.enqueue(WriteBehindQueue.Kind.EDIT_ORDER, 1, "k1", "/editOrder?order_id=1", "a");
+    queue.enqueue(WriteBehindQueue.Kind.EDIT_ORDER, 1, "k2", "/editOrder?order_id=1", "b");
+    queue.enqueue(WriteBehindQueue.Kind.CANCEL_ORDER, 1, "k3", "/cancelOrder?order_id=1", null);
+
+    // No answer to the cancellation, the edits it replaces stay queued
+    stub.answers.put("/requestStatus?order_id=1", "0");
+    stub.unreachable.add("/cancelOrder");
+    assertFalse(queue.flush().isOk());
+    assertEquals(queue.size(), 3);
+    assertTrue(recorder.conflicts.isEmpty());
+
+    // The order was dispatched meanwhile, so the cancellation conflicts and so do
+    // the edits it replaced
+    stub.unreachable.clear();
+    stub.answers.put("/requestStatus?order_id=1", "2");
+    assertTrue(queue.flush().isOk());
+    assertEquals(queue.size(), 0);
+    assertEquals(recorder.conflicts, Arrays.asList(
+        "/editOrder?order_id=1=dispatched",
+        "/editOrder?order_id=1=dispatched",
+        "/cancelOrder?order_id=1=dispatched"));
+    assertTrue(recorder.flushed.isEmpty());
+  }
+
+  @Test
+  public void testErrorAnswersDoNotBlockQueue() throws IOException {
+    WriteBehindQueue queue = new WriteBehindQueue(endpoint, file);
+    Recorder recorder = new Recorder();
+    queue.addListener(recorder);
+
+    queue.enqueue(WriteBehindQueue.Kind.EDIT_ORDER, 1, "k1", "/editOrder?order_id=1", "a");
+    queue.enqueue(WriteBehindQueue.Kind.CANCEL_ORDER, 2, "k2", "/cancelOrder?order_id=2", null);
+    queue.enqueue(WriteBehindQueue.Kind.PLACE_ORDER, 0, "k3", "/placeOrder?individual_id=1", "b");
+    queue.enqueue(WriteBehindQueue.Kind.CANCEL_ORDER, 4, "k4", "/cancelOrder?order_id=4", null);
+
+    // A malformed status, an error status code and a malformed order number
+    stub.answers.put("/requestStatus?order_id=1", "<html>oops</html>");
+    stub.answers.put("/requestStatus?order_id=2", "0");
+    stub.answers.put("/requestStatus?order_id=4", "0");
+    stub.errors.add("/cancelOrder?order_id=2");
+    stub.answers.put("/placeOrder", "Error");
+    Result<Integer> result = queue.flush();
+    assertTrue(result.isOk());
+    assertEquals((int) result.getValue(), 4);
+    assertEquals(queue.size(), 0);
+    assertEquals(new WriteBehindQueue(endpoint, file).size(), 0);
+
+    assertEquals(recorder.conflicts, Arrays.asList(
+        "/editOrder?order_id=1=null",
+        "/cancelOrder?order_id=2=null",
+        "/placeOrder?individual_id=1=null"));
+    assertEquals(recorder.flushed, Arrays.asList("/cancelOrder?order_id=4=True"));
+  }
+
+  @Test
+  public void testClientQueuesStatusUpdateWhenOffline() throws IOException {
+    WriteBehindQueue queue = new WriteBehindQueue(endpoint, file);
+    CateringCompanyClientImp client = new CateringCompanyClientImp(endpoint);
+
+    stub.offline = true;
+    assertFalse(client.updateOrderStatus(1, "packed"));
+
+    client.setWriteBehindQueue(queue);
+    assertTrue(client.updateOrderStatus(1, "packed"));
+    assertEquals(queue.size(), 1);
+
+    stub.offline = false;
+    stub.answers.put("/requestStatus", "0");
+    assertTrue(queue.flush().isOk());
+    assertTrue(stub.requests.contains("/updateOrderStatus?order_id=1&newStatus=packed"));
+  }
+}